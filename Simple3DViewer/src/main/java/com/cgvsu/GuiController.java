@@ -4,11 +4,15 @@ import com.cgvsu.math.vector.Vector2f;
 import javafx.scene.canvas.GraphicsContext;
 import com.cgvsu.model.Model;
 import com.cgvsu.render_engine.Camera;
+import com.cgvsu.render_engine.CullMode;
 import com.cgvsu.render_engine.RenderEngine;
 import com.cgvsu.math.vector.Vector3f;
-import com.cgvsu.objreader.ObjReader;
+import com.cgvsu.objreader.ModelLoader;
+import com.cgvsu.objreader.ObjWriter;
 import com.cgvsu.math.AffineTransformations;
 import com.cgvsu.texture.Texture;
+import com.cgvsu.texture.TextureManager;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.animation.AnimationTimer;
 import javafx.event.ActionEvent;
@@ -20,12 +24,14 @@ import javafx.stage.FileChooser;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.Scene;
 import javafx.scene.paint.Color;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 public class GuiController {
 
@@ -47,6 +53,9 @@ public class GuiController {
     @FXML
     private CheckBox lightingCheckBox;
 
+    @FXML
+    private CheckBox cullBackFacesCheckBox;
+
     @FXML
     private ColorPicker colorPicker;
 
@@ -128,6 +137,16 @@ public class GuiController {
     @FXML
     private ListView<String> listModels;
 
+    // Фоновая загрузка моделей
+    @FXML
+    private ProgressBar loadProgressBar;
+
+    @FXML
+    private Button cancelLoadButton;
+
+    private final ModelLoader modelLoader = new ModelLoader(Platform::runLater);
+    private ModelLoader.Batch currentLoad = null;
+
     // Флаг для отладки (можно включить при необходимости)
     private static final boolean DEBUG_MODE = false;
 
@@ -369,6 +388,14 @@ public class GuiController {
             requestRender();
         });
 
+        // Отсечение задних граней
+        cullBackFacesCheckBox.setSelected(false);
+        cullBackFacesCheckBox.setOnAction(e -> {
+            if (DEBUG_MODE) System.out.println("Cull back faces checkbox: " + cullBackFacesCheckBox.isSelected());
+            onCullModeChanged();
+            requestRender();
+        });
+
     }
 
     private void initializeCameraControls() {
@@ -556,6 +583,11 @@ public class GuiController {
                     onLightingChanged();
                     handled = true;
                     break;
+                case DIGIT4:
+                    cullBackFacesCheckBox.setSelected(!cullBackFacesCheckBox.isSelected());
+                    onCullModeChanged();
+                    handled = true;
+                    break;
             }
 
             if (handled) {
@@ -575,13 +607,16 @@ public class GuiController {
         // 1. Подготавливаем буфер ОДИН РАЗ для всех моделей
         RenderEngine.prepareBuffer((int) width, (int) height);
 
-        // 2. Рисуем все модели по очереди
+        // 2. Рисуем все модели по очереди, ближние первыми
         // Они будут использовать один и тот же Z-буфер и не сотрут друг друга
         if (!scene3D.getModels().isEmpty()) {
-            for (Model m : scene3D.getModels()) {
-                RenderEngine.render(gc, activeCamera, m, (int) width, (int) height);
+            for (Model m : RenderEngine.sortFrontToBack(scene3D.getModels(), activeCamera)) {
+                RenderEngine.render(activeCamera, m, (int) width, (int) height);
             }
         }
+
+        // 3. Выводим кадр на холст
+        RenderEngine.present(gc);
     }
 
     private void requestRender() {
@@ -628,6 +663,18 @@ public class GuiController {
         }
     }
 
+    @FXML
+    private void onCullModeChanged() {
+        if (scene3D.getActiveModel() != null) {
+            scene3D.getActiveModel().setCullMode(getSelectedCullMode());
+            requestRender();
+        }
+    }
+
+    private CullMode getSelectedCullMode() {
+        return cullBackFacesCheckBox.isSelected() ? CullMode.BACK : CullMode.NONE;
+    }
+
     @FXML
     private void onColorChanged() {
         if (scene3D.getActiveModel() != null) {
@@ -802,109 +849,86 @@ public class GuiController {
     @FXML
     private void onOpenModelMenuItemClick() {
         FileChooser fileChooser = new FileChooser();
-        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Model (*.obj)", "*.obj"));
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Model (*.obj, *.obj.gz)", "*.obj", "*.obj.gz"));
         fileChooser.setTitle("Загрузить модели");
 
         List<File> files = fileChooser.showOpenMultipleDialog(getStage());
         if (files == null) return;
 
+        List<Path> paths = new ArrayList<>();
         for (File file : files) {
-            try {
-                String fileContent = Files.readString(file.toPath());
-                Model newModel = ObjReader.read(fileContent);
+            paths.add(file.toPath());
+        }
 
+        // Файлы читаются в фоне, окно и отрисовка не замирают; готовые модели приходят в потоке JavaFX
+        startLoading(paths, new ModelLoader.Listener() {
+            @Override
+            public void onLoaded(Path source, Model newModel) {
                 // Добавляем модель в сцену (БЕЗ очистки!)
                 scene3D.addModel(newModel);
 
                 // Добавляем в ListView
-                listModels.getItems().add(file.getName());
+                listModels.getItems().add(source.getFileName().toString());
 
                 // Применяем текущие настройки к новой модели
+                if (newModel.hasTexture()) {
+                    textureCheckBox.setSelected(true);
+                }
                 applySettingsToModel(newModel);
+                requestRender();
+            }
 
-            } catch (Exception e) {
-                showErrorAlert("Ошибка", "Не удалось загрузить: " + file.getName() + "\n" + e.getMessage());
+            @Override
+            public void onFailed(Path source, Exception error) {
+                showErrorAlert("Ошибка", "Не удалось загрузить: " + source.getFileName() + "\n" + error.getMessage());
             }
-        }
-        requestRender();
+        });
     }
-    private void autoFindTexture(File modelFile, Model model) {
-        if (model.textureVertices.isEmpty()) {
-            return;
+
+    private void startLoading(List<Path> paths, ModelLoader.Listener listener) {
+        if (currentLoad != null && !currentLoad.isDone()) {
+            currentLoad.cancel();
         }
 
-        String modelPath = modelFile.getAbsolutePath();
-        String modelDir = modelFile.getParent();
-        String modelName = modelFile.getName();
-
-        // Убираем расширение .obj
-        String baseName = modelName.replace(".obj", "").replace(".OBJ", "");
-
-        // Возможные имена текстурных файлов
-        String[] possibleExtensions = {".png", ".jpg", ".jpeg", ".bmp", ".tga"};
-        String[] possibleNames = {
-                baseName + ".png",
-                baseName + ".jpg",
-                baseName + "_texture.png",
-                baseName + "_diffuse.png",
-                "texture.png",
-                "diffuse.png"
-        };
+        setLoadingControlsVisible(true);
+        loadProgressBar.setProgress(0);
+        currentLoad = modelLoader.load(paths, new ModelLoader.Listener() {
+            @Override
+            public void onProgress(double progress) {
+                loadProgressBar.setProgress(progress);
+            }
 
+            @Override
+            public void onLoaded(Path source, Model model) {
+                listener.onLoaded(source, model);
+            }
 
-        // Сначала ищем в той же директории
-        for (String textureName : possibleNames) {
-            for (String ext : possibleExtensions) {
-                if (textureName.toLowerCase().endsWith(ext)) {
-                    File textureFile = new File(modelDir, textureName);
-                    if (textureFile.exists()) {
-                        loadTextureFile(textureFile, model);
-                        return;
-                    }
-                }
+            @Override
+            public void onFailed(Path source, Exception error) {
+                listener.onFailed(source, error);
             }
-        }
 
-        // Если не нашли, пробуем с разными расширениями
-        for (String ext : possibleExtensions) {
-            File textureFile = new File(modelDir, baseName + ext);
-            if (textureFile.exists()) {
-                loadTextureFile(textureFile, model);
-                return;
+            @Override
+            public void onFinished(boolean cancelled) {
+                listener.onFinished(cancelled);
+                setLoadingControlsVisible(currentLoad != null && !currentLoad.isDone());
             }
-        }
+        });
     }
 
-    /**
-     * Загрузка текстуры из файла
-     */
-    private void loadTextureFile(File textureFile, Model model) {
-        try {
-            System.out.println("Found texture: " + textureFile.getAbsolutePath());
-
-            Texture texture = new Texture(textureFile.getAbsolutePath());
-
-            if (texture != null && texture.isValid()) {
-                model.setTexture(texture);
-                textureCheckBox.setSelected(true);
-                model.setUseTexture(true);
-
-                System.out.println("Texture loaded successfully: " +
-                        texture.getWidth() + "x" + texture.getHeight());
-
-                showInfoAlert("Texture Auto-Loaded",
-                        String.format("Texture '%s' loaded automatically!\n\nSize: %dx%d",
-                                textureFile.getName(),
-                                texture.getWidth(),
-                                texture.getHeight()));
-
-                requestRender();
-            }
-        } catch (Exception e) {
-            System.out.println("Failed to auto-load texture: " + e.getMessage());
+    @FXML
+    private void onCancelLoadClick() {
+        if (currentLoad != null) {
+            currentLoad.cancel();
         }
     }
 
+    private void setLoadingControlsVisible(boolean visible) {
+        loadProgressBar.setVisible(visible);
+        loadProgressBar.setManaged(visible);
+        cancelLoadButton.setVisible(visible);
+        cancelLoadButton.setManaged(visible);
+    }
     /**
      * Применение настроек к модели
      */
@@ -946,39 +970,41 @@ public class GuiController {
                     return;
                 }
 
-                // Загружаем текстуру
-                Texture texture = new Texture(file.getAbsolutePath());
-
-                // Проверяем загрузку
-                if (texture == null) {
-                    showErrorAlert("Texture Error", "Failed to create texture object");
-                    return;
-                }
-
-                if (texture.getImage() == null) {
-                    showErrorAlert("Texture Error", "Failed to load image from file");
-                    return;
-                }
-
-                if (DEBUG_MODE) {
-                    System.out.println("Texture loaded successfully. Size: " +
-                            texture.getWidth() + "x" + texture.getHeight());
-                }
-
-                // Устанавливаем текстуру
+                // Текстура декодируется в фоне через общий кэш; результат применяется в потоке JavaFX
                 Model activeModel = scene3D.getActiveModel();
-                activeModel.setTexture(texture);
-                textureCheckBox.setSelected(true);
-                activeModel.setUseTexture(true);
+                TextureManager.getShared().load(file.toPath()).thenAcceptAsync(texture -> {
+                    // Проверяем загрузку
+                    if (texture == null) {
+                        showErrorAlert("Texture Error", "Failed to load image from file");
+                        return;
+                    }
 
-                // Принудительно обновляем рендеринг
-                requestRender();
+                    if (DEBUG_MODE) {
+                        System.out.println("Texture loaded successfully. Size: " +
+                                texture.getWidth() + "x" + texture.getHeight());
+                    }
 
-                showInfoAlert("Texture Loaded",
-                        String.format("Texture loaded successfully!\n\nFile: %s\nSize: %dx%d",
-                                file.getName(),
-                                texture.getWidth(),
-                                texture.getHeight()));
+                    // Устанавливаем текстуру
+                    activeModel.setTexture(texture);
+                    textureCheckBox.setSelected(true);
+                    activeModel.setUseTexture(true);
+
+                    // Принудительно обновляем рендеринг
+                    requestRender();
+
+                    showInfoAlert("Texture Loaded",
+                            String.format("Texture loaded successfully!\n\nFile: %s\nSize: %dx%d",
+                                    file.getName(),
+                                    texture.getWidth(),
+                                    texture.getHeight()));
+                }, Platform::runLater).exceptionally(error -> {
+                    // Исключение декодирования приходит обёрнутым в CompletionException
+                    Throwable cause = error.getCause() != null ? error.getCause() : error;
+                    Platform.runLater(() -> showErrorAlert("Texture Error",
+                            "Failed to load texture: " + cause));
+                    if (DEBUG_MODE) cause.printStackTrace();
+                    return null;
+                });
 
             } catch (Exception e) {
                 showErrorAlert("Texture Error", "Failed to load texture: " + e.getMessage());
@@ -1000,14 +1026,43 @@ public class GuiController {
         fileChooser.setInitialFileName("exported_model.obj");
 
         File file = fileChooser.showSaveDialog(getStage());
-        if (file != null) {
-            try {
-                // TODO: Реализовать экспорт модели в OBJ формат
-                showInfoAlert("Export", "Model export not implemented yet");
-            } catch (Exception e) {
-                showErrorAlert("Export Error", "Failed to export model: " + e.getMessage());
+        if (file == null) {
+            return;
+        }
+
+        Model model = scene3D.getActiveModel();
+        boolean transformed = false;
+        if (model.transform.hasChanges()) {
+            ButtonType transformedButton = new ButtonType("With transformations");
+            ButtonType originalButton = new ButtonType("Original");
+            Alert alert = new Alert(Alert.AlertType.CONFIRMATION, "Apply the model transformations to the exported vertices?",
+                    transformedButton, originalButton, ButtonType.CANCEL);
+            alert.setTitle("Export Model");
+            alert.setHeaderText("The model is transformed");
+
+            Optional<ButtonType> choice = alert.showAndWait();
+            if (choice.isEmpty() || choice.get() == ButtonType.CANCEL) {
+                return;
             }
+            transformed = choice.get() == transformedButton;
         }
+
+        // Снимок снимается здесь, в потоке JavaFX: фоновая запись не трогает модель, которую продолжают рисовать и править
+        ObjWriter.Snapshot snapshot = ObjWriter.Snapshot.copyOf(model, transformed);
+        CompletableFuture.runAsync(() -> {
+            try {
+                ObjWriter.write(snapshot, file.toPath(), true, true);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).whenComplete((ignored, error) -> Platform.runLater(() -> {
+            if (error == null) {
+                showInfoAlert("Export", "Model exported to " + file.getName());
+            } else {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                showErrorAlert("Export Error", "Failed to export model: " + cause.getMessage());
+            }
+        }));
     }
 
     @FXML
@@ -1060,30 +1115,26 @@ public class GuiController {
             return;
         }
 
-        try {
-            String fileContent = Files.readString(Path.of(currentModelPath));
-            Model newModel = ObjReader.read(fileContent);
-
-            // Сохраняем текущие настройки
-            boolean wireframe = wireframeCheckBox.isSelected();
-            boolean texture = textureCheckBox.isSelected();
-            boolean lighting = lightingCheckBox.isSelected();
-            Color color = colorPicker.getValue();
-
-            // Заменяем модель
-            scene3D.getModels().clear();
-            scene3D.addModel(newModel);
-            currentModel = newModel;
+        startLoading(List.of(Path.of(currentModelPath)), new ModelLoader.Listener() {
+            @Override
+            public void onLoaded(Path source, Model newModel) {
+                // Заменяем модель
+                scene3D.getModels().clear();
+                scene3D.addModel(newModel);
+                currentModel = newModel;
 
-            // Восстанавливаем настройки
-            applySettingsToModel(newModel);
+                // Восстанавливаем настройки
+                applySettingsToModel(newModel);
 
-            requestRender();
-            showInfoAlert("Model Reloaded", "Model reloaded successfully");
+                requestRender();
+                showInfoAlert("Model Reloaded", "Model reloaded successfully");
+            }
 
-        } catch (Exception e) {
-            showErrorAlert("Reload Error", "Failed to reload model: " + e.getMessage());
-        }
+            @Override
+            public void onFailed(Path source, Exception error) {
+                showErrorAlert("Reload Error", "Failed to reload model: " + error.getMessage());
+            }
+        });
     }
 
     @FXML
@@ -1101,6 +1152,7 @@ public class GuiController {
         model.setUseWireframe(wireframeCheckBox.isSelected());
         model.setUseTexture(textureCheckBox.isSelected());
         model.setUseLighting(lightingCheckBox.isSelected());
+        model.setCullMode(getSelectedCullMode());
 
         Color color = colorPicker.getValue();
         model.setColor(new Vector3f(
@@ -4,19 +4,17 @@ package com.cgvsu.math.matrix;
 import com.cgvsu.math.vector.Vector3f;
 import com.cgvsu.math.vector.Vector4f;
 
+/**
+ * Матрица 4x4 в одном массиве float[16] по строкам: элемент (i, j) лежит в m[i * 4 + j].
+ * <p>
+ * Методы, возвращающие новую матрицу, оставлены для совместимости. Для горячих мест есть варианты
+ * с матрицей-приёмником (dest), которые ничего не выделяют; приёмник может совпадать с аргументом.
+ */
 public class Matrix4f {
-    private float[][] matrix = new float[4][4];
+    private final float[] m = new float[16];
 
     public Matrix4f() {
-        for (int i = 0; i < 4; i++) {
-            for (int j = 0; j < 4; j++) {
-                if (i == j) {
-                    matrix[i][j] = 1.0F;
-                } else {
-                    matrix[i][j] = 0.0F;
-                }
-            }
-        }
+        m[0] = m[5] = m[10] = m[15] = 1.0F;
     }
 
     public Matrix4f(float[][] data) {
@@ -27,145 +25,339 @@ public class Matrix4f {
             if (data[i] == null || data[i].length != 4) {
                 throw new IllegalArgumentException("Матрица должна быть 4х4");
             }
-            System.arraycopy(data[i], 0, this.matrix[i], 0, 4);
+            System.arraycopy(data[i], 0, this.m, i * 4, 4);
         }
     }
 
-    public float[][] getMatrix() {
-        return matrix;
+    public Matrix4f(Matrix4f other) {
+        System.arraycopy(other.m, 0, m, 0, 16);
     }
 
-    public static Matrix4f add(Matrix4f a, Matrix4f b) {
+    /**
+     * Копия элементов в виде float[4][4]. Изменение результата на матрицу не влияет.
+     */
+    public float[][] getMatrix() {
         float[][] result = new float[4][4];
         for (int i = 0; i < 4; i++) {
-            for (int j = 0; j < 4; j++) {
-                result[i][j] = a.get(i, j) + b.get(i, j);
-            }
+            System.arraycopy(m, i * 4, result[i], 0, 4);
         }
-        return new Matrix4f(result);
+        return result;
+    }
+
+    /**
+     * Элементы по строкам в dest[offset..offset + 15].
+     */
+    public float[] toArray(float[] dest, int offset) {
+        System.arraycopy(m, 0, dest, offset, 16);
+        return dest;
+    }
+
+    public float get(int i, int j) {
+        return m[i * 4 + j];
+    }
+
+    public Matrix4f set(int i, int j, float value) {
+        m[i * 4 + j] = value;
+        return this;
+    }
+
+    public Matrix4f set(Matrix4f other) {
+        System.arraycopy(other.m, 0, m, 0, 16);
+        return this;
+    }
+
+    public Matrix4f set(
+            float m00, float m01, float m02, float m03,
+            float m10, float m11, float m12, float m13,
+            float m20, float m21, float m22, float m23,
+            float m30, float m31, float m32, float m33) {
+        m[0] = m00; m[1] = m01; m[2] = m02; m[3] = m03;
+        m[4] = m10; m[5] = m11; m[6] = m12; m[7] = m13;
+        m[8] = m20; m[9] = m21; m[10] = m22; m[11] = m23;
+        m[12] = m30; m[13] = m31; m[14] = m32; m[15] = m33;
+        return this;
+    }
+
+    public Matrix4f setIdentity() {
+        return set(
+                1, 0, 0, 0,
+                0, 1, 0, 0,
+                0, 0, 1, 0,
+                0, 0, 0, 1);
+    }
+
+    /**
+     * Нижняя строка (0, 0, 0, 1): матрица переноса, поворота и масштаба без перспективы.
+     */
+    public boolean isAffine() {
+        return m[12] == 0 && m[13] == 0 && m[14] == 0 && m[15] == 1;
+    }
+
+    public static Matrix4f add(Matrix4f a, Matrix4f b) {
+        Matrix4f result = zero();
+        for (int i = 0; i < 16; i++) {
+            result.m[i] = a.m[i] + b.m[i];
+        }
+        return result;
     }
 
     public static Matrix4f sub(Matrix4f a, Matrix4f b) {
-        float[][] result = new float[4][4];
-        for (int i = 0; i < 4; i++) {
-            for (int j = 0; j < 4; j++) {
-                result[i][j] = a.get(i, j) - b.get(i, j);
-            }
+        Matrix4f result = zero();
+        for (int i = 0; i < 16; i++) {
+            result.m[i] = a.m[i] - b.m[i];
         }
-        return new Matrix4f(result);
+        return result;
     }
 
     public static Vector3f multiplyMatrix4ByVector3(Matrix4f m, Vector3f v) {
-        float x = m.get(0, 0) * v.x + m.get(0, 1) * v.y + m.get(0, 2) * v.z + m.get(0, 3) * 1;
-        float y = m.get(1, 0) * v.x + m.get(1, 1) * v.y + m.get(1, 2) * v.z + m.get(1, 3) * 1;
-        float z = m.get(2, 0) * v.x + m.get(2, 1) * v.y + m.get(2, 2) * v.z + m.get(2, 3) * 1;
-        float w = m.get(3, 0) * v.x + m.get(3, 1) * v.y + m.get(3, 2) * v.z + m.get(3, 3) * 1;
-        return new Vector3f(x / w, y / w, z / w);
+        return m.transformPoint(v, new Vector3f());
     }
 
+    /**
+     * Точка (x, y, z, 1) через матрицу с делением на w, результат в dest (может совпадать с v).
+     * У аффинной матрицы w = 1, и деление пропускается.
+     */
+    public Vector3f transformPoint(Vector3f v, Vector3f dest) {
+        float[] a = m;
+        float x = a[0] * v.x + a[1] * v.y + a[2] * v.z + a[3];
+        float y = a[4] * v.x + a[5] * v.y + a[6] * v.z + a[7];
+        float z = a[8] * v.x + a[9] * v.y + a[10] * v.z + a[11];
+        if (isAffine()) {
+            dest.set(x, y, z);
+            return dest;
+        }
+        float w = a[12] * v.x + a[13] * v.y + a[14] * v.z + a[15];
+        dest.set(x / w, y / w, z / w);
+        return dest;
+    }
 
-    public Matrix4f multiplyMatrix(Matrix4f other) {
-        float[][] result = new float[4][4];
-        float[][] otherMatrix = other.getMatrix();
+    /**
+     * Направление (x, y, z, 0) через матрицу: перенос не учитывается. Результат в dest (может совпадать с v).
+     */
+    public Vector3f transformDirection(Vector3f v, Vector3f dest) {
+        float[] a = m;
+        float x = a[0] * v.x + a[1] * v.y + a[2] * v.z;
+        float y = a[4] * v.x + a[5] * v.y + a[6] * v.z;
+        float z = a[8] * v.x + a[9] * v.y + a[10] * v.z;
+        dest.set(x, y, z);
+        return dest;
+    }
 
-        for (int i = 0; i < 4; i++) {
-            for (int j = 0; j < 4; j++) {
-                float sum = 0;
-                for (int k = 0; k < 4; k++) {
-                    sum += this.matrix[i][k] * otherMatrix[k][j];
-                }
-                result[i][j] = sum;
+    /**
+     * Массовый вариант {@link #transformPoint}: count точек, упакованных по три числа, из src в dest
+     * (массивы могут совпадать). Матрица читается в локальные переменные один раз.
+     */
+    public void transformPoints(float[] src, float[] dest, int count) {
+        float[] a = m;
+        float m00 = a[0], m01 = a[1], m02 = a[2], m03 = a[3];
+        float m10 = a[4], m11 = a[5], m12 = a[6], m13 = a[7];
+        float m20 = a[8], m21 = a[9], m22 = a[10], m23 = a[11];
+        float m30 = a[12], m31 = a[13], m32 = a[14], m33 = a[15];
+        boolean affine = isAffine();
+        int end = count * 3;
+        for (int i = 0; i < end; i += 3) {
+            float x = src[i], y = src[i + 1], z = src[i + 2];
+            float tx = m00 * x + m01 * y + m02 * z + m03;
+            float ty = m10 * x + m11 * y + m12 * z + m13;
+            float tz = m20 * x + m21 * y + m22 * z + m23;
+            if (!affine) {
+                float w = m30 * x + m31 * y + m32 * z + m33;
+                tx /= w;
+                ty /= w;
+                tz /= w;
             }
+            dest[i] = tx;
+            dest[i + 1] = ty;
+            dest[i + 2] = tz;
         }
+    }
 
-        return new Matrix4f(result);
+    public Matrix4f multiplyMatrix(Matrix4f other) {
+        return multiply(this, other, new Matrix4f());
+    }
+
+    /**
+     * dest = a * b без выделения памяти. dest может совпадать с a или b.
+     * Если обе матрицы аффинные, нижняя строка не считается.
+     */
+    public static Matrix4f multiply(Matrix4f a, Matrix4f b, Matrix4f dest) {
+        if (a.isAffine() && b.isAffine()) {
+            return multiplyAffine(a, b, dest);
+        }
+        float[] l = a.m;
+        float[] r = b.m;
+        float r00 = r[0], r01 = r[1], r02 = r[2], r03 = r[3];
+        float r10 = r[4], r11 = r[5], r12 = r[6], r13 = r[7];
+        float r20 = r[8], r21 = r[9], r22 = r[10], r23 = r[11];
+        float r30 = r[12], r31 = r[13], r32 = r[14], r33 = r[15];
+        float[] d = dest.m;
+        for (int row = 0; row < 16; row += 4) {
+            // Строка a читается целиком до записи, поэтому dest == a допустим
+            float l0 = l[row], l1 = l[row + 1], l2 = l[row + 2], l3 = l[row + 3];
+            d[row] = l0 * r00 + l1 * r10 + l2 * r20 + l3 * r30;
+            d[row + 1] = l0 * r01 + l1 * r11 + l2 * r21 + l3 * r31;
+            d[row + 2] = l0 * r02 + l1 * r12 + l2 * r22 + l3 * r32;
+            d[row + 3] = l0 * r03 + l1 * r13 + l2 * r23 + l3 * r33;
+        }
+        return dest;
     }
 
+    /**
+     * dest = a * b для аффинных матриц: 36 умножений вместо 64.
+     */
+    public static Matrix4f multiplyAffine(Matrix4f a, Matrix4f b, Matrix4f dest) {
+        float[] l = a.m;
+        float[] r = b.m;
+        float r00 = r[0], r01 = r[1], r02 = r[2], r03 = r[3];
+        float r10 = r[4], r11 = r[5], r12 = r[6], r13 = r[7];
+        float r20 = r[8], r21 = r[9], r22 = r[10], r23 = r[11];
+        float[] d = dest.m;
+        for (int row = 0; row < 12; row += 4) {
+            float l0 = l[row], l1 = l[row + 1], l2 = l[row + 2], l3 = l[row + 3];
+            d[row] = l0 * r00 + l1 * r10 + l2 * r20;
+            d[row + 1] = l0 * r01 + l1 * r11 + l2 * r21;
+            d[row + 2] = l0 * r02 + l1 * r12 + l2 * r22;
+            d[row + 3] = l0 * r03 + l1 * r13 + l2 * r23 + l3;
+        }
+        d[12] = 0;
+        d[13] = 0;
+        d[14] = 0;
+        d[15] = 1;
+        return dest;
+    }
 
     public static Matrix4f transpose(Matrix4f m) {
-        float[][] result = new float[4][4];
-        for (int i = 0; i < 4; i++) {
-            for (int j = 0; j < 4; j++) {
-                result[i][j] = m.get(j, i);
-            }
-        }
-        return new Matrix4f(result);
+        return transpose(m, new Matrix4f());
+    }
+
+    public static Matrix4f transpose(Matrix4f m, Matrix4f dest) {
+        float[] s = m.m;
+        return dest.set(
+                s[0], s[4], s[8], s[12],
+                s[1], s[5], s[9], s[13],
+                s[2], s[6], s[10], s[14],
+                s[3], s[7], s[11], s[15]);
     }
 
     public static Matrix4f zero() {
-        return new Matrix4f(new float[][]{
-                {0, 0, 0, 0},
-                {0, 0, 0, 0},
-                {0, 0, 0, 0},
-                {0, 0, 0, 0}
-        });
+        Matrix4f result = new Matrix4f();
+        result.m[0] = result.m[5] = result.m[10] = result.m[15] = 0;
+        return result;
     }
 
     public static float determinant(Matrix4f m) {
-        float det = 0;
-        for (int j = 0; j < 4; j++) {
-            float sign = (j % 2 == 0) ? 1 : -1;
-
+        float[] a = m.m;
+        // Миноры 2x2 двух верхних и двух нижних строк (разложение Лапласа)
+        float s0 = a[0] * a[5] - a[4] * a[1];
+        float s1 = a[0] * a[6] - a[4] * a[2];
+        float s2 = a[0] * a[7] - a[4] * a[3];
+        float s3 = a[1] * a[6] - a[5] * a[2];
+        float s4 = a[1] * a[7] - a[5] * a[3];
+        float s5 = a[2] * a[7] - a[6] * a[3];
+        float c5 = a[10] * a[15] - a[14] * a[11];
+        float c4 = a[9] * a[15] - a[13] * a[11];
+        float c3 = a[9] * a[14] - a[13] * a[10];
+        float c2 = a[8] * a[15] - a[12] * a[11];
+        float c1 = a[8] * a[14] - a[12] * a[10];
+        float c0 = a[8] * a[13] - a[12] * a[9];
+        return s0 * c5 - s1 * c4 + s2 * c3 + s3 * c2 - s4 * c1 + s5 * c0;
+    }
 
-            float[][] minorData = new float[3][3];
-            int minorRow = 0;
+    public static Matrix4f inverse(Matrix4f m) {
+        return invert(m, new Matrix4f());
+    }
 
-            for (int row = 1; row < 4; row++) {
-                int minorCol = 0;
-                for (int col = 0; col < 4; col++) {
-                    if (col != j) {
-                        minorData[minorRow][minorCol] = m.get(row, col);
-                        minorCol++;
-                    }
-                }
-                minorRow++;
-            }
+    /**
+     * Обратная матрица в dest (может совпадать с m). Аффинные матрицы обращаются отдельным, более дешёвым путём.
+     *
+     * @throws IllegalArgumentException если матрица необратима
+     */
+    public static Matrix4f invert(Matrix4f m, Matrix4f dest) {
+        if (m.isAffine()) {
+            return invertAffine(m, dest);
+        }
+        float[] a = m.m;
+        float s0 = a[0] * a[5] - a[4] * a[1];
+        float s1 = a[0] * a[6] - a[4] * a[2];
+        float s2 = a[0] * a[7] - a[4] * a[3];
+        float s3 = a[1] * a[6] - a[5] * a[2];
+        float s4 = a[1] * a[7] - a[5] * a[3];
+        float s5 = a[2] * a[7] - a[6] * a[3];
+        float c5 = a[10] * a[15] - a[14] * a[11];
+        float c4 = a[9] * a[15] - a[13] * a[11];
+        float c3 = a[9] * a[14] - a[13] * a[10];
+        float c2 = a[8] * a[15] - a[12] * a[11];
+        float c1 = a[8] * a[14] - a[12] * a[10];
+        float c0 = a[8] * a[13] - a[12] * a[9];
+
+        float det = s0 * c5 - s1 * c4 + s2 * c3 + s3 * c2 - s4 * c1 + s5 * c0;
+        if (Math.abs(det) < 1e-10) {
+            throw new IllegalArgumentException("Определитель равен 0, матрица необратимая");
+        }
+        float inv = 1.0F / det;
+
+        float a00 = a[0], a01 = a[1], a02 = a[2], a03 = a[3];
+        float a10 = a[4], a11 = a[5], a12 = a[6], a13 = a[7];
+        float a20 = a[8], a21 = a[9], a22 = a[10], a23 = a[11];
+        float a30 = a[12], a31 = a[13], a32 = a[14], a33 = a[15];
+        return dest.set(
+                (a11 * c5 - a12 * c4 + a13 * c3) * inv,
+                (-a01 * c5 + a02 * c4 - a03 * c3) * inv,
+                (a31 * s5 - a32 * s4 + a33 * s3) * inv,
+                (-a21 * s5 + a22 * s4 - a23 * s3) * inv,
+
+                (-a10 * c5 + a12 * c2 - a13 * c1) * inv,
+                (a00 * c5 - a02 * c2 + a03 * c1) * inv,
+                (-a30 * s5 + a32 * s2 - a33 * s1) * inv,
+                (a20 * s5 - a22 * s2 + a23 * s1) * inv,
+
+                (a10 * c4 - a11 * c2 + a13 * c0) * inv,
+                (-a00 * c4 + a01 * c2 - a03 * c0) * inv,
+                (a30 * s4 - a31 * s2 + a33 * s0) * inv,
+                (-a20 * s4 + a21 * s2 - a23 * s0) * inv,
+
+                (-a10 * c3 + a11 * c1 - a12 * c0) * inv,
+                (a00 * c3 - a01 * c1 + a02 * c0) * inv,
+                (-a30 * s3 + a31 * s1 - a32 * s0) * inv,
+                (a20 * s3 - a21 * s1 + a22 * s0) * inv);
+    }
 
-            Matrix3f minor = new Matrix3f(minorData);
-            float minorDet = Matrix3f.determinant(minor);
-            det += sign * m.get(0, j) * minorDet;
-        }
-
-        return det;
-    }
-
-//    public static Matrix4f inverse(Matrix4f m) {
-//        float det = determinant(m);
-//
-//        if (Math.abs(det) < 1e-10) {
-//            throw new IllegalArgumentException("Определитель равен 0, матрица необратимая");
-//        }
-//
-//        float[][] inverseData = new float[4][4];
-//
-//        for (int i = 0; i < 4; i++) {
-//            for (int j = 0; j < 4; j++) {
-//                float[][] minorData = new float[3][3];
-//                int minorRow = 0;
-//
-//                for (int row = 0; row < 4; row++) {
-//                    if (row == i) continue;
-//
-//                    int minorCol = 0;
-//                    for (int col = 0; col < 4; col++) {
-//                        if (col == j) continue;
-//
-//                        minorData[minorRow][minorCol] = m.get(row, col);
-//                        minorCol++;
-//                    }
-//                    minorRow++;
-//                }
-//
-//                Matrix3f minor = new Matrix3f(minorData);
-//                float minorDet = Matrix3f.determinant(minor);
-//
-//                float sign = ((i + j) % 2 == 0) ? 1 : -1;
-//                inverseData[j][i] = sign * minorDet / det;
-//            }
-//        }
-//
-//        return new Matrix4f(inverseData);
-//    }
+    /**
+     * Обратная к аффинной матрице: обращается только блок 3x3, перенос пересчитывается через него.
+     *
+     * @throws IllegalArgumentException если блок 3x3 вырожден
+     */
+    public static Matrix4f invertAffine(Matrix4f m, Matrix4f dest) {
+        float[] a = m.m;
+        float a00 = a[0], a01 = a[1], a02 = a[2], tx = a[3];
+        float a10 = a[4], a11 = a[5], a12 = a[6], ty = a[7];
+        float a20 = a[8], a21 = a[9], a22 = a[10], tz = a[11];
+
+        float c00 = a11 * a22 - a12 * a21;
+        float c01 = a12 * a20 - a10 * a22;
+        float c02 = a10 * a21 - a11 * a20;
+        float det = a00 * c00 + a01 * c01 + a02 * c02;
+        if (Math.abs(det) < 1e-10) {
+            throw new IllegalArgumentException("Определитель равен 0, матрица необратимая");
+        }
+        float inv = 1.0F / det;
+
+        float i00 = c00 * inv;
+        float i01 = (a02 * a21 - a01 * a22) * inv;
+        float i02 = (a01 * a12 - a02 * a11) * inv;
+        float i10 = c01 * inv;
+        float i11 = (a00 * a22 - a02 * a20) * inv;
+        float i12 = (a02 * a10 - a00 * a12) * inv;
+        float i20 = c02 * inv;
+        float i21 = (a01 * a20 - a00 * a21) * inv;
+        float i22 = (a00 * a11 - a01 * a10) * inv;
+
+        return dest.set(
+                i00, i01, i02, -(i00 * tx + i01 * ty + i02 * tz),
+                i10, i11, i12, -(i10 * tx + i11 * ty + i12 * tz),
+                i20, i21, i22, -(i20 * tx + i21 * ty + i22 * tz),
+                0, 0, 0, 1);
+    }
 
     public static Vector4f solveSystem(Matrix4f A, Vector4f b) {
         float[][] augmented = new float[4][5];
@@ -232,21 +424,6 @@ public class Matrix4f {
     }
 
     public static Matrix4f unitMatrix() {
-        float[][] res = new float[4][4];
-        for (int i = 0; i < res.length; i++) {
-            for (int j = 0; j < res.length; j++) {
-                if (i == j) {
-                    res[i][j] = 1;
-                } else {
-                    res[i][j] = 0;
-                }
-            }
-        }
-        return new Matrix4f(res);
-    }
-
-    public float get(int i, int j) {
-        return matrix[i][j];
+        return new Matrix4f();
     }
 }
-
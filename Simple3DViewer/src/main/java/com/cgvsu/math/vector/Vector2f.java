@@ -1,11 +1,19 @@
 package com.cgvsu.math.vector;
 
+/**
+ * Двумерный вектор. Статические операции с последним аргументом dest пишут результат в него
+ * и ничего не выделяют; dest может совпадать с аргументами.
+ */
 public class Vector2f {
     public Vector2f(float x, float y) {
         this.x = x;
         this.y = y;
     }
 
+    public Vector2f() {
+        this(0, 0);
+    }
+
     public float x, y;
 
     public static Vector2f add(Vector2f v1, Vector2f v2) {
@@ -16,6 +24,21 @@ public class Vector2f {
         return new Vector2f(v1.getX() - v2.getX(), v1.getY() - v2.getY());
     }
 
+    public static Vector2f add(Vector2f v1, Vector2f v2, Vector2f dest) {
+        dest.set(v1.x + v2.x, v1.y + v2.y);
+        return dest;
+    }
+
+    public static Vector2f sub(Vector2f v1, Vector2f v2, Vector2f dest) {
+        dest.set(v1.x - v2.x, v1.y - v2.y);
+        return dest;
+    }
+
+    public static Vector2f multiply(Vector2f v1, float k, Vector2f dest) {
+        dest.set(v1.x * k, v1.y * k);
+        return dest;
+    }
+
     public static Vector2f multiply(Vector2f v1, float k) {
         return new Vector2f(v1.getX() * k, v1.getY() * k);
     }
@@ -39,10 +62,24 @@ public class Vector2f {
         return new Vector2f(v1.getX() / len, v1.getY() / len);
     }
 
+    public static Vector2f normalized(Vector2f v1, Vector2f dest) {
+        float len = length(v1);
+        if (len == 0) {
+            throw new IllegalArgumentException("Длина равна 0");
+        }
+        dest.set(v1.x / len, v1.y / len);
+        return dest;
+    }
+
     public static float scalar(Vector2f v1, Vector2f v2) {
         return v1.getX() * v2.getX() + v1.getY() * v2.getY();
     }
 
+    public void set(float x, float y) {
+        this.x = x;
+        this.y = y;
+    }
+
     public float getX() {
         return x;
     }
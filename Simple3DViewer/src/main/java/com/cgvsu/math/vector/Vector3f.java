@@ -1,5 +1,10 @@
 package com.cgvsu.math.vector;
 
+/**
+ * Трёхмерный вектор. Методы, возвращающие новый вектор, оставлены для совместимости;
+ * в горячих местах используются варианты с приёмником (dest) и изменяющие вектор на месте (...InPlace).
+ * Приёмник может совпадать с любым из аргументов.
+ */
 public class Vector3f {
     public static final float EPSILON = 1e-7f;
 
@@ -15,6 +20,10 @@ public class Vector3f {
         this(0, 0, 0);
     }
 
+    public Vector3f(Vector3f other) {
+        this(other.x, other.y, other.z);
+    }
+
     public boolean equals(Vector3f other) {
         return Math.abs(x - other.x) < EPSILON
                 && Math.abs(y - other.y) < EPSILON
@@ -29,10 +38,47 @@ public class Vector3f {
         return new Vector3f(this.x - other.x, this.y - other.y, this.z - other.z);
     }
 
+    public final Vector3f add(Vector3f other, Vector3f dest) {
+        dest.set(this.x + other.x, this.y + other.y, this.z + other.z);
+        return dest;
+    }
+
+    public final Vector3f sub(Vector3f other, Vector3f dest) {
+        dest.set(this.x - other.x, this.y - other.y, this.z - other.z);
+        return dest;
+    }
+
+    public final Vector3f addInPlace(Vector3f other) {
+        return add(other, this);
+    }
+
+    public final Vector3f subInPlace(Vector3f other) {
+        return sub(other, this);
+    }
+
     public static Vector3f multiply(Vector3f v, float k) {
         return new Vector3f(v.getX() * k, v.getY() * k, v.getZ() * k);
     }
 
+    public static Vector3f multiply(Vector3f v, float k, Vector3f dest) {
+        dest.set(v.x * k, v.y * k, v.z * k);
+        return dest;
+    }
+
+    public final Vector3f multiplyInPlace(float k) {
+        return multiply(this, k, this);
+    }
+
+    /**
+     * this += other * k
+     */
+    public final Vector3f addScaledInPlace(Vector3f other, float k) {
+        x += other.x * k;
+        y += other.y * k;
+        z += other.z * k;
+        return this;
+    }
+
 
     public Vector3f divide(float k) {
         if (Math.abs(k) < EPSILON) {
@@ -41,6 +87,14 @@ public class Vector3f {
         return new Vector3f(this.x / k, this.y / k, this.z / k);
     }
 
+    public Vector3f divide(float k, Vector3f dest) {
+        if (Math.abs(k) < EPSILON) {
+            throw new IllegalArgumentException("Ошибка: Деление на 0");
+        }
+        dest.set(this.x / k, this.y / k, this.z / k);
+        return dest;
+    }
+
     public Vector3f normalize() {
         float len = this.length();
         if (len < EPSILON) {
@@ -49,6 +103,24 @@ public class Vector3f {
         return new Vector3f(x / len, y / len, z / len);
     }
 
+    public Vector3f normalize(Vector3f dest) {
+        float len = this.length();
+        if (len < EPSILON) {
+            throw new IllegalArgumentException("Cannot normalize zero vector");
+        }
+        float inverse = 1.0F / len;
+        dest.set(x * inverse, y * inverse, z * inverse);
+        return dest;
+    }
+
+    public Vector3f normalizeInPlace() {
+        return normalize(this);
+    }
+
+    public float lengthSquared() {
+        return x * x + y * y + z * z;
+    }
+
     public float length() {
         return (float) Math.sqrt(x * x + y * y + z * z);
     }
@@ -65,6 +137,15 @@ public class Vector3f {
         );
     }
 
+    public Vector3f cross(Vector3f other, Vector3f dest) {
+        // Через локальные переменные, чтобы dest мог совпадать с this или other
+        float cx = this.y * other.z - this.z * other.y;
+        float cy = this.z * other.x - this.x * other.z;
+        float cz = this.x * other.y - this.y * other.x;
+        dest.set(cx, cy, cz);
+        return dest;
+    }
+
     public static float lenghtBetweenToVectors(Vector3f v1, Vector3f v2){
         return (float) Math.sqrt((v1.x-v2.x) * (v1.x-v2.x) + (v1.y-v2.y) * (v1.y-v2.y) + (v1.z-v2.z) * (v1.z-v2.z));
     }
@@ -75,6 +156,10 @@ public class Vector3f {
         this.z = z;
     }
 
+    public void set(Vector3f other) {
+        set(other.x, other.y, other.z);
+    }
+
     public float getX() {
         return x;
     }
@@ -1,72 +1,100 @@
 package com.cgvsu.model;
 
 import com.cgvsu.math.matrix.Matrix4f;
-import com.cgvsu.math.vector.Vector2f;
 import com.cgvsu.math.vector.Vector3f;
-import com.cgvsu.render_engine.GraphicConveyor;
+import com.cgvsu.render_engine.CullMode;
+import com.cgvsu.utils.NormalCalculator;
 import com.cgvsu.utils.Triangulator;
 import com.cgvsu.texture.Texture;
 
-import java.util.ArrayList;
-
 public class Model {
 
-    public ArrayList<Vector3f> vertices = new ArrayList<Vector3f>();
-    public ArrayList<Vector3f> verticesTransform = new ArrayList<Vector3f>();
-    public ArrayList<Vector2f> textureVertices = new ArrayList<Vector2f>();
-    public ArrayList<Vector3f> normals = new ArrayList<Vector3f>();
-    public ArrayList<Polygon> polygons = new ArrayList<Polygon>();
+    // Вершины, UV и нормали хранятся упакованными в float[], см. Vector3fArray
+    public Vector3fArray vertices = new Vector3fArray();
+    public Vector3fArray verticesTransform = new Vector3fArray();
+    public Vector2fArray textureVertices = new Vector2fArray();
+    public Vector3fArray normals = new Vector3fArray();
+    // Грани в сжатом виде (CSR), см. PolygonArray
+    public PolygonArray polygons = new PolygonArray();
 
     public TransformModel transform = new TransformModel();
 
     private boolean transformDirty = true;
     private boolean isTriangulated = false;
-    private boolean hasValidNormals = false;
-    private boolean areNormalsComputed = false;
+    // Вершины или грани менялись после последнего расчёта нормалей
+    private boolean normalsDirty = true;
+    // Первая нормаль, посчитанная по вершинам, в массиве normals; -1, если все нормали взяты из файла
+    private int computedNormalsStart = -1;
 
     private Vector3f color = new Vector3f(0.7f, 0.7f, 0.7f);
     private boolean useWireframe = false;
     private boolean useTexture = false;
     private boolean useLighting = false;
+    // Отсечение включает пользователь: у открытых сканов и сеток со смешанным обходом оно даёт дыры
+    private CullMode cullMode = CullMode.NONE;
     private Texture texture = null;
 
+    // Растёт при каждом изменении, влияющем на видимость: вершины, трансформация, полигоны, отсечение граней
+    private int geometryVersion = 0;
+    // То же без учёта трансформации: меняется, только когда меняется сама сетка
+    private int meshVersion = 0;
+    // Версия сетки, для которой уже проверен диапазон UV
+    private int uvRangeCheckedVersion = -1;
+
     public Model() {
         transform.setParentModel(this);
     }
 
     // ========== ТРАНСФОРМАЦИИ ==========
 
+    /**
+     * Трансформация изменилась. Вершины при этом не пересчитываются: матрица модели
+     * входит в матрицу MVP при отрисовке, а {@link #verticesTransform} заполняется только по запросу.
+     */
     public void markTransformDirty() {
         transformDirty = true;
+        geometryVersion++;
+    }
+
+    /**
+     * Сообщить, что вершины или полигоны изменены напрямую через публичные списки.
+     */
+    public void markGeometryChanged() {
+        transformDirty = true;
+        normalsDirty = true;
+        geometryVersion++;
+        meshVersion++;
+    }
+
+    public int getGeometryVersion() {
+        return geometryVersion;
+    }
+
+    public int getMeshVersion() {
+        return meshVersion;
+    }
+
+    public Matrix4f getModelMatrix() {
+        return transform.getModelMatrix();
     }
 
     public void copyOriginalToTransform() {
         verticesTransform.clear();
-        for (Vector3f vertex : vertices) {
-            verticesTransform.add(new Vector3f(vertex.x, vertex.y, vertex.z));
-        }
+        verticesTransform.addAll(vertices);
     }
 
+    /**
+     * Запекает трансформацию в {@link #verticesTransform} (мировые координаты вершин), например для экспорта.
+     * Отрисовке это не нужно. Пересчёт идёт, только если трансформация или вершины менялись после прошлого вызова.
+     */
     public void applyTransform() {
-        if (!transform.enabled || !transform.hasChanges() || !transformDirty) {
-            if (verticesTransform.isEmpty()) {
-                copyOriginalToTransform();
-            }
-            transformDirty = false;
+        if (!transformDirty && verticesTransform.size() == vertices.size()) {
             return;
         }
 
-        Matrix4f matrix = GraphicConveyor.translateRotateScale(
-                transform.getPosition(),
-                transform.getRotation(),
-                transform.getScale()
-        );
-
-        verticesTransform.clear();
-        for (Vector3f vertex : vertices) {
-            Vector3f transformed = GraphicConveyor.multiplyMatrix4ByVector3(matrix, vertex);
-            verticesTransform.add(transformed);
-        }
+        // Один проход по двум плоским массивам; память под результат переиспользуется
+        verticesTransform.setSize(vertices.size());
+        transform.getModelMatrix().transformPoints(vertices.getData(), verticesTransform.getData(), vertices.size());
 
         transformDirty = false;
     }
@@ -74,42 +102,29 @@ public class Model {
     public void resetTransform() {
         transform.reset();
         markTransformDirty();
-        applyTransform();
         System.out.println("Model transformations reset to default");
     }
 
     // ========== ПОДГОТОВКА К ОТРИСОВКЕ ==========
 
     public void prepareForRendering() {
-        applyTransform();
-
         if (!isTriangulated) {
             triangulate();
         }
 
-        if (!areNormalsComputed || normals.isEmpty() || normals.size() != vertices.size()) {
-            recalculateNormals();
-        }
-
-        // Отладочная информация о текстурах
-        if (!textureVertices.isEmpty() && hasTexture()) {
-
-            // Проверяем диапазон UV координат
-            float minU = Float.MAX_VALUE, maxU = Float.MIN_VALUE;
-            float minV = Float.MAX_VALUE, maxV = Float.MIN_VALUE;
-
-            for (Vector2f uv : textureVertices) {
-                minU = Math.min(minU, uv.x);
-                maxU = Math.max(maxU, uv.x);
-                minV = Math.min(minV, uv.y);
-                maxV = Math.max(maxV, uv.y);
-            }
-
+        ensureNormalsExist();
 
-            // Если UV координаты вне диапазона [0,1], нормализуем их
-            if (minU < 0 || maxU > 1 || minV < 0 || maxV > 1) {
-                System.out.println("Normalizing UV coordinates...");
-                normalizeUVCoordinates();
+        // Диапазон UV проверяется один раз на версию сетки, а не каждый кадр
+        if (hasTexture() && uvRangeCheckedVersion != meshVersion) {
+            uvRangeCheckedVersion = meshVersion;
+            float[] uvs = textureVertices.getData();
+            for (int i = 0; i < textureVertices.size() * 2; i++) {
+                // Если UV координаты вне диапазона [0,1], нормализуем их
+                if (uvs[i] < 0 || uvs[i] > 1) {
+                    System.out.println("Normalizing UV coordinates...");
+                    normalizeUVCoordinates();
+                    break;
+                }
             }
         }
     }
@@ -120,11 +135,27 @@ public class Model {
         if (!isTriangulated) {
             Triangulator.triangulateModelInPlace(this);
             isTriangulated = true;
-            hasValidNormals = false;
-            areNormalsComputed = false;
+            geometryVersion++;
+            meshVersion++;
+            normalsDirty = true;
         }
     }
 
+    /**
+     * Сетка уже триангулирована и нормали посчитаны, например загружена из кэша, - повторно их не считаем.
+     *
+     * @param computedNormalsStart см. {@link #getComputedNormalsStart()}
+     */
+    public void markPrepared(int computedNormalsStart) {
+        if (computedNormalsStart < -1 || computedNormalsStart > normals.size()) {
+            throw new IllegalArgumentException("Некорректное начало посчитанных нормалей: " + computedNormalsStart);
+        }
+        isTriangulated = true;
+        markGeometryChanged();
+        this.computedNormalsStart = computedNormalsStart;
+        normalsDirty = false;
+    }
+
     public void ensureTriangulated() {
         if (!isTriangulated) {
             triangulate();
@@ -133,73 +164,62 @@ public class Model {
 
     // ========== НОРМАЛИ ==========
 
+    /**
+     * Пересчитывает нормали вершин. Нормали из файла не трогаются: посчитанные лежат в normals после них,
+     * начиная с {@link #getComputedNormalsStart()}, и на них указывают углы граней, у которых своих нормалей не было.
+     */
     public void recalculateNormals() {
-        // Очищаем существующие нормали
-        normals.clear();
-
-        // Инициализируем массив для накопления нормалей вершин
-        ArrayList<Vector3f> vertexNormals = new ArrayList<>();
-        for (int i = 0; i < vertices.size(); i++) {
-            vertexNormals.add(new Vector3f(0, 0, 0));
-        }
-
-        int triangleCount = 0;
-
-        // Проходим по всем полигонам (после триангуляции это треугольники)
-        for (Polygon polygon : polygons) {
-            ArrayList<Integer> vertexIndices = polygon.getVertexIndices();
-
-            if (vertexIndices.size() >= 3) {
-                triangleCount++;
-
-                // Получаем вершины треугольника
-                Vector3f v1 = vertices.get(vertexIndices.get(0));
-                Vector3f v2 = vertices.get(vertexIndices.get(1));
-                Vector3f v3 = vertices.get(vertexIndices.get(2));
-
-                // Вычисляем нормаль треугольника
-                Vector3f edge1 = v2.sub(v1);
-                Vector3f edge2 = v3.sub(v1);
-                Vector3f polygonNormal = edge1.cross(edge2);
-
-                // Нормализуем нормаль
-                float length = polygonNormal.length();
-                if (length > Vector3f.EPSILON) {
-                    polygonNormal = polygonNormal.normalize();
-
-                    // Добавляем нормаль треугольника к каждой вершине
-                    for (int vertexIndex : vertexIndices) {
-                        Vector3f currentNormal = vertexNormals.get(vertexIndex);
-                        vertexNormals.set(vertexIndex, currentNormal.add(polygonNormal));
-                    }
+        int start = computedNormalsStart >= 0 ? computedNormalsStart : normals.size();
+        normals.setSize(start + vertices.size());
+        NormalCalculator.computeVertexNormals(vertices.getData(), vertices.size(), polygons, normals.getData(), start);
+        computedNormalsStart = start;
+
+        int[] vertexIndices = polygons.getVertexIndices();
+        int[] normalIndices = polygons.getNormalIndices();
+        for (int face = 0; face < polygons.size(); face++) {
+            if (!polygons.hasNormalIndices(face)) {
+                int corner = polygons.getFaceStart(face);
+                int end = corner + polygons.getFaceSize(face);
+                for (; corner < end; corner++) {
+                    normalIndices[corner] = start + vertexIndices[corner];
                 }
             }
         }
+        normalsDirty = false;
+    }
 
-        // Нормализуем накопленные нормали вершин
-        for (int i = 0; i < vertexNormals.size(); i++) {
-            Vector3f normal = vertexNormals.get(i);
-            float length = normal.length();
-
-            if (length > Vector3f.EPSILON) {
-                normals.add(normal.normalize());
-            } else {
-                // Если не удалось вычислить нормаль, используем по умолчанию
-                normals.add(new Vector3f(0, 1, 0));
-            }
+    /**
+     * Считает нормали, только если вершины или грани менялись с прошлого расчёта. Если у всех граней
+     * есть нормали из файла, считать нечего.
+     */
+    public void ensureNormalsExist() {
+        if (!normalsDirty) {
+            return;
         }
+        if (computedNormalsStart >= 0 || !hasNormalsForAllFaces()) {
+            recalculateNormals();
+        }
+        normalsDirty = false;
+    }
 
-        hasValidNormals = true;
-        areNormalsComputed = true;
-
-        System.out.println("Пересчитано нормалей: " + normals.size() +
-                " для " + triangleCount + " треугольников");
+    /**
+     * Индекс первой нормали, посчитанной по вершинам: нормаль вершины v лежит в normals[start + v].
+     * -1, если нормали не считались.
+     */
+    public int getComputedNormalsStart() {
+        return computedNormalsStart;
     }
 
-    public void ensureNormalsExist() {
-        if (!areNormalsComputed || normals.isEmpty() || normals.size() != vertices.size()) {
-            recalculateNormals();
+    private boolean hasNormalsForAllFaces() {
+        if (normals.isEmpty()) {
+            return false;
         }
+        for (int face = 0; face < polygons.size(); face++) {
+            if (!polygons.hasNormalIndices(face)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     // ========== ТЕКСТУРЫ ==========
@@ -211,14 +231,15 @@ public class Model {
         if (textureVertices.isEmpty()) return;
 
         // Находим минимальные и максимальные значения
-        float minU = Float.MAX_VALUE, maxU = Float.MIN_VALUE;
-        float minV = Float.MAX_VALUE, maxV = Float.MIN_VALUE;
-
-        for (Vector2f uv : textureVertices) {
-            minU = Math.min(minU, uv.x);
-            maxU = Math.max(maxU, uv.x);
-            minV = Math.min(minV, uv.y);
-            maxV = Math.max(maxV, uv.y);
+        float[] uvs = textureVertices.getData();
+        int count = textureVertices.size() * 2;
+        float minU = Float.MAX_VALUE, maxU = -Float.MAX_VALUE;
+        float minV = Float.MAX_VALUE, maxV = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i += 2) {
+            minU = Math.min(minU, uvs[i]);
+            maxU = Math.max(maxU, uvs[i]);
+            minV = Math.min(minV, uvs[i + 1]);
+            maxV = Math.max(maxV, uvs[i + 1]);
         }
 
         float rangeU = maxU - minU;
@@ -226,11 +247,9 @@ public class Model {
 
         if (rangeU > 0 && rangeV > 0) {
             // Нормализуем все UV координаты к диапазону [0,1]
-            for (int i = 0; i < textureVertices.size(); i++) {
-                Vector2f uv = textureVertices.get(i);
-                float newU = (uv.x - minU) / rangeU;
-                float newV = (uv.y - minV) / rangeV;
-                textureVertices.set(i, new Vector2f(newU, newV));
+            for (int i = 0; i < count; i += 2) {
+                uvs[i] = (uvs[i] - minU) / rangeU;
+                uvs[i + 1] = (uvs[i + 1] - minV) / rangeV;
             }
 
             System.out.println("UV coordinates normalized to [0,1] range");
@@ -240,17 +259,19 @@ public class Model {
     // ========== ГЕТТЕРЫ И СЕТТЕРЫ ==========
 
     public Vector3f getTransformedVertex(int index) {
-        applyTransform();
-        if (index >= 0 && index < verticesTransform.size()) {
-            return verticesTransform.get(index);
+        // Одна вершина считается через матрицу модели, без запекания всех остальных
+        if (index >= 0 && index < vertices.size()) {
+            return transform.getModelMatrix().transformPoint(vertices.get(index), new Vector3f());
         }
         return null;
     }
 
+
     public Vector3f getVertexNormal(int index) {
         ensureNormalsExist();
-        if (index >= 0 && index < normals.size()) {
-            return normals.get(index);
+        // Нормали из файла привязаны к углам граней, а не к вершинам
+        if (computedNormalsStart >= 0 && index >= 0 && index < vertices.size()) {
+            return normals.get(computedNormalsStart + index);
         }
         return new Vector3f(0, 1, 0);
     }
@@ -287,6 +308,18 @@ public class Model {
         this.useLighting = useLighting;
     }
 
+    public CullMode getCullMode() {
+        return cullMode;
+    }
+
+    public void setCullMode(CullMode cullMode) {
+        if (this.cullMode != cullMode) {
+            this.cullMode = cullMode;
+            geometryVersion++;
+            meshVersion++;
+        }
+    }
+
     public void setTexture(Texture texture) {
         this.texture = texture;
     }
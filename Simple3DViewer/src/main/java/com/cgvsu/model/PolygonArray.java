@@ -0,0 +1,394 @@
+package com.cgvsu.model;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * Полигоны модели в сжатом построчном виде (CSR): углы всех граней лежат подряд в плоских массивах
+ * индексов вершин, UV и нормалей, а грань f занимает углы [getFaceStart(f), getFaceStart(f) + getFaceSize(f)).
+ * Отсутствующий индекс UV или нормали хранится как -1.
+ * <p>
+ * Пока все грани - треугольники, массив смещений не нужен: грань f начинается с угла 3 * f,
+ * и индексы вершин образуют обычный индексный буфер треугольников.
+ * <p>
+ * Как {@link java.util.List} он нужен для совместимости: {@link #get(int)} собирает копию в виде {@link Polygon}.
+ * Горячие циклы читают индексы напрямую.
+ */
+public class PolygonArray extends AbstractList<Polygon> implements RandomAccess {
+    public static final int NO_INDEX = -1;
+
+    // null, пока все грани треугольные
+    private int[] offsets;
+    private int faceCount;
+
+    private int[] vertexIndices;
+    private int[] textureIndices;
+    private int[] normalIndices;
+    private int cornerCount;
+
+    // Начало грани, которая сейчас добавляется через beginFace/addCorner/endFace, -1 вне грани
+    private int openFaceStart = -1;
+
+    public PolygonArray() {
+        this(16, 16 * 3);
+    }
+
+    public PolygonArray(int faceCapacity, int cornerCapacity) {
+        if (faceCapacity < 0 || cornerCapacity < 0) {
+            throw new IllegalArgumentException("Отрицательная ёмкость");
+        }
+        vertexIndices = new int[cornerCapacity];
+        textureIndices = new int[cornerCapacity];
+        normalIndices = new int[cornerCapacity];
+    }
+
+    /**
+     * Грани из готовых массивов, например прочитанных из кэша. Массивы не копируются.
+     *
+     * @param offsets смещения граней (faceCount + 1 элемент) или null, если все грани треугольные
+     */
+    public PolygonArray(int[] offsets, int faceCount,
+                        int[] vertexIndices, int[] textureIndices, int[] normalIndices, int cornerCount) {
+        if (faceCount < 0 || cornerCount < 0) {
+            throw new IllegalArgumentException("Отрицательный размер");
+        }
+        boolean consistent = offsets == null
+                ? cornerCount == faceCount * 3
+                : offsets.length > faceCount && offsets[faceCount] == cornerCount;
+        if (!consistent) {
+            throw new IllegalArgumentException("Смещения граней не сходятся с числом углов: " + cornerCount);
+        }
+        if (vertexIndices.length < cornerCount || textureIndices.length < cornerCount || normalIndices.length < cornerCount) {
+            throw new IllegalArgumentException("Массивы индексов короче числа углов: " + cornerCount);
+        }
+        this.offsets = offsets;
+        this.faceCount = faceCount;
+        this.vertexIndices = vertexIndices;
+        this.textureIndices = textureIndices;
+        this.normalIndices = normalIndices;
+        this.cornerCount = cornerCount;
+    }
+
+    // ========== ЧТЕНИЕ ==========
+
+    @Override
+    public int size() {
+        return faceCount;
+    }
+
+    public int getCornerCount() {
+        return cornerCount;
+    }
+
+    /**
+     * Все ли грани - треугольники.
+     */
+    public boolean isTriangles() {
+        return offsets == null;
+    }
+
+    public int getFaceStart(int face) {
+        return offsets == null ? face * 3 : offsets[face];
+    }
+
+    public int getFaceSize(int face) {
+        return offsets == null ? 3 : offsets[face + 1] - offsets[face];
+    }
+
+    public int getVertexIndex(int corner) {
+        return vertexIndices[corner];
+    }
+
+    public int getTextureIndex(int corner) {
+        return textureIndices[corner];
+    }
+
+    public int getNormalIndex(int corner) {
+        return normalIndices[corner];
+    }
+
+    /**
+     * Есть ли у всех углов грани индексы UV.
+     */
+    public boolean hasTextureIndices(int face) {
+        return hasAll(textureIndices, face);
+    }
+
+    public boolean hasNormalIndices(int face) {
+        return hasAll(normalIndices, face);
+    }
+
+    /**
+     * Внутренний массив индексов вершин; действительны первые getCornerCount() элементов.
+     */
+    public int[] getVertexIndices() {
+        return vertexIndices;
+    }
+
+    public int[] getTextureIndices() {
+        return textureIndices;
+    }
+
+    public int[] getNormalIndices() {
+        return normalIndices;
+    }
+
+    /**
+     * Смещения граней (faceCount + 1 элемент) или null, если все грани треугольные.
+     */
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    @Override
+    public Polygon get(int face) {
+        checkFace(face);
+        int start = getFaceStart(face);
+        int count = getFaceSize(face);
+
+        ArrayList<Integer> vertices = new ArrayList<>(count);
+        ArrayList<Integer> textures = new ArrayList<>(count);
+        ArrayList<Integer> normals = new ArrayList<>(count);
+        for (int corner = start; corner < start + count; corner++) {
+            vertices.add(vertexIndices[corner]);
+            if (textureIndices[corner] != NO_INDEX) {
+                textures.add(textureIndices[corner]);
+            }
+            if (normalIndices[corner] != NO_INDEX) {
+                normals.add(normalIndices[corner]);
+            }
+        }
+
+        Polygon polygon = new Polygon();
+        polygon.setVertexIndices(vertices);
+        polygon.setTextureVertexIndices(textures);
+        polygon.setNormalIndices(normals);
+        return polygon;
+    }
+
+    // ========== ПОСТРОЕНИЕ ==========
+
+    /**
+     * Начало новой грани; углы добавляются через {@link #addCorner}, грань закрывается {@link #endFace()}.
+     */
+    public void beginFace() {
+        if (openFaceStart >= 0) {
+            throw new IllegalStateException("Предыдущая грань не закрыта");
+        }
+        openFaceStart = cornerCount;
+    }
+
+    public void addCorner(int vertexIndex, int textureIndex, int normalIndex) {
+        if (openFaceStart < 0) {
+            throw new IllegalStateException("Угол вне грани");
+        }
+        ensureCornerCapacity(cornerCount + 1);
+        vertexIndices[cornerCount] = vertexIndex;
+        textureIndices[cornerCount] = textureIndex;
+        normalIndices[cornerCount] = normalIndex;
+        cornerCount++;
+    }
+
+    public void endFace() {
+        if (openFaceStart < 0) {
+            throw new IllegalStateException("Грань не начата");
+        }
+        int size = cornerCount - openFaceStart;
+        openFaceStart = -1;
+        appendFace(size);
+    }
+
+    public void addTriangle(int v1, int v2, int v3, int t1, int t2, int t3, int n1, int n2, int n3) {
+        ensureCornerCapacity(cornerCount + 3);
+        int c = cornerCount;
+        vertexIndices[c] = v1;
+        vertexIndices[c + 1] = v2;
+        vertexIndices[c + 2] = v3;
+        textureIndices[c] = t1;
+        textureIndices[c + 1] = t2;
+        textureIndices[c + 2] = t3;
+        normalIndices[c] = n1;
+        normalIndices[c + 1] = n2;
+        normalIndices[c + 2] = n3;
+        cornerCount += 3;
+        appendFace(3);
+    }
+
+    /**
+     * Добавляет полигон. Индексы UV и нормалей берутся, только если их столько же, сколько вершин.
+     */
+    @Override
+    public boolean add(Polygon polygon) {
+        ArrayList<Integer> vertices = polygon.getVertexIndices();
+        ArrayList<Integer> textures = polygon.getTextureVertexIndices();
+        ArrayList<Integer> normals = polygon.getNormalIndices();
+        boolean hasTextures = textures.size() == vertices.size();
+        boolean hasNormals = normals.size() == vertices.size();
+
+        beginFace();
+        for (int i = 0; i < vertices.size(); i++) {
+            addCorner(vertices.get(i),
+                    hasTextures ? textures.get(i) : NO_INDEX,
+                    hasNormals ? normals.get(i) : NO_INDEX);
+        }
+        endFace();
+        return true;
+    }
+
+    /**
+     * Дописывает грани в конец. Из другого PolygonArray массивы индексов копируются целиком.
+     */
+    @Override
+    public boolean addAll(Collection<? extends Polygon> polygons) {
+        if (!(polygons instanceof PolygonArray)) {
+            return super.addAll(polygons);
+        }
+        PolygonArray other = (PolygonArray) polygons;
+        if (openFaceStart >= 0 || other.openFaceStart >= 0) {
+            throw new IllegalStateException("Грань не закрыта");
+        }
+
+        int cornerBase = cornerCount;
+        ensureCornerCapacity(cornerCount + other.cornerCount);
+        System.arraycopy(other.vertexIndices, 0, vertexIndices, cornerBase, other.cornerCount);
+        System.arraycopy(other.textureIndices, 0, textureIndices, cornerBase, other.cornerCount);
+        System.arraycopy(other.normalIndices, 0, normalIndices, cornerBase, other.cornerCount);
+        cornerCount += other.cornerCount;
+
+        if (offsets != null || other.offsets != null) {
+            ensureOffsets(faceCount + other.faceCount + 1);
+            for (int f = 0; f < other.faceCount; f++) {
+                offsets[faceCount + f + 1] = cornerBase + other.getFaceStart(f) + other.getFaceSize(f);
+            }
+        }
+        faceCount += other.faceCount;
+        modCount++;
+        return other.faceCount > 0;
+    }
+
+    /**
+     * Заменяет грань полигоном с тем же числом вершин.
+     */
+    @Override
+    public Polygon set(int face, Polygon polygon) {
+        Polygon previous = get(face);
+        ArrayList<Integer> vertices = polygon.getVertexIndices();
+        int start = getFaceStart(face);
+        if (vertices.size() != getFaceSize(face)) {
+            throw new IllegalArgumentException("Число вершин грани должно остаться " + getFaceSize(face));
+        }
+        ArrayList<Integer> textures = polygon.getTextureVertexIndices();
+        ArrayList<Integer> normals = polygon.getNormalIndices();
+        for (int i = 0; i < vertices.size(); i++) {
+            vertexIndices[start + i] = vertices.get(i);
+            textureIndices[start + i] = textures.size() == vertices.size() ? textures.get(i) : NO_INDEX;
+            normalIndices[start + i] = normals.size() == vertices.size() ? normals.get(i) : NO_INDEX;
+        }
+        return previous;
+    }
+
+    @Override
+    public Polygon remove(int face) {
+        Polygon previous = get(face);
+        int start = getFaceStart(face);
+        int count = getFaceSize(face);
+        int tail = cornerCount - start - count;
+        System.arraycopy(vertexIndices, start + count, vertexIndices, start, tail);
+        System.arraycopy(textureIndices, start + count, textureIndices, start, tail);
+        System.arraycopy(normalIndices, start + count, normalIndices, start, tail);
+        cornerCount -= count;
+
+        if (offsets != null) {
+            for (int f = face + 1; f <= faceCount; f++) {
+                offsets[f - 1] = offsets[f] - count;
+            }
+        }
+        faceCount--;
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        faceCount = 0;
+        cornerCount = 0;
+        offsets = null;
+        openFaceStart = -1;
+        modCount++;
+    }
+
+    /**
+     * Отдаёт лишнюю ёмкость после загрузки модели. Если остались одни треугольники, смещения больше не хранятся.
+     */
+    public void trimToSize() {
+        if (offsets != null) {
+            boolean triangles = true;
+            for (int f = 0; f < faceCount && triangles; f++) {
+                triangles = offsets[f + 1] - offsets[f] == 3;
+            }
+            offsets = triangles ? null : Arrays.copyOf(offsets, faceCount + 1);
+        }
+        if (vertexIndices.length != cornerCount) {
+            vertexIndices = Arrays.copyOf(vertexIndices, cornerCount);
+            textureIndices = Arrays.copyOf(textureIndices, cornerCount);
+            normalIndices = Arrays.copyOf(normalIndices, cornerCount);
+        }
+    }
+
+    public void ensureCapacity(int faceCapacity, int cornerCapacity) {
+        ensureCornerCapacity(cornerCapacity);
+        if (offsets != null && offsets.length < faceCapacity + 1) {
+            offsets = Arrays.copyOf(offsets, faceCapacity + 1);
+        }
+    }
+
+    private void appendFace(int size) {
+        if (offsets != null || size != 3) {
+            ensureOffsets(faceCount + 2);
+            offsets[faceCount + 1] = cornerCount;
+        }
+        faceCount++;
+        modCount++;
+    }
+
+    private void ensureOffsets(int capacity) {
+        if (offsets == null) {
+            // Первая не треугольная грань: смещения становятся явными
+            offsets = new int[Math.max(capacity, 16)];
+            for (int f = 0; f <= faceCount; f++) {
+                offsets[f] = f * 3;
+            }
+        } else if (offsets.length < capacity) {
+            offsets = Arrays.copyOf(offsets, Math.max(capacity, offsets.length + (offsets.length >> 1)));
+        }
+    }
+
+    private void ensureCornerCapacity(int capacity) {
+        if (capacity > vertexIndices.length) {
+            int newCapacity = Math.max(capacity, vertexIndices.length + (vertexIndices.length >> 1) + 3);
+            vertexIndices = Arrays.copyOf(vertexIndices, newCapacity);
+            textureIndices = Arrays.copyOf(textureIndices, newCapacity);
+            normalIndices = Arrays.copyOf(normalIndices, newCapacity);
+        }
+    }
+
+    private boolean hasAll(int[] indices, int face) {
+        int start = getFaceStart(face);
+        int end = start + getFaceSize(face);
+        for (int corner = start; corner < end; corner++) {
+            if (indices[corner] == NO_INDEX) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkFace(int face) {
+        if (face < 0 || face >= faceCount) {
+            throw new IndexOutOfBoundsException("Face: " + face + ", size: " + faceCount);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.cgvsu.model;
 
+import com.cgvsu.math.matrix.Matrix4f;
 import com.cgvsu.math.vector.Vector3f;
+import com.cgvsu.render_engine.GraphicConveyor;
 
 public class TransformModel {
 
@@ -10,6 +12,11 @@ public class TransformModel {
     public boolean enabled = true;
     private Model parentModel = null;
 
+    // Матрица модели и матрица нормалей пересчитываются лениво, один раз после изменения
+    private final Matrix4f modelMatrix = new Matrix4f();
+    private final Matrix4f normalMatrix = new Matrix4f();
+    private boolean matrixDirty = true;
+
     public void reset() {
         this.position = new Vector3f(0, 0, 0);
         this.rotation = new Vector3f(0, 0, 0);
@@ -70,6 +77,47 @@ public class TransformModel {
         return enabled;
     }
 
+    /**
+     * Матрица модели T * R * S (единичная, если трансформация выключена). Возвращается внутренний объект,
+     * менять его нельзя; после изменения трансформации он обновится при следующем обращении.
+     */
+    public Matrix4f getModelMatrix() {
+        updateMatrices();
+        return modelMatrix;
+    }
+
+    /**
+     * Матрица для нормалей: обратная транспонированная к модельной. При неравномерном масштабе
+     * нормали нельзя просто умножать на матрицу модели - они перестанут быть перпендикулярны граням.
+     */
+    public Matrix4f getNormalMatrix() {
+        updateMatrices();
+        return normalMatrix;
+    }
+
+    public boolean isIdentity() {
+        return !enabled || !hasChanges();
+    }
+
+    private void updateMatrices() {
+        if (!matrixDirty) {
+            return;
+        }
+        if (isIdentity()) {
+            modelMatrix.setIdentity();
+            normalMatrix.setIdentity();
+        } else {
+            GraphicConveyor.translateRotateScale(position, rotation, scale, modelMatrix);
+            try {
+                Matrix4f.transpose(Matrix4f.invertAffine(modelMatrix, normalMatrix), normalMatrix);
+            } catch (IllegalArgumentException e) {
+                // Нулевой масштаб по какой-то оси: модель сплющена, годится и сама матрица модели
+                normalMatrix.set(modelMatrix);
+            }
+        }
+        matrixDirty = false;
+    }
+
     // ========== МЕТОДЫ ДЛЯ ИНКРЕМЕНТНЫХ ИЗМЕНЕНИЙ ==========
     public void translate(Vector3f translation) {
         this.position = this.position.add(translation);
@@ -101,6 +149,7 @@ public class TransformModel {
 
     // ========== ВСПОМОГАТЕЛЬНЫЕ МЕТОДЫ ==========
     private void notifyParent() {
+        matrixDirty = true;
         if (parentModel != null) {
             parentModel.markTransformDirty();
         }
@@ -0,0 +1,186 @@
+package com.cgvsu.model;
+
+import com.cgvsu.math.vector.Vector2f;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * Список двумерных векторов (UV), упакованных в один массив float: u0, v0, u1, v1, ...
+ * Устроен так же, как {@link Vector3fArray}.
+ * <p>
+ * Как {@link java.util.List} он нужен для совместимости со старым кодом: {@link #get(int)} возвращает копию,
+ * поэтому менять вектор нужно через {@link #set}. Горячие циклы читают {@link #getData()} напрямую.
+ * Массив растёт сам, как у ArrayList, так что этот же класс служит построителем при чтении файла.
+ */
+public class Vector2fArray extends AbstractList<Vector2f> implements RandomAccess {
+    private static final int COMPONENTS = 2;
+
+    private float[] data;
+    private int size;
+
+    public Vector2fArray() {
+        this(16);
+    }
+
+    public Vector2fArray(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Отрицательная ёмкость: " + capacity);
+        }
+        data = new float[capacity * COMPONENTS];
+    }
+
+    /**
+     * Внутренний массив; действительны первые size() * 2 чисел. После добавления элементов массив может смениться.
+     */
+    public float[] getData() {
+        return data;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Vector2f get(int index) {
+        checkIndex(index);
+        int offset = index * COMPONENTS;
+        return new Vector2f(data[offset], data[offset + 1]);
+    }
+
+    public Vector2f get(int index, Vector2f dest) {
+        checkIndex(index);
+        int offset = index * COMPONENTS;
+        dest.set(data[offset], data[offset + 1]);
+        return dest;
+    }
+
+    public float getX(int index) {
+        return data[index * COMPONENTS];
+    }
+
+    public float getY(int index) {
+        return data[index * COMPONENTS + 1];
+    }
+
+    @Override
+    public Vector2f set(int index, Vector2f vector) {
+        Vector2f previous = get(index);
+        set(index, vector.x, vector.y);
+        return previous;
+    }
+
+    public void set(int index, float x, float y) {
+        checkIndex(index);
+        int offset = index * COMPONENTS;
+        data[offset] = x;
+        data[offset + 1] = y;
+    }
+
+    @Override
+    public boolean add(Vector2f vector) {
+        add(vector.x, vector.y);
+        return true;
+    }
+
+    public void add(float x, float y) {
+        if ((size + 1) * COMPONENTS > data.length) {
+            grow(size + 1);
+        }
+        int offset = size * COMPONENTS;
+        data[offset] = x;
+        data[offset + 1] = y;
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public void add(int index, Vector2f vector) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        if ((size + 1) * COMPONENTS > data.length) {
+            grow(size + 1);
+        }
+        int offset = index * COMPONENTS;
+        System.arraycopy(data, offset, data, offset + COMPONENTS, (size - index) * COMPONENTS);
+        data[offset] = vector.x;
+        data[offset + 1] = vector.y;
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Vector2f> vectors) {
+        if (!(vectors instanceof Vector2fArray)) {
+            return super.addAll(vectors);
+        }
+        Vector2fArray other = (Vector2fArray) vectors;
+        int count = other.size;
+        ensureCapacity(size + count);
+        System.arraycopy(other.data, 0, data, size * COMPONENTS, count * COMPONENTS);
+        size += count;
+        modCount++;
+        return count > 0;
+    }
+
+    @Override
+    public Vector2f remove(int index) {
+        Vector2f previous = get(index);
+        int offset = index * COMPONENTS;
+        System.arraycopy(data, offset + COMPONENTS, data, offset, (size - index - 1) * COMPONENTS);
+        size--;
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * Меняет число элементов. Новые элементы заполнены нулями.
+     */
+    public void setSize(int newSize) {
+        if (newSize < 0) {
+            throw new IllegalArgumentException("Отрицательный размер: " + newSize);
+        }
+        ensureCapacity(newSize);
+        if (newSize > size) {
+            Arrays.fill(data, size * COMPONENTS, newSize * COMPONENTS, 0);
+        }
+        size = newSize;
+        modCount++;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity * COMPONENTS > data.length) {
+            grow(capacity);
+        }
+    }
+
+    /**
+     * Отдаёт лишнюю ёмкость после загрузки модели.
+     */
+    public void trimToSize() {
+        if (data.length != size * COMPONENTS) {
+            data = Arrays.copyOf(data, size * COMPONENTS);
+        }
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, data.length / COMPONENTS + (data.length / COMPONENTS >> 1) + 1);
+        data = Arrays.copyOf(data, capacity * COMPONENTS);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+    }
+}
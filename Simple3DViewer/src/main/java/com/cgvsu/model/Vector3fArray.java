@@ -0,0 +1,193 @@
+package com.cgvsu.model;
+
+import com.cgvsu.math.vector.Vector3f;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * Список трёхмерных векторов, упакованных в один массив float: x0, y0, z0, x1, y1, z1, ...
+ * Вместо объекта на вершину - 12 байт, и проход по вершинам идёт по памяти подряд.
+ * <p>
+ * Как {@link java.util.List} он нужен для совместимости со старым кодом: {@link #get(int)} возвращает копию,
+ * поэтому менять вектор нужно через {@link #set}. Горячие циклы читают {@link #getData()} напрямую.
+ * Массив растёт сам, как у ArrayList, так что этот же класс служит построителем при чтении файла.
+ */
+public class Vector3fArray extends AbstractList<Vector3f> implements RandomAccess {
+    private static final int COMPONENTS = 3;
+
+    private float[] data;
+    private int size;
+
+    public Vector3fArray() {
+        this(16);
+    }
+
+    public Vector3fArray(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Отрицательная ёмкость: " + capacity);
+        }
+        data = new float[capacity * COMPONENTS];
+    }
+
+    /**
+     * Внутренний массив; действительны первые size() * 3 чисел. После добавления элементов массив может смениться.
+     */
+    public float[] getData() {
+        return data;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Vector3f get(int index) {
+        checkIndex(index);
+        int offset = index * COMPONENTS;
+        return new Vector3f(data[offset], data[offset + 1], data[offset + 2]);
+    }
+
+    public Vector3f get(int index, Vector3f dest) {
+        checkIndex(index);
+        int offset = index * COMPONENTS;
+        dest.set(data[offset], data[offset + 1], data[offset + 2]);
+        return dest;
+    }
+
+    public float getX(int index) {
+        return data[index * COMPONENTS];
+    }
+
+    public float getY(int index) {
+        return data[index * COMPONENTS + 1];
+    }
+
+    public float getZ(int index) {
+        return data[index * COMPONENTS + 2];
+    }
+
+    @Override
+    public Vector3f set(int index, Vector3f vector) {
+        Vector3f previous = get(index);
+        set(index, vector.x, vector.y, vector.z);
+        return previous;
+    }
+
+    public void set(int index, float x, float y, float z) {
+        checkIndex(index);
+        int offset = index * COMPONENTS;
+        data[offset] = x;
+        data[offset + 1] = y;
+        data[offset + 2] = z;
+    }
+
+    @Override
+    public boolean add(Vector3f vector) {
+        add(vector.x, vector.y, vector.z);
+        return true;
+    }
+
+    public void add(float x, float y, float z) {
+        if ((size + 1) * COMPONENTS > data.length) {
+            grow(size + 1);
+        }
+        int offset = size * COMPONENTS;
+        data[offset] = x;
+        data[offset + 1] = y;
+        data[offset + 2] = z;
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public void add(int index, Vector3f vector) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        if ((size + 1) * COMPONENTS > data.length) {
+            grow(size + 1);
+        }
+        int offset = index * COMPONENTS;
+        System.arraycopy(data, offset, data, offset + COMPONENTS, (size - index) * COMPONENTS);
+        data[offset] = vector.x;
+        data[offset + 1] = vector.y;
+        data[offset + 2] = vector.z;
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Vector3f> vectors) {
+        if (!(vectors instanceof Vector3fArray)) {
+            return super.addAll(vectors);
+        }
+        Vector3fArray other = (Vector3fArray) vectors;
+        int count = other.size;
+        ensureCapacity(size + count);
+        System.arraycopy(other.data, 0, data, size * COMPONENTS, count * COMPONENTS);
+        size += count;
+        modCount++;
+        return count > 0;
+    }
+
+    @Override
+    public Vector3f remove(int index) {
+        Vector3f previous = get(index);
+        int offset = index * COMPONENTS;
+        System.arraycopy(data, offset + COMPONENTS, data, offset, (size - index - 1) * COMPONENTS);
+        size--;
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * Меняет число элементов. Новые элементы заполнены нулями.
+     */
+    public void setSize(int newSize) {
+        if (newSize < 0) {
+            throw new IllegalArgumentException("Отрицательный размер: " + newSize);
+        }
+        ensureCapacity(newSize);
+        if (newSize > size) {
+            Arrays.fill(data, size * COMPONENTS, newSize * COMPONENTS, 0);
+        }
+        size = newSize;
+        modCount++;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity * COMPONENTS > data.length) {
+            grow(capacity);
+        }
+    }
+
+    /**
+     * Отдаёт лишнюю ёмкость после загрузки модели.
+     */
+    public void trimToSize() {
+        if (data.length != size * COMPONENTS) {
+            data = Arrays.copyOf(data, size * COMPONENTS);
+        }
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, data.length / COMPONENTS + (data.length / COMPONENTS >> 1) + 1);
+        data = Arrays.copyOf(data, capacity * COMPONENTS);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+    }
+}
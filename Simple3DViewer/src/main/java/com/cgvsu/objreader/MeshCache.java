@@ -0,0 +1,311 @@
+package com.cgvsu.objreader;
+
+import com.cgvsu.model.Model;
+import com.cgvsu.model.PolygonArray;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CancellationException;
+import java.util.zip.CRC32;
+
+/**
+ * Двоичный кэш сеток. После первого чтения OBJ триангулированная сетка с посчитанными нормалями
+ * сохраняется в каталог кэша как сырые массивы little-endian, и следующие загрузки того же файла
+ * отображают кэш в память вместо разбора текста.
+ * <p>
+ * Формат: заголовок {@value #HEADER_SIZE} байт, путь к исходному файлу (UTF-8, выровнен до 4 байт) и данные:
+ * вершины, UV, нормали (float), смещения граней (только если есть не треугольные грани),
+ * индексы вершин, UV и нормалей (int). Заголовок хранит и начало нормалей, посчитанных по вершинам,
+ * чтобы после правки вершин их можно было пересчитать. Кэш считается устаревшим, если у исходного файла изменились
+ * размер или время изменения, и отбрасывается при несовпадении версии формата или контрольной суммы данных.
+ * <p>
+ * Сам порядок загрузки (кэш, иначе чтение OBJ, нормали и запись кэша) задаёт {@link ModelLoader}.
+ */
+public final class MeshCache {
+
+	// "S3DM" в little-endian
+	private static final int MAGIC = 0x4D443353;
+	// Увеличивать при любом изменении формата
+	private static final int VERSION = 3;
+	private static final int HEADER_SIZE = 64;
+	private static final int FLAG_HAS_OFFSETS = 1;
+
+	private static final String CACHE_SUFFIX = ".mesh";
+	private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+	private static volatile Path cacheDirectory =
+			Path.of(System.getProperty("user.home"), ".simple3dviewer", "mesh-cache");
+
+	private MeshCache() {
+	}
+
+	public static Path getCacheDirectory() {
+		return cacheDirectory;
+	}
+
+	public static void setCacheDirectory(Path directory) {
+		if (directory == null) {
+			throw new IllegalArgumentException("Каталог кэша не задан");
+		}
+		cacheDirectory = directory;
+	}
+
+	/**
+	 * Модель из кэша или null, если кэша нет, он устарел или повреждён (повреждение пишется в лог).
+	 * Прерывание потока и отмена загрузки пробрасываются дальше.
+	 */
+	public static Model readCached(Path source) throws IOException {
+		Path absoluteSource = source.toAbsolutePath().normalize();
+		try {
+			return read(getCacheFile(absoluteSource), absoluteSource);
+		} catch (IOException | RuntimeException e) {
+			if (isCancellation(e)) {
+				throw e;
+			}
+			System.err.println("Кэш сетки повреждён, читаем исходный файл: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Записывает кэш готовой сетки: триангулированной, с нормалями у всех вершин.
+	 * Ошибка записи пишется в лог, прерывание потока и отмена пробрасываются дальше.
+	 *
+	 * @param sourceSize     размер исходного файла, снятый до его чтения
+	 * @param sourceModified время изменения исходного файла, снятое до его чтения
+	 */
+	public static void store(Path source, Model model, long sourceSize, long sourceModified) throws IOException {
+		Path absoluteSource = source.toAbsolutePath().normalize();
+		try {
+			write(model, getCacheFile(absoluteSource), absoluteSource, sourceSize, sourceModified);
+		} catch (IOException e) {
+			if (isCancellation(e)) {
+				throw e;
+			}
+			System.err.println("Не удалось записать кэш сетки: " + e.getMessage());
+		}
+	}
+
+	public static Path getCacheFile(Path source) {
+		String key = source.toAbsolutePath().normalize().toString();
+		// Имя файла в кэше - хэш полного пути; сам путь хранится в заголовке, так что совпадение хэшей не опасно
+		String name = source.getFileName() + "-" + Long.toHexString(hash(key)) + CACHE_SUFFIX;
+		return cacheDirectory.resolve(name);
+	}
+
+	/**
+	 * Читает кэш. Возвращает null, если кэша нет или он не соответствует исходному файлу.
+	 */
+	static Model read(Path cacheFile, Path source) throws IOException {
+		if (!Files.isRegularFile(cacheFile)) {
+			return null;
+		}
+
+		try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			if (fileSize < HEADER_SIZE || fileSize > Integer.MAX_VALUE) {
+				return null;
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+				return null;
+			}
+			if (buffer.getLong(8) != Files.size(source)
+					|| buffer.getLong(16) != Files.getLastModifiedTime(source).toMillis()) {
+				return null;
+			}
+
+			int vertexCount = buffer.getInt(24);
+			int textureVertexCount = buffer.getInt(28);
+			int normalCount = buffer.getInt(32);
+			int faceCount = buffer.getInt(36);
+			int cornerCount = buffer.getInt(40);
+			boolean hasOffsets = (buffer.getInt(44) & FLAG_HAS_OFFSETS) != 0;
+			long checksum = buffer.getLong(48);
+			int pathLength = buffer.getInt(56);
+			int computedNormalsStart = buffer.getInt(60);
+
+			byte[] pathBytes = source.toString().getBytes(StandardCharsets.UTF_8);
+			int dataStart = HEADER_SIZE + align(pathBytes.length);
+			if (pathLength != pathBytes.length || dataStart > fileSize
+					|| !buffer.slice(HEADER_SIZE, pathLength).equals(ByteBuffer.wrap(pathBytes))) {
+				return null;
+			}
+			long expectedSize = dataStart + 4L * ((long) vertexCount * 3 + (long) textureVertexCount * 2
+					+ (long) normalCount * 3 + (hasOffsets ? faceCount + 1L : 0) + 3L * cornerCount);
+			if (expectedSize != fileSize || computedNormalsStart < -1 || computedNormalsStart > normalCount) {
+				return null;
+			}
+
+			CRC32 crc = new CRC32();
+			crc.update(buffer.slice(dataStart, (int) (fileSize - dataStart)));
+			if (crc.getValue() != checksum) {
+				return null;
+			}
+
+			Model result = new Model();
+			buffer.position(dataStart);
+			result.vertices.setSize(vertexCount);
+			readFloats(buffer, result.vertices.getData(), vertexCount * 3);
+			result.textureVertices.setSize(textureVertexCount);
+			readFloats(buffer, result.textureVertices.getData(), textureVertexCount * 2);
+			result.normals.setSize(normalCount);
+			readFloats(buffer, result.normals.getData(), normalCount * 3);
+
+			int[] offsets = hasOffsets ? readInts(buffer, faceCount + 1) : null;
+			int[] vertexIndices = readInts(buffer, cornerCount);
+			int[] textureIndices = readInts(buffer, cornerCount);
+			int[] normalIndices = readInts(buffer, cornerCount);
+			result.polygons = new PolygonArray(offsets, faceCount, vertexIndices, textureIndices, normalIndices, cornerCount);
+
+			result.markPrepared(computedNormalsStart);
+			return result;
+		}
+	}
+
+	/**
+	 * Записывает кэш через временный файл, так что читатель никогда не увидит недописанный кэш.
+	 *
+	 * @param sourceSize     размер исходного файла, снятый до его чтения
+	 * @param sourceModified время изменения исходного файла, снятое до его чтения
+	 */
+	static void write(Model model, Path cacheFile, Path source, long sourceSize, long sourceModified)
+			throws IOException {
+		PolygonArray polygons = model.polygons;
+		int[] offsets = polygons.getOffsets();
+		int faceCount = polygons.size();
+		int cornerCount = polygons.getCornerCount();
+		byte[] pathBytes = source.toString().getBytes(StandardCharsets.UTF_8);
+
+		Files.createDirectories(cacheFile.getParent());
+		Path temp = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				CRC32 crc = new CRC32();
+
+				// Сначала данные, заголовок с контрольной суммой - в конце
+				channel.position(HEADER_SIZE);
+				buffer.put(pathBytes);
+				buffer.position(align(pathBytes.length));
+				buffer.flip();
+				writeFully(channel, buffer);
+
+				writeFloats(channel, buffer, crc, model.vertices.getData(), model.vertices.size() * 3);
+				writeFloats(channel, buffer, crc, model.textureVertices.getData(), model.textureVertices.size() * 2);
+				writeFloats(channel, buffer, crc, model.normals.getData(), model.normals.size() * 3);
+				if (offsets != null) {
+					writeInts(channel, buffer, crc, offsets, faceCount + 1);
+				}
+				writeInts(channel, buffer, crc, polygons.getVertexIndices(), cornerCount);
+				writeInts(channel, buffer, crc, polygons.getTextureIndices(), cornerCount);
+				writeInts(channel, buffer, crc, polygons.getNormalIndices(), cornerCount);
+				if (channel.size() > Integer.MAX_VALUE) {
+					// Такой кэш не отобразить в память одним буфером
+					throw new IOException("Сетка слишком большая для кэша");
+				}
+
+				buffer.clear();
+				buffer.putInt(MAGIC)
+						.putInt(VERSION)
+						.putLong(sourceSize)
+						.putLong(sourceModified)
+						.putInt(model.vertices.size())
+						.putInt(model.textureVertices.size())
+						.putInt(model.normals.size())
+						.putInt(faceCount)
+						.putInt(cornerCount)
+						.putInt(offsets != null ? FLAG_HAS_OFFSETS : 0)
+						.putLong(crc.getValue())
+						.putInt(pathBytes.length)
+						.putInt(model.getComputedNormalsStart());
+				buffer.flip();
+				channel.position(0);
+				writeFully(channel, buffer);
+			}
+			Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	// Отменённая загрузка прерывает чтение или запись - это не повреждение кэша
+	private static boolean isCancellation(Exception e) {
+		return e instanceof ClosedByInterruptException || e instanceof InterruptedIOException
+				|| e instanceof CancellationException || Thread.currentThread().isInterrupted();
+	}
+
+	private static void readFloats(ByteBuffer buffer, float[] dest, int count) {
+		buffer.asFloatBuffer().get(dest, 0, count);
+		buffer.position(buffer.position() + count * 4);
+	}
+
+	private static int[] readInts(ByteBuffer buffer, int count) {
+		int[] result = new int[count];
+		buffer.asIntBuffer().get(result, 0, count);
+		buffer.position(buffer.position() + count * 4);
+		return result;
+	}
+
+	private static void writeFloats(FileChannel channel, ByteBuffer buffer, CRC32 crc, float[] data, int count)
+			throws IOException {
+		for (int i = 0; i < count; ) {
+			buffer.clear();
+			int n = Math.min(buffer.capacity() / 4, count - i);
+			buffer.asFloatBuffer().put(data, i, n);
+			buffer.limit(n * 4);
+			writeChecked(channel, buffer, crc);
+			i += n;
+		}
+	}
+
+	private static void writeInts(FileChannel channel, ByteBuffer buffer, CRC32 crc, int[] data, int count)
+			throws IOException {
+		for (int i = 0; i < count; ) {
+			buffer.clear();
+			int n = Math.min(buffer.capacity() / 4, count - i);
+			buffer.asIntBuffer().put(data, i, n);
+			buffer.limit(n * 4);
+			writeChecked(channel, buffer, crc);
+			i += n;
+		}
+	}
+
+	private static void writeChecked(FileChannel channel, ByteBuffer buffer, CRC32 crc) throws IOException {
+		crc.update(buffer);
+		buffer.rewind();
+		writeFully(channel, buffer);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static int align(int size) {
+		return (size + 3) & ~3;
+	}
+
+	// 64-битный FNV-1a: стабилен между запусками, в отличие от String.hashCode достаточно широк для имён файлов
+	private static long hash(String key) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,265 @@
+package com.cgvsu.objreader;
+
+import com.cgvsu.model.Model;
+import com.cgvsu.texture.Texture;
+import com.cgvsu.texture.TextureManager;
+
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Фоновая загрузка моделей. Каждый файл проходит стадии чтение и разбор с триангуляцией -> нормали -> запись кэша
+ * сетки -> поиск текстуры в пуле потоков по числу ядер, разные файлы грузятся одновременно. Если сетка есть
+ * в {@link MeshCache}, она читается из кэша, и стадии нормалей и записи кэша засчитываются сразу.
+ * Отмена проверяется и внутри чтения, так что большой файл не дочитывается до конца после отмены.
+ * <p>
+ * Все обратные вызовы {@link Listener} выполняются через исполнитель, переданный в конструктор
+ * (в интерфейсе это Platform::runLater). Модель отдаётся в onLoaded только полностью готовой,
+ * поэтому её можно сразу добавить в сцену, и отрисовка никогда не увидит модель наполовину.
+ */
+public class ModelLoader {
+
+	// Чтение и разбор, нормали, запись кэша, текстура
+	private static final int STAGES_PER_FILE = 4;
+
+	private static final String[] TEXTURE_EXTENSIONS = {".png", ".jpg", ".jpeg", ".bmp", ".tga"};
+
+	public interface Listener {
+		/**
+		 * @param progress доля выполненной работы всей пачки, от 0 до 1
+		 */
+		default void onProgress(double progress) {
+		}
+
+		void onLoaded(Path source, Model model);
+
+		default void onFailed(Path source, Exception error) {
+		}
+
+		/**
+		 * Все файлы пачки обработаны или пачка отменена.
+		 */
+		default void onFinished(boolean cancelled) {
+		}
+	}
+
+	private final ExecutorService executor;
+	private final Executor callbackExecutor;
+
+	public ModelLoader(Executor callbackExecutor) {
+		this(callbackExecutor, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ModelLoader(Executor callbackExecutor, int threadCount) {
+		if (threadCount < 1) {
+			throw new IllegalArgumentException("Нужен хотя бы один поток: " + threadCount);
+		}
+		this.callbackExecutor = callbackExecutor;
+		AtomicInteger threadIndex = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+			Thread thread = new Thread(runnable, "model-loader-" + threadIndex.incrementAndGet());
+			// Незавершённая загрузка не должна мешать закрытию приложения
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Ставит файлы в очередь загрузки и сразу возвращает управление.
+	 */
+	public Batch load(List<Path> sources, Listener listener) {
+		Batch batch = new Batch(sources.size(), listener);
+		if (sources.isEmpty()) {
+			callbackExecutor.execute(() -> listener.onFinished(false));
+			return batch;
+		}
+		for (Path source : sources) {
+			batch.futures.add(executor.submit(() -> loadFile(batch, source)));
+		}
+		return batch;
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private void loadFile(Batch batch, Path source) {
+		int stagesDone = 0;
+		try {
+			batch.checkCancelled();
+			Model model = MeshCache.readCached(source);
+			if (model != null) {
+				// Из кэша сетка приходит готовой: нормали уже посчитаны, кэш писать не нужно
+				batch.completeStages(3);
+				stagesDone += 3;
+			} else {
+				// Размер и время изменения берутся до разбора: если файл перезапишут во время чтения,
+				// кэш со старой геометрией получит старую отметку и при следующей загрузке будет отброшен
+				long sourceSize = Files.size(source);
+				long sourceModified = Files.getLastModifiedTime(source).toMillis();
+
+				model = ObjReader.readParallel(source, true, batch::isCancelled);
+				batch.completeStage();
+				stagesDone++;
+
+				batch.checkCancelled();
+				model.ensureNormalsExist();
+				batch.completeStage();
+				stagesDone++;
+
+				batch.checkCancelled();
+				MeshCache.store(source, model, sourceSize, sourceModified);
+				batch.completeStage();
+				stagesDone++;
+			}
+
+			batch.checkCancelled();
+			Texture texture = findTexture(source, model);
+			if (texture != null) {
+				model.setTexture(texture);
+			}
+			batch.completeStage();
+			stagesDone++;
+
+			Model loaded = model;
+			callbackExecutor.execute(() -> {
+				if (!batch.isCancelled()) {
+					batch.listener.onLoaded(source, loaded);
+				}
+			});
+
+		} catch (Exception e) {
+			// Прерванное отменой чтение заканчивается исключением канала, это не ошибка файла
+			if (!batch.isCancelled() && !isCancellation(e)) {
+				callbackExecutor.execute(() -> batch.listener.onFailed(source, e));
+			}
+		} finally {
+			// Стадии, до которых дело не дошло, тоже засчитываются, чтобы прогресс дошёл до конца
+			batch.finishFile(STAGES_PER_FILE - stagesDone);
+		}
+	}
+
+	private static boolean isCancellation(Exception e) {
+		return e instanceof CancellationException || e instanceof ClosedByInterruptException
+				|| e instanceof InterruptedIOException || Thread.currentThread().isInterrupted();
+	}
+
+	/**
+	 * Ищет текстуру рядом с моделью: имя_модели.png, имя_модели_diffuse.png, texture.png и т.п.
+	 * Модели без UV текстура не нужна.
+	 */
+	static Texture findTexture(Path modelPath, Model model) {
+		if (model.textureVertices.isEmpty()) {
+			return null;
+		}
+		Path directory = modelPath.toAbsolutePath().getParent();
+		if (directory == null) {
+			return null;
+		}
+
+		String baseName = modelPath.getFileName().toString().replaceFirst("(?i)\\.obj(\\.gz)?$", "");
+		List<String> candidates = new ArrayList<>(List.of(
+				baseName + ".png",
+				baseName + ".jpg",
+				baseName + "_texture.png",
+				baseName + "_diffuse.png",
+				"texture.png",
+				"diffuse.png"));
+		for (String extension : TEXTURE_EXTENSIONS) {
+			candidates.add(baseName + extension);
+		}
+
+		// Каталог читается один раз на все имена, а одна текстура на много моделей декодируется один раз
+		TextureManager textures = TextureManager.getShared();
+		Path textureFile = textures.findFirst(directory, candidates);
+		if (textureFile == null) {
+			return null;
+		}
+		return textures.loadNow(textureFile);
+	}
+
+	/**
+	 * Пачка файлов, поставленных в загрузку одним вызовом {@link #load}.
+	 */
+	public final class Batch {
+		private final int fileCount;
+		private final Listener listener;
+		private final List<Future<?>> futures = new ArrayList<>();
+		private final AtomicInteger completedStages = new AtomicInteger();
+		private final AtomicInteger finishedFiles = new AtomicInteger();
+		private volatile boolean cancelled = false;
+
+		private Batch(int fileCount, Listener listener) {
+			this.fileCount = fileCount;
+			this.listener = listener;
+		}
+
+		/**
+		 * Отменяет загрузку: файлы из очереди не начнутся, идущие прерываются посреди чтения или на ближайшей стадии.
+		 * Если вызвано из потока обратных вызовов, после возврата onLoaded для этой пачки больше не придёт.
+		 */
+		public void cancel() {
+			if (isDone()) {
+				return;
+			}
+			cancelled = true;
+			for (Future<?> future : futures) {
+				future.cancel(true);
+			}
+			callbackExecutor.execute(() -> listener.onFinished(true));
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		public boolean isDone() {
+			return cancelled || finishedFiles.get() == fileCount;
+		}
+
+		public double getProgress() {
+			return fileCount == 0 ? 1.0 : (double) completedStages.get() / (fileCount * STAGES_PER_FILE);
+		}
+
+		private void checkCancelled() {
+			if (cancelled || Thread.currentThread().isInterrupted()) {
+				throw new CancellationException();
+			}
+		}
+
+		private void completeStage() {
+			completeStages(1);
+		}
+
+		private void completeStages(int count) {
+			completedStages.addAndGet(count);
+			double progress = getProgress();
+			callbackExecutor.execute(() -> {
+				if (!cancelled) {
+					listener.onProgress(progress);
+				}
+			});
+		}
+
+		private void finishFile(int skippedStages) {
+			completedStages.addAndGet(skippedStages);
+			if (finishedFiles.incrementAndGet() == fileCount && !cancelled) {
+				callbackExecutor.execute(() -> {
+					if (!cancelled) {
+						listener.onFinished(false);
+					}
+				});
+			}
+		}
+	}
+}
@@ -0,0 +1,495 @@
+package com.cgvsu.objreader;
+
+import com.cgvsu.model.Model;
+import com.cgvsu.model.PolygonArray;
+import com.cgvsu.model.Vector2fArray;
+import com.cgvsu.model.Vector3fArray;
+import com.cgvsu.utils.Triangulator;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Разбор OBJ прямо из байтов буфера: без строк, split и списков на каждую строку.
+ * Числа разбираются вручную, результат сразу дописывается в плоские массивы модели.
+ * <p>
+ * Буфер можно подавать частями: {@link #parse(ByteBuffer, boolean)} разбирает только полные строки,
+ * а номер строки для {@link ObjReaderException} переходит от части к части.
+ * <p>
+ * При параллельном разборе каждая часть файла читается своим парсером. Отрицательные индексы граней
+ * ссылаются на элементы предыдущих частей, поэтому такие углы запоминаются и сдвигаются при слиянии.
+ * Выходит ли индекс за границы, в части тоже неизвестно, пока нет числа элементов в предыдущих частях,
+ * поэтому проверка откладывается до слияния, см. {@link #firstOutOfRangeLine(int, int)}.
+ * <p>
+ * Парсер может сразу резать грани на треугольники: углы грани собираются в рабочие массивы и уходят
+ * в {@link Triangulator}, так что в модель попадает готовый индексный буфер треугольников.
+ */
+final class ObjBufferParser {
+
+	private static final byte[] BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+	private static final float[] FLOAT_POWERS_OF_TEN = {
+			1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+	};
+	private static final double[] DOUBLE_POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	// Больше цифр в long не влезает без переполнения, остальные цифры мантиссы отбрасываются
+	private static final int MAX_MANTISSA_DIGITS = 18;
+	// Отмена проверяется раз в столько строк (маска номера строки)
+	private static final int CANCELLATION_CHECK_MASK = (1 << 16) - 1;
+
+	// Какой индекс угла записан в getRelativeCorners(): угол * 3 + компонента
+	static final int VERTEX_COMPONENT = 0;
+	static final int TEXTURE_COMPONENT = 1;
+	static final int NORMAL_COMPONENT = 2;
+
+	private static final String[] OUT_OF_RANGE_MESSAGES = {
+			"Vertex index out of range.", "Texture vertex index out of range.", "Normal index out of range."
+	};
+
+	private final Vector3fArray vertices;
+	private final Vector2fArray textureVertices;
+	private final Vector3fArray normals;
+	private final PolygonArray polygons;
+
+	private final boolean deferRelativeIndices;
+	private int[] relativeCorners = new int[0];
+	private int relativeCornerCount = 0;
+	// Для каждой компоненты - строки, где индекс ссылается на deficit элементов раньше начала части или
+	// дальше её прочитанного конца. Запись добавляется, только если deficit больше всех предыдущих,
+	// поэтому deficit в списке растёт вместе с номером строки
+	private final int[][] outOfRangeDeficits = new int[3][0];
+	private final int[][] outOfRangeLines = new int[3][0];
+	private final int[] outOfRangeCounts = new int[3];
+
+	// null, если грани сохраняются как есть
+	private final Triangulator triangulator;
+	// Углы текущей грани
+	private int[] faceVertices = new int[16];
+	private int[] faceTextures = new int[16];
+	private int[] faceNormals = new int[16];
+	private int faceSize;
+
+	private BooleanSupplier cancelled = () -> false;
+
+	private ByteBuffer buffer;
+	// Текущая позиция и конец разбираемой строки
+	private int pos;
+	private int lineEnd;
+	private int lineInd = 0;
+
+	ObjBufferParser(Model model) {
+		this(model, false, false);
+	}
+
+	/**
+	 * @param deferRelativeIndices запоминать углы с отрицательными индексами, см. {@link #getRelativeCorners()}
+	 * @param triangulate          резать грани на треугольники при чтении. Для формы грани нужны координаты
+	 *                             её вершин, поэтому вместе с deferRelativeIndices не используется
+	 */
+	ObjBufferParser(Model model, boolean deferRelativeIndices, boolean triangulate) {
+		if (deferRelativeIndices && triangulate) {
+			throw new IllegalArgumentException("Часть файла не знает координат вершин из предыдущих частей");
+		}
+		this.deferRelativeIndices = deferRelativeIndices;
+		this.triangulator = triangulate ? new Triangulator() : null;
+		this.vertices = model.vertices;
+		this.textureVertices = model.textureVertices;
+		this.normals = model.normals;
+		this.polygons = model.polygons;
+	}
+
+	/**
+	 * Проверка отмены: если она вернёт true, разбор прервётся с {@link CancellationException}.
+	 */
+	void setCancellation(BooleanSupplier cancelled) {
+		this.cancelled = cancelled;
+	}
+
+	int getLineInd() {
+		return lineInd;
+	}
+
+	/**
+	 * Углы, индекс которых был отрицательным и посчитан только от элементов этой части.
+	 * Каждый элемент - угол * 3 + компонента; действительны первые getRelativeCornerCount() элементов.
+	 */
+	int[] getRelativeCorners() {
+		return relativeCorners;
+	}
+
+	int getRelativeCornerCount() {
+		return relativeCornerCount;
+	}
+
+	/**
+	 * Первая строка части, где индекс компоненты выходит за границы, если до части прочитано base элементов
+	 * этой компоненты, или -1. Нужна только при deferRelativeIndices: иначе индексы проверяются сразу.
+	 */
+	int firstOutOfRangeLine(int component, int base) {
+		for (int i = 0; i < outOfRangeCounts[component]; i++) {
+			if (outOfRangeDeficits[component][i] > base) {
+				return outOfRangeLines[component][i];
+			}
+		}
+		return -1;
+	}
+
+	static String outOfRangeMessage(int component) {
+		return OUT_OF_RANGE_MESSAGES[component];
+	}
+
+	/**
+	 * Разбирает строки буфера от position до limit. Если ввод ещё не закончился, незавершённая последняя строка
+	 * не разбирается: position остаётся на её начале, и её нужно подать ещё раз вместе со следующей частью.
+	 */
+	void parse(ByteBuffer buffer, boolean endOfInput) {
+		this.buffer = buffer;
+		int start = buffer.position();
+		int limit = buffer.limit();
+		if (lineInd == 0 && hasBom(start, limit)) {
+			start += BOM.length;
+		}
+
+		while (start < limit) {
+			int end = start;
+			while (end < limit && buffer.get(end) != '\n') {
+				end++;
+			}
+			if (end == limit && !endOfInput) {
+				break;
+			}
+
+			if ((++lineInd & CANCELLATION_CHECK_MASK) == 0 && cancelled.getAsBoolean()) {
+				throw new CancellationException();
+			}
+			pos = start;
+			lineEnd = end;
+			parseLine();
+			start = end + 1;
+		}
+		buffer.position(Math.min(start, limit));
+		this.buffer = null;
+	}
+
+	private void parseLine() {
+		skipSpaces();
+		if (atTokenEnd()) {
+			return;
+		}
+
+		int keywordStart = pos;
+		skipToken();
+		int keywordLength = pos - keywordStart;
+		byte first = buffer.get(keywordStart);
+
+		if (keywordLength == 1 && first == 'v') {
+			float x = nextFloat("Too few vertex arguments.");
+			float y = nextFloat("Too few vertex arguments.");
+			float z = nextFloat("Too few vertex arguments.");
+			vertices.add(x, y, z);
+		} else if (keywordLength == 2 && first == 'v' && buffer.get(keywordStart + 1) == 't') {
+			float u = nextFloat("Too few texture vertex arguments.");
+			float v = nextFloat("Too few texture vertex arguments.");
+			textureVertices.add(u, v);
+		} else if (keywordLength == 2 && first == 'v' && buffer.get(keywordStart + 1) == 'n') {
+			float x = nextFloat("Too few normal arguments.");
+			float y = nextFloat("Too few normal arguments.");
+			float z = nextFloat("Too few normal arguments.");
+			normals.add(x, y, z);
+		} else if (keywordLength == 1 && first == 'f') {
+			parseFace();
+		}
+		// Остальные ключевые слова (o, g, s, usemtl, ...) пропускаются
+	}
+
+	private void parseFace() {
+		faceSize = 0;
+		while (true) {
+			skipSpaces();
+			if (atTokenEnd()) {
+				break;
+			}
+			parseFaceWord();
+		}
+
+		if (triangulator != null) {
+			triangulator.addFace(vertices.getData(), vertices.size(), faceVertices, faceTextures, faceNormals,
+					0, faceSize, polygons);
+			return;
+		}
+		polygons.beginFace();
+		for (int i = 0; i < faceSize; i++) {
+			polygons.addCorner(faceVertices[i], faceTextures[i], faceNormals[i]);
+		}
+		polygons.endFace();
+	}
+
+	// Слово грани: v, v/vt, v//vn или v/vt/vn
+	private void parseFaceWord() {
+		// Номер угла в модели, если грань попадёт в неё как есть
+		int corner = polygons.getCornerCount() + faceSize;
+		int vertexIndex = resolveIndex(nextInt(), vertices.size(), corner, VERTEX_COMPONENT);
+		int textureIndex = PolygonArray.NO_INDEX;
+		int normalIndex = PolygonArray.NO_INDEX;
+
+		if (pos < lineEnd && buffer.get(pos) == '/') {
+			pos++;
+			if (pos < lineEnd && buffer.get(pos) != '/' && !isSpace(buffer.get(pos))) {
+				textureIndex = resolveIndex(nextInt(), textureVertices.size(), corner, TEXTURE_COMPONENT);
+			}
+			if (pos < lineEnd && buffer.get(pos) == '/') {
+				pos++;
+				normalIndex = resolveIndex(nextInt(), normals.size(), corner, NORMAL_COMPONENT);
+			}
+		}
+		if (pos < lineEnd && !isSpace(buffer.get(pos))) {
+			throw new ObjReaderException("Invalid element size.", lineInd);
+		}
+
+		if (faceSize == faceVertices.length) {
+			faceVertices = Arrays.copyOf(faceVertices, faceSize * 2);
+			faceTextures = Arrays.copyOf(faceTextures, faceSize * 2);
+			faceNormals = Arrays.copyOf(faceNormals, faceSize * 2);
+		}
+		faceVertices[faceSize] = vertexIndex;
+		faceTextures[faceSize] = textureIndex;
+		faceNormals[faceSize] = normalIndex;
+		faceSize++;
+	}
+
+	// Индексы OBJ начинаются с 1, отрицательные считаются от конца уже прочитанных элементов.
+	// Ссылаться можно только на элементы, прочитанные до этой строки
+	private int resolveIndex(int index, int count, int corner, int component) {
+		if (index == 0) {
+			throw new ObjReaderException("Invalid index 0.", lineInd);
+		}
+		int resolved = index > 0 ? index - 1 : count + index;
+		if (!deferRelativeIndices) {
+			if (resolved < 0 || resolved >= count) {
+				throw new ObjReaderException(outOfRangeMessage(component), lineInd);
+			}
+			return resolved;
+		}
+
+		if (index < 0) {
+			if (relativeCornerCount == relativeCorners.length) {
+				relativeCorners = Arrays.copyOf(relativeCorners, Math.max(16, relativeCornerCount * 2));
+			}
+			relativeCorners[relativeCornerCount++] = corner * 3 + component;
+		}
+		// Индекс верен, если deficit не больше числа элементов в предыдущих частях
+		int deficit = index > 0 ? index - count : -resolved;
+		int records = outOfRangeCounts[component];
+		if (deficit > 0 && (records == 0 || deficit > outOfRangeDeficits[component][records - 1])) {
+			if (records == outOfRangeDeficits[component].length) {
+				outOfRangeDeficits[component] = Arrays.copyOf(outOfRangeDeficits[component], Math.max(4, records * 2));
+				outOfRangeLines[component] = Arrays.copyOf(outOfRangeLines[component], Math.max(4, records * 2));
+			}
+			outOfRangeDeficits[component][records] = deficit;
+			outOfRangeLines[component][records] = lineInd;
+			outOfRangeCounts[component]++;
+		}
+		return resolved;
+	}
+
+	private int nextInt() {
+		boolean negative = false;
+		if (pos < lineEnd && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+			negative = buffer.get(pos) == '-';
+			pos++;
+		}
+
+		int digitsStart = pos;
+		long value = 0;
+		while (pos < lineEnd) {
+			int digit = buffer.get(pos) - '0';
+			if (digit < 0 || digit > 9) {
+				break;
+			}
+			value = value * 10 + digit;
+			if (value > Integer.MAX_VALUE) {
+				throw new ObjReaderException("Failed to parse int value.", lineInd);
+			}
+			pos++;
+		}
+		if (pos == digitsStart) {
+			throw new ObjReaderException("Failed to parse int value.", lineInd);
+		}
+		return (int) (negative ? -value : value);
+	}
+
+	private float nextFloat(String missingMessage) {
+		skipSpaces();
+		if (atTokenEnd()) {
+			throw new ObjReaderException(missingMessage, lineInd);
+		}
+		int start = pos;
+		skipToken();
+		return parseFloat(start, pos);
+	}
+
+	/**
+	 * Разбирает десятичное число вида [+-]digits[.digits][(e|E)[+-]digits].
+	 * Результат всегда совпадает с Float.parseFloat. Редкие формы (nan, inf, длинные мантиссы, большие порядки)
+	 * и числа, которые нельзя верно округлить через double, отдаются Float.parseFloat.
+	 */
+	private float parseFloat(int start, int end) {
+		int i = start;
+		boolean negative = false;
+		byte c = buffer.get(i);
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int significantDigits = 0;
+		int exponent = 0;
+		boolean hasDigits = false;
+
+		while (i < end && isDigit(c = buffer.get(i))) {
+			hasDigits = true;
+			if (significantDigits < MAX_MANTISSA_DIGITS) {
+				mantissa = mantissa * 10 + (c - '0');
+				if (mantissa != 0) {
+					significantDigits++;
+				}
+			} else {
+				exponent++;
+			}
+			i++;
+		}
+		if (i < end && buffer.get(i) == '.') {
+			i++;
+			while (i < end && isDigit(c = buffer.get(i))) {
+				hasDigits = true;
+				if (significantDigits < MAX_MANTISSA_DIGITS) {
+					mantissa = mantissa * 10 + (c - '0');
+					if (mantissa != 0) {
+						significantDigits++;
+					}
+					exponent--;
+				}
+				i++;
+			}
+		}
+		if (!hasDigits) {
+			return parseFloatSlow(start, end);
+		}
+
+		if (i < end && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+				negativeExponent = buffer.get(i) == '-';
+				i++;
+			}
+			int exponentStart = i;
+			int explicitExponent = 0;
+			while (i < end && isDigit(c = buffer.get(i))) {
+				if (explicitExponent < 10000) {
+					explicitExponent = explicitExponent * 10 + (c - '0');
+				}
+				i++;
+			}
+			if (i == exponentStart) {
+				return parseFloatSlow(start, end);
+			}
+			exponent += negativeExponent ? -explicitExponent : explicitExponent;
+		}
+		if (i != end) {
+			return parseFloatSlow(start, end);
+		}
+
+		float value = decimalToFloat(mantissa, exponent);
+		if (Float.isNaN(value)) {
+			return parseFloatSlow(start, end);
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * mantissa * 10^exponent быстрыми путями разбора или NaN, если нужен Float.parseFloat.
+	 * Этим же методом {@link ObjWriter} проверяет, что записанное число прочитается обратно без изменений.
+	 */
+	static float decimalToFloat(long mantissa, int exponent) {
+		if (mantissa == 0) {
+			return 0;
+		}
+		if (mantissa < (1L << 24) && exponent >= -10 && exponent <= 10) {
+			// И мантисса, и степень десяти точно представимы во float - одна операция даёт верное округление
+			return exponent < 0
+					? mantissa / FLOAT_POWERS_OF_TEN[-exponent]
+					: mantissa * FLOAT_POWERS_OF_TEN[exponent];
+		}
+		if (mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+			double value = exponent < 0
+					? mantissa / DOUBLE_POWERS_OF_TEN[-exponent]
+					: mantissa * DOUBLE_POWERS_OF_TEN[exponent];
+			// Округление дважды (до double, затем до float) ошибается, только если double попал ровно
+			// в середину между соседними float: тогда неизвестно, с какой стороны было точное значение
+			float rounded = (float) value;
+			if (rounded != value) {
+				float other = value > rounded ? Math.nextUp(rounded) : Math.nextDown(rounded);
+				if (value == ((double) rounded + other) / 2) {
+					return Float.NaN;
+				}
+			}
+			return rounded;
+		}
+		return Float.NaN;
+	}
+
+	private float parseFloatSlow(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		buffer.get(start, bytes);
+		try {
+			return Float.parseFloat(new String(bytes, StandardCharsets.US_ASCII));
+		} catch (NumberFormatException e) {
+			throw new ObjReaderException("Failed to parse float value.", lineInd);
+		}
+	}
+
+	private boolean hasBom(int start, int limit) {
+		if (limit - start < BOM.length) {
+			return false;
+		}
+		for (int i = 0; i < BOM.length; i++) {
+			if (buffer.get(start + i) != BOM[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Конец строки или начало комментария
+	private boolean atTokenEnd() {
+		return pos >= lineEnd || buffer.get(pos) == '#';
+	}
+
+	private void skipSpaces() {
+		while (pos < lineEnd && isSpace(buffer.get(pos))) {
+			pos++;
+		}
+	}
+
+	private void skipToken() {
+		while (pos < lineEnd && !isSpace(buffer.get(pos))) {
+			pos++;
+		}
+	}
+
+	private static boolean isSpace(byte c) {
+		return c == ' ' || c == '\t' || c == '\r' || c == '\f' || c == 0x0B;
+	}
+
+	private static boolean isDigit(byte c) {
+		return c >= '0' && c <= '9';
+	}
+}
@@ -1,155 +1,426 @@
 package com.cgvsu.objreader;
 
-import com.cgvsu.math.vector.*;
 import com.cgvsu.model.Model;
-import com.cgvsu.model.Polygon;
+import com.cgvsu.utils.Triangulator;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
-import java.util.Scanner;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BooleanSupplier;
+import java.util.zip.GZIPInputStream;
 
 public class ObjReader {
 
-	private static final String OBJ_VERTEX_TOKEN = "v";
-	private static final String OBJ_TEXTURE_TOKEN = "vt";
-	private static final String OBJ_NORMAL_TOKEN = "vn";
-	private static final String OBJ_FACE_TOKEN = "f";
+	// Файл отображается в память окнами: одно отображение в Java ограничено 2 ГБ
+	private static final long MAP_WINDOW_SIZE = 256L * 1024 * 1024;
+
+	// Границы размера части при параллельном чтении: мельче - дороже слияние, крупнее - хуже делится работа
+	private static final long MIN_CHUNK_SIZE = 4L * 1024 * 1024;
+	private static final long MAX_CHUNK_SIZE = 64L * 1024 * 1024;
+	private static final int LINE_SEARCH_BUFFER_SIZE = 4096;
+
+	// Буфер потокового чтения; растёт, только если в него не помещается одна строка
+	private static final int STREAM_BUFFER_SIZE = 1024 * 1024;
+	private static final String GZIP_SUFFIX = ".gz";
+
+	private static final BooleanSupplier NEVER_CANCELLED = () -> false;
 
 	public static Model read(String fileContent) {
 		Model result = new Model();
+		ObjBufferParser parser = new ObjBufferParser(result);
+		parser.parse(ByteBuffer.wrap(fileContent.getBytes(StandardCharsets.UTF_8)), true);
+		return finish(result);
+	}
+
+	/**
+	 * Читает модель прямо из файла: файл отображается в память, и байты разбираются без промежуточной строки.
+	 * Файлы .gz распаковываются на лету, см. {@link #read(InputStream)}.
+	 */
+	public static Model read(Path path) throws IOException {
+		return read(path, false);
+	}
 
-		int lineInd = 0;
-		Scanner scanner = new Scanner(fileContent);
-		while (scanner.hasNextLine()) {
-			final String line = scanner.nextLine();
-			ArrayList<String> wordsInLine = new ArrayList<String>(Arrays.asList(line.split("\\s+")));
-			if (wordsInLine.isEmpty()) {
-				continue;
-			}
-
-			final String token = wordsInLine.get(0);
-			wordsInLine.remove(0);
-
-			++lineInd;
-			switch (token) {
-				// Для структур типа вершин методы написаны так, чтобы ничего не знать о внешней среде.
-				// Они принимают только то, что им нужно для работы, а возвращают только то, что могут создать.
-				// Исключение - индекс строки. Он прокидывается, чтобы выводить сообщение об ошибке.
-				// Могло быть иначе. Например, метод parseVertex мог вместо возвращения вершины принимать вектор вершин
-				// модели или сам класс модели, работать с ним.
-				// Но такой подход может привести к большему количеству ошибок в коде. Например, в нем что-то может
-				// тайно сделаться с классом модели.
-				// А еще это портит читаемость
-				// И не стоит забывать про тесты. Чем проще вам задать данные для теста, проверить, что метод рабочий,
-				// тем лучше.
-				case OBJ_VERTEX_TOKEN -> result.vertices.add(parseVertex(wordsInLine, lineInd));
-				case OBJ_TEXTURE_TOKEN -> result.textureVertices.add(parseTextureVertex(wordsInLine, lineInd));
-				case OBJ_NORMAL_TOKEN -> result.normals.add(parseNormal(wordsInLine, lineInd));
-				case OBJ_FACE_TOKEN -> result.polygons.add(parseFace(wordsInLine, lineInd));
-				default -> {}
+	/**
+	 * @param triangulate резать грани на треугольники прямо при разборе: выпуклые веером, невыпуклые
+	 *                    отсечением ушей, см. {@link Triangulator}. Модели не нужен отдельный проход триангуляции
+	 */
+	public static Model read(Path path, boolean triangulate) throws IOException {
+		return read(path, triangulate, NEVER_CANCELLED);
+	}
+
+	/**
+	 * Чтение с возможностью отмены: cancelled проверяется перед каждым окном файла и по ходу разбора,
+	 * и если оно вернуло true, чтение прерывается с {@link CancellationException}.
+	 * Прерывание потока тоже считается отменой.
+	 */
+	public static Model read(Path path, boolean triangulate, BooleanSupplier cancelled) throws IOException {
+		if (isGzip(path)) {
+			try (InputStream in = Files.newInputStream(path)) {
+				return readChannel(gunzipIfNeeded(in), triangulate, cancelled);
+			} catch (ClosedByInterruptException e) {
+				throw cancellation(e);
 			}
 		}
 
-		return result;
+		Model result = new Model();
+		ObjBufferParser parser = new ObjBufferParser(result, false, triangulate);
+		parser.setCancellation(cancelled);
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long position = 0;
+			while (position < size) {
+				checkCancelled(cancelled);
+				long length = Math.min(MAP_WINDOW_SIZE, size - position);
+				boolean last = position + length == size;
+				MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				parser.parse(window, last);
+
+				// Незаконченная строка в конце окна будет разобрана со следующим окном
+				if (window.position() == 0 && !last) {
+					throw new ObjReaderException("Line is too long.", parser.getLineInd() + 1);
+				}
+				position += window.position();
+			}
+		} catch (ClosedByInterruptException e) {
+			throw cancellation(e);
+		}
+		return finish(result);
+	}
+
+	/**
+	 * Потоковое чтение: данные разбираются по мере поступления, и в памяти одновременно лежат только
+	 * буфер чтения и уже прочитанная часть модели. Поток, сжатый gzip, распознаётся по сигнатуре
+	 * и распаковывается на лету. Поток не закрывается.
+	 */
+	public static Model read(InputStream in) throws IOException {
+		return read(in, false);
 	}
 
-	// Всем методам кроме основного я поставил модификатор доступа protected, чтобы обращаться к ним в тестах
-	protected static Vector3f parseVertex(final ArrayList<String> wordsInLineWithoutToken, int lineInd) {
-		try {
-			return new Vector3f(
-					Float.parseFloat(wordsInLineWithoutToken.get(0)),
-					Float.parseFloat(wordsInLineWithoutToken.get(1)),
-					Float.parseFloat(wordsInLineWithoutToken.get(2)));
+	public static Model read(InputStream in, boolean triangulate) throws IOException {
+		return readChannel(gunzipIfNeeded(in), triangulate, NEVER_CANCELLED);
+	}
 
-		} catch(NumberFormatException e) {
-			throw new ObjReaderException("Failed to parse float value.", lineInd);
+	// Сжатый gzip поток распознаётся по сигнатуре
+	private static ReadableByteChannel gunzipIfNeeded(InputStream in) throws IOException {
+		PushbackInputStream pushback = new PushbackInputStream(in, 2);
+		int first = pushback.read();
+		int second = pushback.read();
+		if (second >= 0) {
+			pushback.unread(second);
+		}
+		if (first >= 0) {
+			pushback.unread(first);
+		}
 
-		} catch(IndexOutOfBoundsException e) {
-			throw new ObjReaderException("Too few vertex arguments.", lineInd);
+		InputStream source = pushback;
+		if (first == (GZIPInputStream.GZIP_MAGIC & 0xFF) && second == (GZIPInputStream.GZIP_MAGIC >>> 8)) {
+			source = new GZIPInputStream(pushback, STREAM_BUFFER_SIZE);
 		}
+		return Channels.newChannel(source);
 	}
 
-	protected static Vector2f parseTextureVertex(final ArrayList<String> wordsInLineWithoutToken, int lineInd) {
-		try {
-			return new Vector2f(
-					Float.parseFloat(wordsInLineWithoutToken.get(0)),
-					Float.parseFloat(wordsInLineWithoutToken.get(1)));
+	/**
+	 * Потоковое чтение из канала. В отличие от {@link #read(InputStream)}, байты канала разбираются как есть, без распаковки.
+	 */
+	public static Model read(ReadableByteChannel channel) throws IOException {
+		return read(channel, false);
+	}
 
-		} catch(NumberFormatException e) {
-			throw new ObjReaderException("Failed to parse float value.", lineInd);
+	public static Model read(ReadableByteChannel channel, boolean triangulate) throws IOException {
+		return readChannel(channel, triangulate, NEVER_CANCELLED);
+	}
+
+	private static Model readChannel(ReadableByteChannel channel, boolean triangulate, BooleanSupplier cancelled)
+			throws IOException {
+		Model result = new Model();
+		ObjBufferParser parser = new ObjBufferParser(result, false, triangulate);
+		parser.setCancellation(cancelled);
+
+		ByteBuffer buffer = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+		while (true) {
+			checkCancelled(cancelled);
+			boolean endOfInput = channel.read(buffer) < 0;
+			buffer.flip();
+			parser.parse(buffer, endOfInput);
+			if (endOfInput) {
+				break;
+			}
 
-		} catch(IndexOutOfBoundsException e) {
-			throw new ObjReaderException("Too few com.cgvsu.texture vertex arguments.", lineInd);
+			if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+				// Строка длиннее буфера - буфер растёт, пока она не поместится
+				ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+				larger.put(buffer);
+				buffer = larger;
+			} else {
+				// Незаконченная строка переносится в начало буфера и дочитывается следующим вызовом
+				buffer.compact();
+			}
 		}
+		return finish(result);
 	}
 
-	protected static Vector3f parseNormal(final ArrayList<String> wordsInLineWithoutToken, int lineInd) {
-		try {
-			return new Vector3f(
-					Float.parseFloat(wordsInLineWithoutToken.get(0)),
-					Float.parseFloat(wordsInLineWithoutToken.get(1)),
-					Float.parseFloat(wordsInLineWithoutToken.get(2)));
+	/**
+	 * Параллельное чтение большого файла. Файл режется по границам строк на части, части разбираются одновременно
+	 * в общем ForkJoinPool в собственные массивы и затем склеиваются по порядку. Результат тот же, что у
+	 * {@link #read(Path)}, включая номер строки в {@link ObjReaderException}. Небольшие файлы читаются в один поток.
+	 */
+	public static Model readParallel(Path path) throws IOException {
+		return readParallel(path, false);
+	}
 
-		} catch(NumberFormatException e) {
-			throw new ObjReaderException("Failed to parse float value.", lineInd);
+	/**
+	 * @param triangulate см. {@link #read(Path, boolean)}. Части файла не знают координат вершин из предыдущих
+	 *                    частей, поэтому треугольники из них не режутся, а оставшиеся многоугольники
+	 *                    триангулируются одним проходом после слияния
+	 */
+	public static Model readParallel(Path path, boolean triangulate) throws IOException {
+		return readParallel(path, triangulate, NEVER_CANCELLED);
+	}
 
-		} catch(IndexOutOfBoundsException e) {
-			throw new ObjReaderException("Too few normal arguments.", lineInd);
-		}
+	/**
+	 * Параллельное чтение с возможностью отмены, см. {@link #read(Path, boolean, BooleanSupplier)}.
+	 * Отмена проверяется и в каждой части, так что задачи в общем пуле тоже останавливаются.
+	 */
+	public static Model readParallel(Path path, boolean triangulate, BooleanSupplier cancelled) throws IOException {
+		return readParallel(path, triangulate, cancelled, ForkJoinPool.commonPool(), MIN_CHUNK_SIZE);
 	}
 
-	protected static Polygon parseFace(final ArrayList<String> wordsInLineWithoutToken, int lineInd) {
-		ArrayList<Integer> onePolygonVertexIndices = new ArrayList<Integer>();
-		ArrayList<Integer> onePolygonTextureVertexIndices = new ArrayList<Integer>();
-		ArrayList<Integer> onePolygonNormalIndices = new ArrayList<Integer>();
+	/**
+	 * Параллельное чтение в заданном пуле с заданным наименьшим размером части - чтобы в тестах
+	 * небольшой файл резался на много частей при любом числе ядер.
+	 */
+	protected static Model readParallel(Path path, boolean triangulate, BooleanSupplier cancelled,
+										ForkJoinPool pool, long minChunkSize) throws IOException {
+		if (isGzip(path)) {
+			// Сжатый файл нельзя разрезать на части без распаковки
+			return read(path, triangulate, cancelled);
+		}
+
+		int parallelism = pool.getParallelism();
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long chunkSize = Math.max(minChunkSize, Math.min(MAX_CHUNK_SIZE, size / (parallelism * 4L)));
+			if (parallelism < 2 || size < 2 * chunkSize) {
+				return read(path, triangulate, cancelled);
+			}
 
-		for (String s : wordsInLineWithoutToken) {
-			parseFaceWord(s, onePolygonVertexIndices, onePolygonTextureVertexIndices, onePolygonNormalIndices, lineInd);
+			long[] bounds = splitAtLines(channel, size, chunkSize);
+			ObjChunk[] chunks = new ObjChunk[bounds.length - 1];
+			try {
+				pool.invoke(new ChunkTask(channel, bounds, chunks, 0, chunks.length, cancelled));
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			checkCancelled(cancelled);
+			Model result = merge(chunks);
+			if (triangulate) {
+				result.polygons = Triangulator.triangulate(result.polygons, result.vertices);
+			}
+			return finish(result);
+		} catch (ClosedByInterruptException e) {
+			throw cancellation(e);
 		}
+	}
 
-		Polygon result = new Polygon();
-		result.setVertexIndices(onePolygonVertexIndices);
-		result.setTextureVertexIndices(onePolygonTextureVertexIndices);
-		result.setNormalIndices(onePolygonNormalIndices);
-		return result;
+	private static void checkCancelled(BooleanSupplier cancelled) {
+		if (cancelled.getAsBoolean() || Thread.currentThread().isInterrupted()) {
+			throw new CancellationException();
+		}
 	}
 
-	// Обратите внимание, что для чтения полигонов я выделил еще один вспомогательный метод.
-	// Это бывает очень полезно и с точки зрения структурирования алгоритма в голове, и с точки зрения тестирования.
-	// В радикальных случаях не бойтесь выносить в отдельные методы и тестировать код из одной-двух строчек.
-	protected static void parseFaceWord(
-			String wordInLine,
-			ArrayList<Integer> onePolygonVertexIndices,
-			ArrayList<Integer> onePolygonTextureVertexIndices,
-			ArrayList<Integer> onePolygonNormalIndices,
-			int lineInd) {
-		try {
-			String[] wordIndices = wordInLine.split("/");
-			switch (wordIndices.length) {
-				case 1 -> {
-					onePolygonVertexIndices.add(Integer.parseInt(wordIndices[0]) - 1);
-				}
-				case 2 -> {
-					onePolygonVertexIndices.add(Integer.parseInt(wordIndices[0]) - 1);
-					onePolygonTextureVertexIndices.add(Integer.parseInt(wordIndices[1]) - 1);
-				}
-				case 3 -> {
-					onePolygonVertexIndices.add(Integer.parseInt(wordIndices[0]) - 1);
-					onePolygonNormalIndices.add(Integer.parseInt(wordIndices[2]) - 1);
-					if (!wordIndices[1].equals("")) {
-						onePolygonTextureVertexIndices.add(Integer.parseInt(wordIndices[1]) - 1);
-					}
+	// Канал закрыт прерыванием потока - для вызывающего это отмена, а не ошибка файла
+	private static CancellationException cancellation(ClosedByInterruptException e) {
+		CancellationException cancellation = new CancellationException("Чтение прервано");
+		cancellation.initCause(e);
+		return cancellation;
+	}
+
+	// Границы частей: примерно через chunkSize байт, каждая сдвинута на начало следующей строки
+	private static long[] splitAtLines(FileChannel channel, long size, long chunkSize) throws IOException {
+		long[] bounds = new long[(int) (size / chunkSize) + 2];
+		int count = 0;
+		bounds[count++] = 0;
+
+		ByteBuffer probe = ByteBuffer.allocate(LINE_SEARCH_BUFFER_SIZE);
+		long position = chunkSize;
+		while (position < size) {
+			long lineStart = findNextLineStart(channel, position, size, probe);
+			if (lineStart >= size) {
+				break;
+			}
+			bounds[count++] = lineStart;
+			position = lineStart + chunkSize;
+		}
+		bounds[count++] = size;
+		return Arrays.copyOf(bounds, count);
+	}
+
+	private static long findNextLineStart(FileChannel channel, long position, long size, ByteBuffer probe)
+			throws IOException {
+		while (position < size) {
+			probe.clear();
+			int read = channel.read(probe, position);
+			if (read <= 0) {
+				break;
+			}
+			for (int i = 0; i < read; i++) {
+				if (probe.get(i) == '\n') {
+					return position + i + 1;
 				}
-				default -> {
-					throw new ObjReaderException("Invalid element size.", lineInd);
+			}
+			position += read;
+		}
+		return size;
+	}
+
+	// Склейка частей по порядку. Отрицательные индексы граней сдвигаются на число элементов предыдущих частей.
+	// Ошибку первой по порядку части сообщаем с номером строки от начала файла, как при последовательном чтении
+	private static Model merge(ObjChunk[] chunks) {
+		int vertexCount = 0, textureVertexCount = 0, normalCount = 0, faceCount = 0, cornerCount = 0;
+		int lineBase = 0;
+		for (ObjChunk chunk : chunks) {
+			int[] bases = {vertexCount, textureVertexCount, normalCount};
+			ObjReaderException error = null;
+			for (int component = 0; component < bases.length; component++) {
+				int line = chunk.parser.firstOutOfRangeLine(component, bases[component]);
+				if (line >= 0 && (error == null || line < error.getLineInd())) {
+					error = new ObjReaderException(ObjBufferParser.outOfRangeMessage(component), line);
 				}
 			}
+			// Ошибка разбора останавливает часть, так что индекс на той же строке проверен раньше неё
+			if (chunk.error != null && (error == null || chunk.error.getLineInd() < error.getLineInd())) {
+				error = chunk.error;
+			}
+			if (error != null) {
+				throw new ObjReaderException(error.getErrorMessage(), lineBase + error.getLineInd());
+			}
+			lineBase += chunk.parser.getLineInd();
+			vertexCount += chunk.model.vertices.size();
+			textureVertexCount += chunk.model.textureVertices.size();
+			normalCount += chunk.model.normals.size();
+			faceCount += chunk.model.polygons.size();
+			cornerCount += chunk.model.polygons.getCornerCount();
+		}
+
+		Model result = new Model();
+		result.vertices.ensureCapacity(vertexCount);
+		result.textureVertices.ensureCapacity(textureVertexCount);
+		result.normals.ensureCapacity(normalCount);
+		result.polygons.ensureCapacity(faceCount, cornerCount);
+
+		for (int i = 0; i < chunks.length; i++) {
+			Model part = chunks[i].model;
+			int[] bases = {result.vertices.size(), result.textureVertices.size(), result.normals.size()};
+			int cornerBase = result.polygons.getCornerCount();
 
-		} catch(NumberFormatException e) {
-			throw new ObjReaderException("Failed to parse int value.", lineInd);
+			result.vertices.addAll(part.vertices);
+			result.textureVertices.addAll(part.textureVertices);
+			result.normals.addAll(part.normals);
+			result.polygons.addAll(part.polygons);
 
-		} catch(IndexOutOfBoundsException e) {
-			throw new ObjReaderException("Too few arguments.", lineInd);
+			int[] relativeCorners = chunks[i].parser.getRelativeCorners();
+			for (int j = 0; j < chunks[i].parser.getRelativeCornerCount(); j++) {
+				int corner = cornerBase + relativeCorners[j] / 3;
+				int component = relativeCorners[j] % 3;
+				int[] indices = switch (component) {
+					case ObjBufferParser.VERTEX_COMPONENT -> result.polygons.getVertexIndices();
+					case ObjBufferParser.TEXTURE_COMPONENT -> result.polygons.getTextureIndices();
+					default -> result.polygons.getNormalIndices();
+				};
+				indices[corner] += bases[component];
+			}
+
+			// Часть больше не нужна, её массивы можно собрать до конца слияния
+			chunks[i] = null;
+		}
+		return result;
+	}
+
+	private static boolean isGzip(Path path) {
+		Path fileName = path.getFileName();
+		return fileName != null && fileName.toString().toLowerCase().endsWith(GZIP_SUFFIX);
+	}
+
+	private static Model finish(Model result) {
+		// Массивы растут с запасом, после чтения он больше не нужен
+		result.vertices.trimToSize();
+		result.textureVertices.trimToSize();
+		result.normals.trimToSize();
+		result.polygons.trimToSize();
+		return result;
+	}
+
+	private static final class ObjChunk {
+		final Model model = new Model();
+		final ObjBufferParser parser = new ObjBufferParser(model, true, false);
+		ObjReaderException error;
+
+		ObjChunk(BooleanSupplier cancelled) {
+			parser.setCancellation(cancelled);
+		}
+	}
+
+	private static final class ChunkTask extends RecursiveAction {
+		private final FileChannel channel;
+		private final long[] bounds;
+		private final ObjChunk[] chunks;
+		private final int from;
+		private final int to;
+		private final BooleanSupplier cancelled;
+
+		ChunkTask(FileChannel channel, long[] bounds, ObjChunk[] chunks, int from, int to, BooleanSupplier cancelled) {
+			this.channel = channel;
+			this.bounds = bounds;
+			this.chunks = chunks;
+			this.from = from;
+			this.to = to;
+			this.cancelled = cancelled;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				chunks[from] = parseChunk(bounds[from], bounds[from + 1]);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(
+					new ChunkTask(channel, bounds, chunks, from, middle, cancelled),
+					new ChunkTask(channel, bounds, chunks, middle, to, cancelled));
+		}
+
+		private ObjChunk parseChunk(long start, long end) {
+			if (cancelled.getAsBoolean()) {
+				throw new CancellationException();
+			}
+			ObjChunk chunk = new ObjChunk(cancelled);
+			try {
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+				chunk.parser.parse(buffer, true);
+			} catch (ObjReaderException e) {
+				// Номер строки здесь считается от начала части, исправим его при слиянии
+				chunk.error = e;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return chunk;
 		}
 	}
 }
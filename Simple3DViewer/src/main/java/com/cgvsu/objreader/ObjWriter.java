@@ -0,0 +1,412 @@
+package com.cgvsu.objreader;
+
+import com.cgvsu.math.matrix.Matrix4f;
+import com.cgvsu.model.Model;
+import com.cgvsu.model.PolygonArray;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Запись модели в OBJ. Текст собирается прямо в байтовый буфер и сбрасывается в канал по мере заполнения,
+ * так что память не зависит от размера модели.
+ * <p>
+ * Числа пишутся кратчайшей записью, которая читается {@link ObjReader} обратно в тот же float:
+ * запись модели и повторное чтение дают те же вершины бит в бит.
+ * <p>
+ * Запись читает только {@link Snapshot}. Чтобы писать в фоне, пока модель рисуется и правится,
+ * снимок нужно сделать копией в потоке, которому модель принадлежит, см. {@link Snapshot#copyOf}.
+ */
+public class ObjWriter {
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	// Запас места в буфере под строку вершины или один угол грани; длинные грани сбрасываются по частям
+	private static final int LINE_RESERVE = 256;
+
+	// 9 значащих цифр всегда достаточно, чтобы float прочитался обратно без изменений
+	private static final int MAX_FLOAT_DIGITS = 9;
+	private static final int MAX_PLAIN_INTEGER_DIGITS = 9;
+	private static final int MIN_PLAIN_EXPONENT = -5;
+
+	private static final double[] POWERS_OF_TEN = new double[2 * 64 + 1];
+
+	static {
+		for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = Math.pow(10, i - 64);
+		}
+	}
+
+	private final WritableByteChannel channel;
+	private final byte[] bytes = new byte[BUFFER_SIZE];
+	private final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+	private int position = 0;
+	// Цифры числа в обратном порядке
+	private final byte[] digits = new byte[20];
+
+	private ObjWriter(WritableByteChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Пишет исходные вершины модели со всеми индексами UV и нормалей. Вызывать в потоке, которому принадлежит модель.
+	 */
+	public static void write(Model model, Path path) throws IOException {
+		write(model, path, false, true, true);
+	}
+
+	/**
+	 * Запись без копирования массивов модели. Вызывать в потоке, которому принадлежит модель:
+	 * правка модели во время записи испортит файл.
+	 *
+	 * @param transformed     писать вершины с применённой трансформацией модели ({@link Model#verticesTransform})
+	 *                        и нормали, повёрнутые матрицей нормалей
+	 * @param writeTextures   писать UV и их индексы в гранях
+	 * @param writeNormals    писать нормали и их индексы в гранях
+	 */
+	public static void write(Model model, Path path, boolean transformed, boolean writeTextures, boolean writeNormals)
+			throws IOException {
+		write(Snapshot.view(model, transformed), path, writeTextures, writeNormals);
+	}
+
+	/**
+	 * Запись в произвольный канал. Канал не закрывается.
+	 */
+	public static void write(Model model, WritableByteChannel channel,
+							 boolean transformed, boolean writeTextures, boolean writeNormals) throws IOException {
+		write(Snapshot.view(model, transformed), channel, writeTextures, writeNormals);
+	}
+
+	/**
+	 * Запись снимка. Модель при этом не читается, так что снимок, сделанный {@link Snapshot#copyOf}, можно писать из любого потока.
+	 */
+	public static void write(Snapshot snapshot, Path path, boolean writeTextures, boolean writeNormals)
+			throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			write(snapshot, channel, writeTextures, writeNormals);
+		}
+	}
+
+	public static void write(Snapshot snapshot, WritableByteChannel channel, boolean writeTextures, boolean writeNormals)
+			throws IOException {
+		ObjWriter writer = new ObjWriter(channel);
+		writer.writeSnapshot(snapshot, writeTextures, writeNormals);
+		writer.flush();
+	}
+
+	private void writeSnapshot(Snapshot snapshot, boolean writeTextures, boolean writeNormals) throws IOException {
+		float[] vertices = snapshot.vertices;
+		for (int i = 0; i < snapshot.vertexCount * 3; i += 3) {
+			reserve(LINE_RESERVE);
+			putByte('v');
+			putFloat(vertices[i]);
+			putFloat(vertices[i + 1]);
+			putFloat(vertices[i + 2]);
+			putByte('\n');
+		}
+
+		if (writeTextures) {
+			float[] uvs = snapshot.textureVertices;
+			for (int i = 0; i < snapshot.textureVertexCount * 2; i += 2) {
+				reserve(LINE_RESERVE);
+				putByte('v');
+				putByte('t');
+				putFloat(uvs[i]);
+				putFloat(uvs[i + 1]);
+				putByte('\n');
+			}
+		}
+
+		if (writeNormals) {
+			writeNormals(snapshot);
+		}
+
+		writeFaces(snapshot.polygons, writeTextures, writeNormals);
+	}
+
+	private void writeNormals(Snapshot snapshot) throws IOException {
+		float[] normals = snapshot.normals;
+		Matrix4f m = snapshot.normalMatrix;
+		for (int i = 0; i < snapshot.normalCount * 3; i += 3) {
+			float x = normals[i], y = normals[i + 1], z = normals[i + 2];
+			if (m != null) {
+				float nx = m.get(0, 0) * x + m.get(0, 1) * y + m.get(0, 2) * z;
+				float ny = m.get(1, 0) * x + m.get(1, 1) * y + m.get(1, 2) * z;
+				float nz = m.get(2, 0) * x + m.get(2, 1) * y + m.get(2, 2) * z;
+				// Масштаб меняет длину нормали, в файл пишем единичную
+				float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+				if (length > 0) {
+					nx /= length;
+					ny /= length;
+					nz /= length;
+				}
+				x = nx;
+				y = ny;
+				z = nz;
+			}
+			reserve(LINE_RESERVE);
+			putByte('v');
+			putByte('n');
+			putFloat(x);
+			putFloat(y);
+			putFloat(z);
+			putByte('\n');
+		}
+	}
+
+	private void writeFaces(PolygonArray polygons, boolean writeTextures, boolean writeNormals) throws IOException {
+		int[] vertexIndices = polygons.getVertexIndices();
+		int[] textureIndices = polygons.getTextureIndices();
+		int[] normalIndices = polygons.getNormalIndices();
+
+		for (int face = 0; face < polygons.size(); face++) {
+			int start = polygons.getFaceStart(face);
+			int end = start + polygons.getFaceSize(face);
+			// Формат углов внутри грани должен быть одинаковым, поэтому индексы пишутся, только если они есть у всех углов
+			boolean textures = writeTextures && polygons.hasTextureIndices(face);
+			boolean normals = writeNormals && polygons.hasNormalIndices(face);
+
+			reserve(LINE_RESERVE);
+			putByte('f');
+			for (int corner = start; corner < end; corner++) {
+				reserve(LINE_RESERVE);
+				putByte(' ');
+				putInt(vertexIndices[corner] + 1);
+				if (textures || normals) {
+					putByte('/');
+					if (textures) {
+						putInt(textureIndices[corner] + 1);
+					}
+					if (normals) {
+						putByte('/');
+						putInt(normalIndices[corner] + 1);
+					}
+				}
+			}
+			putByte('\n');
+		}
+	}
+
+	// ========== ФОРМАТИРОВАНИЕ ==========
+
+	/**
+	 * Пробел и число. Ищется самая короткая десятичная запись (до 9 значащих цифр), которая при чтении
+	 * {@link ObjBufferParser} даёт ровно это же значение.
+	 */
+	private void putFloat(float value) {
+		putByte(' ');
+		if (Float.isNaN(value) || Float.isInfinite(value)) {
+			putAscii(Float.toString(value));
+			return;
+		}
+		if (Float.floatToRawIntBits(value) < 0) {
+			putByte('-');
+			value = -value;
+		}
+		if (value == 0) {
+			putByte('0');
+			return;
+		}
+
+		int exponent10 = (int) Math.floor(Math.log10(value));
+		for (int precision = 1; precision <= MAX_FLOAT_DIGITS; precision++) {
+			int exponent = exponent10 - precision + 1;
+			if (exponent < -64 || exponent > 64) {
+				break;
+			}
+			long mantissa = Math.round(value / POWERS_OF_TEN[exponent + 64]);
+			// Убираем нули в конце: 1.50 и 1.5 - одно и то же, а короче вторая запись
+			while (mantissa != 0 && mantissa % 10 == 0) {
+				mantissa /= 10;
+				exponent++;
+			}
+			if (mantissa != 0 && readsBackAs(mantissa, exponent, value)) {
+				putDecimal(mantissa, exponent);
+				return;
+			}
+		}
+
+		// Сюда попадают только значения на краях диапазона float: запись double всегда читается обратно точно
+		putAscii(Double.toString(value));
+	}
+
+	// Что увидит при чтении ObjBufferParser: целая запись без точки читается как мантисса с нулевым порядком
+	private static boolean readsBackAs(long mantissa, int exponent, float value) {
+		int digitCount = countDigits(mantissa);
+		if (exponent >= 0 && digitCount + exponent <= MAX_PLAIN_INTEGER_DIGITS) {
+			for (int i = 0; i < exponent; i++) {
+				mantissa *= 10;
+			}
+			exponent = 0;
+		}
+		float read = ObjBufferParser.decimalToFloat(mantissa, exponent);
+		if (Float.isNaN(read)) {
+			read = Float.parseFloat(mantissa + "E" + exponent);
+		}
+		return read == value;
+	}
+
+	// Обычная запись для не слишком больших и маленьких чисел, иначе экспоненциальная
+	private void putDecimal(long mantissa, int exponent) {
+		int digitCount = 0;
+		for (long rest = mantissa; rest != 0; rest /= 10) {
+			digits[digitCount++] = (byte) ('0' + rest % 10);
+		}
+		int pointPosition = digitCount + exponent;
+
+		if (exponent >= 0 && pointPosition <= MAX_PLAIN_INTEGER_DIGITS) {
+			putDigits(digitCount, 0);
+			for (int i = 0; i < exponent; i++) {
+				putByte('0');
+			}
+		} else if (exponent < 0 && pointPosition > 0) {
+			putDigits(digitCount, digitCount - pointPosition);
+			putByte('.');
+			putDigits(digitCount - pointPosition, 0);
+		} else if (exponent < 0 && pointPosition > MIN_PLAIN_EXPONENT) {
+			putByte('0');
+			putByte('.');
+			for (int i = pointPosition; i < 0; i++) {
+				putByte('0');
+			}
+			putDigits(digitCount, 0);
+		} else {
+			putDigits(digitCount, digitCount - 1);
+			if (digitCount > 1) {
+				putByte('.');
+				putDigits(digitCount - 1, 0);
+			}
+			putByte('e');
+			putInt(pointPosition - 1);
+		}
+	}
+
+	// Цифры digits[from - 1] ... digits[to] (массив хранит их в обратном порядке)
+	private void putDigits(int from, int to) {
+		for (int i = from - 1; i >= to; i--) {
+			bytes[position++] = digits[i];
+		}
+	}
+
+	private void putInt(int value) {
+		if (value < 0) {
+			putByte('-');
+			value = -value;
+		}
+		int count = 0;
+		do {
+			digits[count++] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+		putDigits(count, 0);
+	}
+
+	private static int countDigits(long value) {
+		int count = 0;
+		for (; value != 0; value /= 10) {
+			count++;
+		}
+		return count;
+	}
+
+	private void putAscii(String text) {
+		byte[] ascii = text.getBytes(StandardCharsets.US_ASCII);
+		System.arraycopy(ascii, 0, bytes, position, ascii.length);
+		position += ascii.length;
+	}
+
+	private void putByte(char c) {
+		bytes[position++] = (byte) c;
+	}
+
+	// ========== БУФЕР ==========
+
+	private void reserve(int count) throws IOException {
+		if (position + count > bytes.length) {
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.clear();
+		buffer.limit(position);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		position = 0;
+	}
+
+	/**
+	 * Сетка для записи: вершины (исходные или с применённой трансформацией), UV, нормали с матрицей,
+	 * которой их повернуть, и грани.
+	 */
+	public static final class Snapshot {
+		private final float[] vertices;
+		private final int vertexCount;
+		private final float[] textureVertices;
+		private final int textureVertexCount;
+		private final float[] normals;
+		private final int normalCount;
+		// null - нормали пишутся как есть
+		private final Matrix4f normalMatrix;
+		private final PolygonArray polygons;
+
+		private Snapshot(float[] vertices, int vertexCount, float[] textureVertices, int textureVertexCount,
+						 float[] normals, int normalCount, Matrix4f normalMatrix, PolygonArray polygons) {
+			this.vertices = vertices;
+			this.vertexCount = vertexCount;
+			this.textureVertices = textureVertices;
+			this.textureVertexCount = textureVertexCount;
+			this.normals = normals;
+			this.normalCount = normalCount;
+			this.normalMatrix = normalMatrix;
+			this.polygons = polygons;
+		}
+
+		/**
+		 * Копия сетки модели. Вызывать в потоке, которому принадлежит модель (в интерфейсе - поток JavaFX);
+		 * дальше модель можно рисовать и править, а снимок писать в фоне.
+		 *
+		 * @param transformed вершины с применённой трансформацией и нормали, повёрнутые матрицей нормалей
+		 */
+		public static Snapshot copyOf(Model model, boolean transformed) {
+			Snapshot view = view(model, transformed);
+			PolygonArray polygons = view.polygons;
+			int cornerCount = polygons.getCornerCount();
+			int[] offsets = polygons.getOffsets();
+			return new Snapshot(
+					Arrays.copyOf(view.vertices, view.vertexCount * 3), view.vertexCount,
+					Arrays.copyOf(view.textureVertices, view.textureVertexCount * 2), view.textureVertexCount,
+					Arrays.copyOf(view.normals, view.normalCount * 3), view.normalCount,
+					view.normalMatrix != null ? new Matrix4f(view.normalMatrix) : null,
+					new PolygonArray(
+							offsets != null ? Arrays.copyOf(offsets, polygons.size() + 1) : null, polygons.size(),
+							Arrays.copyOf(polygons.getVertexIndices(), cornerCount),
+							Arrays.copyOf(polygons.getTextureIndices(), cornerCount),
+							Arrays.copyOf(polygons.getNormalIndices(), cornerCount),
+							cornerCount));
+		}
+
+		// Массивы самой модели, без копирования
+		private static Snapshot view(Model model, boolean transformed) {
+			float[] vertices;
+			if (transformed) {
+				model.applyTransform();
+				vertices = model.verticesTransform.getData();
+			} else {
+				vertices = model.vertices.getData();
+			}
+			return new Snapshot(vertices, model.vertices.size(),
+					model.textureVertices.getData(), model.textureVertices.size(),
+					model.normals.getData(), model.normals.size(),
+					transformed ? model.transform.getNormalMatrix() : null,
+					model.polygons);
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package com.cgvsu.render_engine;
+
+/**
+ * Отсечение треугольников в однородных координатах clip space до перспективного деления.
+ * <p>
+ * По ближней и дальней плоскостям отсечение честное. Боковые стороны отсекаются только по расширенной
+ * полосе (guard band): треугольник, немного выходящий за экран, растеризатор обрежет сам, а отсекать
+ * приходится лишь то, что вылезает настолько далеко, что экранные координаты стали бы огромными.
+ * Каждая вершина результата хранит барицентрические веса относительно исходного треугольника,
+ * через них интерполируются атрибуты. Экземпляр не потокобезопасен.
+ */
+public class Clipper {
+
+    // Полуширина полосы в единицах NDC: экранные координаты остаются в пределах точности растеризатора
+    public static final float GUARD_BAND = 64.0F;
+
+    public static final int OUTSIDE_LEFT = 1;
+    public static final int OUTSIDE_RIGHT = 1 << 1;
+    public static final int OUTSIDE_BOTTOM = 1 << 2;
+    public static final int OUTSIDE_TOP = 1 << 3;
+    public static final int OUTSIDE_NEAR = 1 << 4;
+    public static final int OUTSIDE_FAR = 1 << 5;
+    public static final int OUTSIDE_GUARD_LEFT = 1 << 6;
+    public static final int OUTSIDE_GUARD_RIGHT = 1 << 7;
+    public static final int OUTSIDE_GUARD_BOTTOM = 1 << 8;
+    public static final int OUTSIDE_GUARD_TOP = 1 << 9;
+
+    // Если все вершины снаружи одной из этих плоскостей, треугольник невидим
+    public static final int FRUSTUM_MASK = OUTSIDE_LEFT | OUTSIDE_RIGHT | OUTSIDE_BOTTOM | OUTSIDE_TOP
+            | OUTSIDE_NEAR | OUTSIDE_FAR;
+    // Плоскости, по которым действительно приходится резать
+    public static final int CLIP_MASK = OUTSIDE_NEAR | OUTSIDE_FAR
+            | OUTSIDE_GUARD_LEFT | OUTSIDE_GUARD_RIGHT | OUTSIDE_GUARD_BOTTOM | OUTSIDE_GUARD_TOP;
+
+    // Каждая плоскость добавляет не больше одной вершины
+    public static final int MAX_VERTICES = 3 + 6;
+
+    // На вершину: x, y, z, w и три барицентрических веса
+    private static final int STRIDE = 7;
+
+    private float[] input = new float[MAX_VERTICES * STRIDE];
+    private float[] output = new float[MAX_VERTICES * STRIDE];
+    private int vertexCount;
+
+    private final float[] screen = new float[MAX_VERTICES * 3];
+
+    private float lineStart;
+    private float lineEnd;
+
+    public static int outcode(float x, float y, float z, float w) {
+        int code = 0;
+        if (x < -w) code |= OUTSIDE_LEFT;
+        if (x > w) code |= OUTSIDE_RIGHT;
+        if (y < -w) code |= OUTSIDE_BOTTOM;
+        if (y > w) code |= OUTSIDE_TOP;
+        if (z < -w) code |= OUTSIDE_NEAR;
+        if (z > w) code |= OUTSIDE_FAR;
+
+        float guard = GUARD_BAND * w;
+        if (x < -guard) code |= OUTSIDE_GUARD_LEFT;
+        if (x > guard) code |= OUTSIDE_GUARD_RIGHT;
+        if (y < -guard) code |= OUTSIDE_GUARD_BOTTOM;
+        if (y > guard) code |= OUTSIDE_GUARD_TOP;
+        return code;
+    }
+
+    /**
+     * Отсекает треугольник по плоскостям из planes (биты OUTSIDE_*) и переводит результат на экран.
+     *
+     * @param clip вершины в clip space, по 4 числа на вершину
+     * @return число вершин выпуклого многоугольника, 0 если от треугольника ничего не осталось
+     */
+    public int clipTriangle(float[] clip, int i1, int i2, int i3, int planes, int width, int height) {
+        vertexCount = 3;
+        load(0, clip, i1, 1, 0, 0);
+        load(1, clip, i2, 0, 1, 0);
+        load(2, clip, i3, 0, 0, 1);
+
+        for (int plane = OUTSIDE_NEAR; plane <= OUTSIDE_GUARD_TOP && vertexCount > 0; plane <<= 1) {
+            if ((planes & plane) != 0) {
+                clipAgainst(plane);
+            }
+        }
+
+        if (vertexCount < 3) {
+            vertexCount = 0;
+            return 0;
+        }
+
+        float halfWidth = width / 2.0F;
+        float halfHeight = height / 2.0F;
+        for (int k = 0; k < vertexCount; k++) {
+            int v = k * STRIDE;
+            float w = input[v + 3];
+            screen[k * 3] = (input[v] / w) * halfWidth + halfWidth;
+            screen[k * 3 + 1] = -(input[v + 1] / w) * halfHeight + halfHeight;
+            screen[k * 3 + 2] = input[v + 2] / w;
+        }
+        return vertexCount;
+    }
+
+    public float getScreenX(int vertex) {
+        return screen[vertex * 3];
+    }
+
+    public float getScreenY(int vertex) {
+        return screen[vertex * 3 + 1];
+    }
+
+    public float getScreenZ(int vertex) {
+        return screen[vertex * 3 + 2];
+    }
+
+    /**
+     * Вес исходной вершины corner (0..2) в вершине результата.
+     */
+    public float getWeight(int vertex, int corner) {
+        return input[vertex * STRIDE + 4 + corner];
+    }
+
+    /**
+     * Значение атрибута в вершине результата по значениям в трёх исходных вершинах.
+     */
+    public float interpolate(int vertex, float a0, float a1, float a2) {
+        int v = vertex * STRIDE;
+        return input[v + 4] * a0 + input[v + 5] * a1 + input[v + 6] * a2;
+    }
+
+    /**
+     * Площадь отсечённого многоугольника на экране в пикселях.
+     */
+    public float getScreenArea() {
+        float sum = 0;
+        for (int k = 0; k < vertexCount; k++) {
+            int a = k * 3;
+            int b = ((k + 1) % vertexCount) * 3;
+            sum += screen[a] * screen[b + 1] - screen[b] * screen[a + 1];
+        }
+        return Math.abs(sum) * 0.5f;
+    }
+
+    /**
+     * Какая доля исходного треугольника осталась после отсечения: площадь многоугольника
+     * в барицентрических координатах, отнесённая к площади треугольника.
+     */
+    public float getCoverage() {
+        float sum = 0;
+        for (int k = 0; k < vertexCount; k++) {
+            int a = k * STRIDE;
+            int b = ((k + 1) % vertexCount) * STRIDE;
+            sum += input[a + 5] * input[b + 6] - input[b + 5] * input[a + 6];
+        }
+        return Math.abs(sum);
+    }
+
+    /**
+     * Отсечение отрезка между двумя вершинами (для сетки). Параметры видимой части - в
+     * {@link #getLineStart()} и {@link #getLineEnd()}.
+     *
+     * @return false, если отрезок целиком отсечён
+     */
+    public boolean clipLine(float[] clip, int a, int b, int planes) {
+        lineStart = 0;
+        lineEnd = 1;
+        int va = a * 4;
+        int vb = b * 4;
+
+        for (int plane = OUTSIDE_NEAR; plane <= OUTSIDE_GUARD_TOP; plane <<= 1) {
+            if ((planes & plane) == 0) {
+                continue;
+            }
+            float da = distance(plane, clip[va], clip[va + 1], clip[va + 2], clip[va + 3]);
+            float db = distance(plane, clip[vb], clip[vb + 1], clip[vb + 2], clip[vb + 3]);
+            if (da < 0 && db < 0) {
+                return false;
+            }
+            if (da < 0) {
+                lineStart = Math.max(lineStart, da / (da - db));
+            } else if (db < 0) {
+                lineEnd = Math.min(lineEnd, da / (da - db));
+            }
+        }
+        return lineStart <= lineEnd;
+    }
+
+    public float getLineStart() {
+        return lineStart;
+    }
+
+    public float getLineEnd() {
+        return lineEnd;
+    }
+
+    private void load(int slot, float[] clip, int index, float b0, float b1, float b2) {
+        int v = slot * STRIDE;
+        int c = index * 4;
+        input[v] = clip[c];
+        input[v + 1] = clip[c + 1];
+        input[v + 2] = clip[c + 2];
+        input[v + 3] = clip[c + 3];
+        input[v + 4] = b0;
+        input[v + 5] = b1;
+        input[v + 6] = b2;
+    }
+
+    // Один проход Сазерленда-Ходжмана
+    private void clipAgainst(int plane) {
+        int outCount = 0;
+
+        for (int k = 0; k < vertexCount; k++) {
+            int current = k * STRIDE;
+            int next = ((k + 1) % vertexCount) * STRIDE;
+
+            float dc = distance(plane, input[current], input[current + 1], input[current + 2], input[current + 3]);
+            float dn = distance(plane, input[next], input[next + 1], input[next + 2], input[next + 3]);
+
+            if (dc >= 0) {
+                System.arraycopy(input, current, output, outCount * STRIDE, STRIDE);
+                outCount++;
+            }
+            if ((dc >= 0) != (dn >= 0)) {
+                float t = dc / (dc - dn);
+                int o = outCount * STRIDE;
+                for (int i = 0; i < STRIDE; i++) {
+                    output[o + i] = input[current + i] + t * (input[next + i] - input[current + i]);
+                }
+                outCount++;
+            }
+        }
+
+        float[] swap = input;
+        input = output;
+        output = swap;
+        vertexCount = outCount;
+    }
+
+    // Знаковое расстояние до плоскости: неотрицательно внутри
+    private static float distance(int plane, float x, float y, float z, float w) {
+        switch (plane) {
+            case OUTSIDE_NEAR: return z + w;
+            case OUTSIDE_FAR: return w - z;
+            case OUTSIDE_GUARD_LEFT: return x + GUARD_BAND * w;
+            case OUTSIDE_GUARD_RIGHT: return GUARD_BAND * w - x;
+            case OUTSIDE_GUARD_BOTTOM: return y + GUARD_BAND * w;
+            case OUTSIDE_GUARD_TOP: return GUARD_BAND * w - y;
+            default: throw new IllegalArgumentException("Unknown clip plane: " + plane);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.cgvsu.render_engine;
+
+/**
+ * Какие грани отбрасываются до растеризации. Лицевыми считаются грани,
+ * обход которых на экране идёт против часовой стрелки (соглашение OBJ).
+ */
+public enum CullMode {
+    /** Отбрасывать задние грани - для замкнутых моделей. */
+    BACK,
+    /** Отбрасывать лицевые грани. */
+    FRONT,
+    /** Рисовать обе стороны - для открытых поверхностей. */
+    NONE
+}
@@ -0,0 +1,362 @@
+package com.cgvsu.render_engine;
+
+import com.cgvsu.math.matrix.Matrix4f;
+import com.cgvsu.model.Model;
+import com.cgvsu.model.PolygonArray;
+import com.cgvsu.render_engine.shading.FragmentShader;
+import com.cgvsu.render_engine.shading.ShadingContext;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Отложенное затенение через буфер видимости.
+ * <p>
+ * Первый проход растеризует только глубину и номера (модель, треугольник). Второй проходит по пикселям экрана,
+ * восстанавливает барицентрические координаты по треугольнику и вызывает шейдер ровно один раз на пиксель,
+ * так что стоимость затенения зависит от разрешения, а не от числа перекрытий.
+ * <p>
+ * Если с прошлого кадра не изменились матрицы камеры (сравниваются по ссылке - камера пересоздаёт их при изменении),
+ * набор моделей и их {@link Model#getGeometryVersion() версии геометрии}, первый проход пропускается.
+ * Поэтому переключение освещения или текстуры перезапускает только затенение.
+ */
+public class DeferredRenderer {
+    // Меньше этого числа пикселей модели затеняются в одном потоке
+    private static final int CHUNK_SIZE = 4096;
+    // Номер треугольника передаётся двумя атрибутами по 12 бит, чтобы он точно пережил интерполяцию при отсечении
+    private static final int TRIANGLE_LOW_BITS = 12;
+
+    private final TriangleSetup triangleSetup = new TriangleSetup();
+    private final Matrix4f viewProjectionMatrix = new Matrix4f();
+    private final Matrix4f modelViewProjectionMatrix = new Matrix4f();
+    private final ThreadLocal<ShadingState> shadingStates = ThreadLocal.withInitial(ShadingState::new);
+
+    private VisibilityBuffer visibilityBuffer;
+
+    // Очередь текущего кадра
+    private Model[] models = new Model[8];
+    private VertexProcessor[] processors = new VertexProcessor[8];
+    private int modelCount;
+    private Camera camera;
+
+    // По какому состоянию построен буфер видимости
+    private Model[] builtModels = new Model[8];
+    private int[] builtVersions = new int[8];
+    private int builtModelCount;
+    private Matrix4f builtViewMatrix;
+    private Matrix4f builtProjectionMatrix;
+    private ZBuffer builtZBuffer;
+    private int culledTriangleCount;
+
+    // Индексы пикселей, упорядоченные по моделям, и границы групп
+    private int[] order = new int[0];
+    private int[] modelOffsets = new int[0];
+
+    public void begin() {
+        Arrays.fill(models, 0, modelCount, null);
+        modelCount = 0;
+    }
+
+    public void add(Model model, Camera camera) {
+        if (modelCount == models.length) {
+            models = Arrays.copyOf(models, modelCount * 2);
+            processors = Arrays.copyOf(processors, modelCount * 2);
+        }
+        if (processors[modelCount] == null) {
+            processors[modelCount] = new VertexProcessor();
+        }
+        models[modelCount++] = model;
+        this.camera = camera;
+    }
+
+    /**
+     * Сбросить буфер видимости, чтобы следующий кадр растеризовался заново.
+     */
+    public void invalidate() {
+        builtZBuffer = null;
+    }
+
+    /**
+     * Оба прохода для накопленных моделей. Пиксели без геометрии заливаются фоном.
+     *
+     * @param tileRenderer null - всё в текущем потоке
+     * @param renderQueue  порядок кластеров треугольников для прохода видимости; null - порядок файла
+     */
+    void resolve(ZBuffer zBuffer, FrameBuffer frameBuffer, TileRenderer tileRenderer,
+                 ShadingContext context, int background, RenderQueue renderQueue) {
+        int width = zBuffer.getWidth();
+        int height = zBuffer.getHeight();
+        if (visibilityBuffer == null || visibilityBuffer.getWidth() != width || visibilityBuffer.getHeight() != height) {
+            visibilityBuffer = new VisibilityBuffer(width, height);
+            builtZBuffer = null;
+        }
+
+        if (!isUpToDate(zBuffer)) {
+            rasterizeVisibility(zBuffer, tileRenderer, renderQueue);
+            remember(zBuffer);
+        }
+        shade(zBuffer, frameBuffer, tileRenderer, context, background);
+    }
+
+    public int getCulledTriangleCount() {
+        return culledTriangleCount;
+    }
+
+    int getModelCount() {
+        return modelCount;
+    }
+
+    Model getModel(int index) {
+        return models[index];
+    }
+
+    VertexProcessor getVertexProcessor(int index) {
+        return processors[index];
+    }
+
+    private boolean isUpToDate(ZBuffer zBuffer) {
+        if (builtZBuffer != zBuffer || camera == null
+                || builtViewMatrix != camera.getViewMatrix()
+                || builtProjectionMatrix != camera.getProjectionMatrix()
+                || builtModelCount != modelCount) {
+            return false;
+        }
+        for (int m = 0; m < modelCount; m++) {
+            if (builtModels[m] != models[m] || builtVersions[m] != models[m].getGeometryVersion()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void remember(ZBuffer zBuffer) {
+        if (builtModels.length < modelCount) {
+            builtModels = new Model[models.length];
+            builtVersions = new int[models.length];
+        }
+        Arrays.fill(builtModels, null);
+        for (int m = 0; m < modelCount; m++) {
+            builtModels[m] = models[m];
+            builtVersions[m] = models[m].getGeometryVersion();
+        }
+        builtModelCount = modelCount;
+        builtZBuffer = zBuffer;
+        if (camera != null) {
+            builtViewMatrix = camera.getViewMatrix();
+            builtProjectionMatrix = camera.getProjectionMatrix();
+        }
+    }
+
+    private void rasterizeVisibility(ZBuffer zBuffer, TileRenderer tileRenderer, RenderQueue renderQueue) {
+        zBuffer.clear();
+        visibilityBuffer.clear();
+        culledTriangleCount = 0;
+        if (modelCount == 0) {
+            return;
+        }
+
+        int width = zBuffer.getWidth();
+        int height = zBuffer.getHeight();
+        Matrix4f viewProjectionMatrix = Matrix4f.multiply(
+                camera.getProjectionMatrix(), camera.getViewMatrix(), this.viewProjectionMatrix);
+
+        for (int m = 0; m < modelCount; m++) {
+            Model model = models[m];
+            VertexProcessor processor = processors[m];
+            Matrix4f.multiply(viewProjectionMatrix, model.getModelMatrix(), modelViewProjectionMatrix);
+            processor.process(model.vertices.getData(), model.vertices.size(), modelViewProjectionMatrix, width, height);
+
+            if (tileRenderer != null) {
+                tileRenderer.begin(zBuffer);
+            }
+            triangleSetup.begin(processor, zBuffer, tileRenderer);
+            VisibilitySink sink = new VisibilitySink(visibilityBuffer, m);
+            CullMode cullMode = model.getCullMode();
+
+            PolygonArray polygons = model.polygons;
+            int[] vertexIndices = polygons.getVertexIndices();
+            int[] clusterOrder = renderQueue != null ? renderQueue.sortClusters(model, camera) : null;
+            int clusterCount = clusterOrder != null ? clusterOrder.length : 1;
+
+            for (int c = 0; c < clusterCount; c++) {
+                int from = clusterOrder != null ? clusterOrder[c] * RenderQueue.CLUSTER_SIZE : 0;
+                int to = clusterOrder != null
+                        ? Math.min(polygons.size(), from + RenderQueue.CLUSTER_SIZE) : polygons.size();
+
+                for (int t = from; t < to; t++) {
+                    if (polygons.getFaceSize(t) != 3) {
+                        continue;
+                    }
+                    int corner = polygons.getFaceStart(t);
+                    int i1 = vertexIndices[corner];
+                    int i2 = vertexIndices[corner + 1];
+                    int i3 = vertexIndices[corner + 2];
+
+                    if (processor.isCulled(cullMode, i1, i2, i3)) {
+                        culledTriangleCount++;
+                        continue;
+                    }
+                    if (processor.isOutsideFrustum(i1, i2, i3) || !triangleSetup.setup(i1, i2, i3)) {
+                        continue;
+                    }
+
+                    float high = t >>> TRIANGLE_LOW_BITS;
+                    float low = t & ((1 << TRIANGLE_LOW_BITS) - 1);
+                    triangleSetup.setAttribute(0, high, high, high);
+                    triangleSetup.setAttribute(1, low, low, low);
+                    triangleSetup.submit(sink);
+                }
+            }
+
+            if (tileRenderer != null) {
+                tileRenderer.end();
+            }
+        }
+    }
+
+    private void shade(ZBuffer zBuffer, FrameBuffer frameBuffer, TileRenderer tileRenderer,
+                       ShadingContext context, int background) {
+        int pixelCount = zBuffer.getWidth() * zBuffer.getHeight();
+        int[] pixels = frameBuffer.getPixels();
+
+        // Сортировка пикселей по моделям подсчётом; внутри модели пиксели остаются по строкам
+        if (modelOffsets.length < modelCount + 2) {
+            modelOffsets = new int[modelCount + 2];
+        }
+        Arrays.fill(modelOffsets, 0);
+        for (int i = 0; i < pixelCount; i++) {
+            int model = visibilityBuffer.getModel(i);
+            if (model == VisibilityBuffer.EMPTY || model >= modelCount) {
+                pixels[i] = background;
+            } else {
+                modelOffsets[model + 2]++;
+            }
+        }
+        for (int m = 2; m < modelCount + 2; m++) {
+            modelOffsets[m] += modelOffsets[m - 1];
+        }
+        if (order.length < pixelCount) {
+            order = new int[pixelCount];
+        }
+        for (int i = 0; i < pixelCount; i++) {
+            int model = visibilityBuffer.getModel(i);
+            if (model != VisibilityBuffer.EMPTY && model < modelCount) {
+                order[modelOffsets[model + 1]++] = i;
+            }
+        }
+
+        // Теперь modelOffsets[m] - начало группы модели m, modelOffsets[m + 1] - её конец
+        for (int m = 0; m < modelCount; m++) {
+            int from = modelOffsets[m];
+            int to = modelOffsets[m + 1];
+            if (from == to) {
+                continue;
+            }
+
+            Model model = models[m];
+            FragmentShader shader = RenderEngine.selectShader(model);
+            context.set(frameBuffer, camera, model);
+            shader.begin(context);
+
+            if (tileRenderer != null && to - from > CHUNK_SIZE) {
+                tileRenderer.getPool().invoke(new ShadeTask(zBuffer, frameBuffer, context, shader, m, from, to, background));
+            } else {
+                shadeRange(zBuffer, frameBuffer, context, shader, m, from, to, background);
+            }
+        }
+    }
+
+    private void shadeRange(ZBuffer zBuffer, FrameBuffer frameBuffer, ShadingContext context,
+                            FragmentShader shader, int modelIndex, int from, int to, int background) {
+        ShadingState state = shadingStates.get();
+        TriangleSetup setup = state.triangleSetup;
+        setup.begin(processors[modelIndex], zBuffer, null);
+
+        PolygonArray polygons = models[modelIndex].polygons;
+        int[] vertexIndices = polygons.getVertexIndices();
+        int width = zBuffer.getWidth();
+        int lastTriangle = -1;
+        boolean valid = false;
+
+        for (int k = from; k < to; k++) {
+            int index = order[k];
+            int x = index % width;
+            int y = index / width;
+
+            // Соседние пиксели строки почти всегда из того же треугольника
+            int triangle = visibilityBuffer.getTriangle(index);
+            if (triangle != lastTriangle) {
+                lastTriangle = triangle;
+                int corner = polygons.getFaceStart(triangle);
+                valid = setup.setup(vertexIndices[corner], vertexIndices[corner + 1], vertexIndices[corner + 2])
+                        && setup.prepareReconstruction();
+                if (valid) {
+                    shader.setupTriangle(context, triangle, setup);
+                }
+            }
+
+            if (!valid) {
+                frameBuffer.setArgb(x, y, background);
+                continue;
+            }
+            setup.interpolateAt(x, y, state.attributes);
+            shader.fragment(x, y, zBuffer.get(x, y), state.attributes);
+        }
+    }
+
+    private static final class ShadingState {
+        final TriangleSetup triangleSetup = new TriangleSetup();
+        final float[] attributes = new float[Rasterizer.MAX_ATTRIBUTES];
+    }
+
+    private static final class VisibilitySink implements Rasterizer.FragmentSink {
+        private final VisibilityBuffer buffer;
+        private final int model;
+
+        VisibilitySink(VisibilityBuffer buffer, int model) {
+            this.buffer = buffer;
+            this.model = model;
+        }
+
+        @Override
+        public void fragment(int x, int y, float z, float[] attributes) {
+            int triangle = (Math.round(attributes[0]) << TRIANGLE_LOW_BITS) | Math.round(attributes[1]);
+            buffer.set(x, y, model, triangle);
+        }
+    }
+
+    private class ShadeTask extends RecursiveAction {
+        private final ZBuffer zBuffer;
+        private final FrameBuffer frameBuffer;
+        private final ShadingContext context;
+        private final FragmentShader shader;
+        private final int modelIndex;
+        private final int from;
+        private final int to;
+        private final int background;
+
+        ShadeTask(ZBuffer zBuffer, FrameBuffer frameBuffer, ShadingContext context, FragmentShader shader,
+                  int modelIndex, int from, int to, int background) {
+            this.zBuffer = zBuffer;
+            this.frameBuffer = frameBuffer;
+            this.context = context;
+            this.shader = shader;
+            this.modelIndex = modelIndex;
+            this.from = from;
+            this.to = to;
+            this.background = background;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK_SIZE) {
+                shadeRange(zBuffer, frameBuffer, context, shader, modelIndex, from, to, background);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(
+                    new ShadeTask(zBuffer, frameBuffer, context, shader, modelIndex, from, middle, background),
+                    new ShadeTask(zBuffer, frameBuffer, context, shader, modelIndex, middle, to, background));
+        }
+    }
+}
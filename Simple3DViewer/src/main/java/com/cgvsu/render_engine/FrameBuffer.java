@@ -0,0 +1,190 @@
+package com.cgvsu.render_engine;
+
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Буфер цвета в формате int ARGB (premultiplied), по строкам.
+ * <p>
+ * Кадр рисуется в собственный массив, а показывается через отдельный {@link PixelBuffer}: JavaFX разрешает
+ * менять его содержимое только внутри {@link PixelBuffer#updateBuffer}, иначе Prism может выгрузить
+ * на экран наполовину перерисованный кадр. Поэтому готовый кадр копируется туда одним arraycopy в {@link #present()},
+ * а рисование идёт без оглядки на показ. Запись в разные пиксели из разных потоков безопасна,
+ * поэтому тайлы рисуют в массив кадра без блокировок. Содержимое массива между кадрами сохраняется.
+ * Изображение JavaFX создаётся при первом показе, так что рисовать в буфер можно и без запущенного JavaFX.
+ */
+public class FrameBuffer {
+    private final int[] pixels;
+    // Пиксели, которые видит JavaFX; пишутся только в updateBuffer
+    private final int[] displayPixels;
+    private final int width;
+    private final int height;
+    private PixelBuffer<IntBuffer> pixelBuffer;
+    private WritableImage image;
+
+    public FrameBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+        this.displayPixels = new int[width * height];
+    }
+
+    public void clear(int argb) {
+        Arrays.fill(pixels, argb);
+    }
+
+    public void setArgb(int x, int y, int argb) {
+        pixels[y * width + x] = argb;
+    }
+
+    public int getArgb(int x, int y) {
+        return pixels[y * width + x];
+    }
+
+    /**
+     * Наложение premultiplied цвета поверх пикселя (src-over).
+     */
+    public void blend(int x, int y, int argb) {
+        int index = y * width + x;
+        int inverseAlpha = 255 - (argb >>> 24);
+        int dst = pixels[index];
+
+        int a = (argb >>> 24) + (((dst >>> 24) * inverseAlpha) / 255);
+        int r = ((argb >> 16) & 0xFF) + ((((dst >> 16) & 0xFF) * inverseAlpha) / 255);
+        int g = ((argb >> 8) & 0xFF) + ((((dst >> 8) & 0xFF) * inverseAlpha) / 255);
+        int b = (argb & 0xFF) + (((dst & 0xFF) * inverseAlpha) / 255);
+        pixels[index] = (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Отрезок с наложением цвета, без теста глубины. Сначала отсекается по границам буфера.
+     */
+    public void drawLine(float x0, float y0, float x1, float y1, int argb) {
+        // Отсечение Лианга-Барски по прямоугольнику [0, width) x [0, height)
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float t0 = 0;
+        float t1 = 1;
+        float[] p = {-dx, dx, -dy, dy};
+        float[] q = {x0, width - 1 - x0, y0, height - 1 - y0};
+        for (int i = 0; i < 4; i++) {
+            if (p[i] == 0) {
+                if (q[i] < 0) return;
+                continue;
+            }
+            float t = q[i] / p[i];
+            if (p[i] < 0) {
+                if (t > t1) return;
+                if (t > t0) t0 = t;
+            } else {
+                if (t < t0) return;
+                if (t < t1) t1 = t;
+            }
+        }
+        if (!(t0 <= t1)) {
+            return;
+        }
+
+        int ax = Math.round(x0 + t0 * dx);
+        int ay = Math.round(y0 + t0 * dy);
+        int bx = Math.round(x0 + t1 * dx);
+        int by = Math.round(y0 + t1 * dy);
+
+        // Брезенхэм
+        int stepX = ax < bx ? 1 : -1;
+        int stepY = ay < by ? 1 : -1;
+        int errX = Math.abs(bx - ax);
+        int errY = -Math.abs(by - ay);
+        int error = errX + errY;
+        while (true) {
+            if (ax >= 0 && ax < width && ay >= 0 && ay < height) {
+                blend(ax, ay, argb);
+            }
+            if (ax == bx && ay == by) {
+                break;
+            }
+            int e2 = 2 * error;
+            if (e2 >= errY) {
+                error += errY;
+                ax += stepX;
+            }
+            if (e2 <= errX) {
+                error += errX;
+                ay += stepY;
+            }
+        }
+    }
+
+    /**
+     * Копирует готовый кадр в показываемый буфер и возвращает изображение поверх него.
+     * Вызывать из потока JavaFX, когда все потоки отрисовки закончили запись.
+     */
+    public WritableImage present() {
+        if (image == null) {
+            pixelBuffer = new PixelBuffer<>(width, height, IntBuffer.wrap(displayPixels),
+                    PixelFormat.getIntArgbPreInstance());
+            image = new WritableImage(pixelBuffer);
+        }
+        pixelBuffer.updateBuffer(buffer -> {
+            System.arraycopy(pixels, 0, displayPixels, 0, pixels.length);
+            return null;
+        });
+        return image;
+    }
+
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    public static int packRgb(float r, float g, float b) {
+        return 0xFF000000
+                | (toChannel(r) << 16)
+                | (toChannel(g) << 8)
+                | toChannel(b);
+    }
+
+    public static int toArgb(Color color) {
+        int a = (int) Math.round(color.getOpacity() * 255);
+        int r = (int) Math.round(color.getRed() * color.getOpacity() * 255);
+        int g = (int) Math.round(color.getGreen() * color.getOpacity() * 255);
+        int b = (int) Math.round(color.getBlue() * color.getOpacity() * 255);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Перевод обычного ARGB (как отдаёт PixelReader) в premultiplied.
+     */
+    public static int premultiply(int argb) {
+        int a = argb >>> 24;
+        if (a == 255) {
+            return argb;
+        }
+        int r = (((argb >> 16) & 0xFF) * a) / 255;
+        int g = (((argb >> 8) & 0xFF) * a) / 255;
+        int b = ((argb & 0xFF) * a) / 255;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Умножение premultiplied RGB на интенсивность освещения с насыщением до альфы.
+     */
+    public static int modulate(int argb, float intensity) {
+        int a = argb >>> 24;
+        int r = Math.min(a, (int) (((argb >> 16) & 0xFF) * intensity));
+        int g = Math.min(a, (int) (((argb >> 8) & 0xFF) * intensity));
+        int b = Math.min(a, (int) ((argb & 0xFF) * intensity));
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    private static int toChannel(float value) {
+        return (int) (Math.min(1, Math.max(0, value)) * 255 + 0.5f);
+    }
+}
@@ -6,50 +6,28 @@ import com.cgvsu.math.vector.Vector3f;
 
 public class GraphicConveyor {
 
-    public static Matrix4f translateRotateScale(Vector3f translate, Vector3f rotate, Vector3f scale) {
-        Matrix4f translateMatrix = new Matrix4f(new float[][]{
-                {1, 0, 0, translate.getX()},
-                {0, 1, 0, translate.getY()},
-                {0, 0, 1, translate.getZ()},
-                {0, 0, 0, 1}
-        });
-        Matrix4f scaleMatrix = new Matrix4f(new float[][]{
-                {scale.getX(), 0, 0, 0},
-                {0, scale.getY(), 0, 0},
-                {0, 0, scale.getZ(), 0},
-                {0, 0, 0, 1}
-        });
-        Matrix4f rotateMatrix = getRotateMatrix(rotate);
-
-        return translateMatrix.multiplyMatrix(rotateMatrix).multiplyMatrix(scaleMatrix);
+    /**
+     * T * Rz * Ry * Rx * S сразу в dest, без промежуточных матриц. Результат совпадает с
+     * {@link #translateRotateScale(Vector3f, Vector3f, Vector3f)}.
+     */
+    public static Matrix4f translateRotateScale(Vector3f translate, Vector3f rotate, Vector3f scale, Matrix4f dest) {
+        double alpha = Math.toRadians(rotate.getX());
+        double beta = Math.toRadians(rotate.getY());
+        double gamma = Math.toRadians(rotate.getZ());
+        float ca = (float) Math.cos(alpha), sa = (float) Math.sin(alpha);
+        float cb = (float) Math.cos(beta), sb = (float) Math.sin(beta);
+        float cg = (float) Math.cos(gamma), sg = (float) Math.sin(gamma);
+        float sx = scale.getX(), sy = scale.getY(), sz = scale.getZ();
+
+        return dest.set(
+                cg * cb * sx, (sg * ca - cg * sb * sa) * sy, (sg * sa + cg * sb * ca) * sz, translate.getX(),
+                -sg * cb * sx, (cg * ca + sg * sb * sa) * sy, (cg * sa - sg * sb * ca) * sz, translate.getY(),
+                -sb * sx, -cb * sa * sy, cb * ca * sz, translate.getZ(),
+                0, 0, 0, 1);
     }
 
-    private static Matrix4f getRotateMatrix(Vector3f rotate) {
-        float alpha = (float) ((rotate.getX() * Math.PI) / 180);
-        float beta = (float) ((rotate.getY() * Math.PI) / 180);
-        float gamma = (float) ((rotate.getZ() * Math.PI) / 180);
-
-        Matrix4f rotateMatrixX = new Matrix4f(new float[][]{
-                {1, 0, 0, 0},
-                {0, (float) Math.cos(alpha), (float) Math.sin(alpha), 0},
-                {0, (float) -Math.sin(alpha), (float) Math.cos(alpha), 0},
-                {0, 0, 0, 1}});
-
-        Matrix4f rotateMatrixY = new Matrix4f(new float[][]{
-                {(float) Math.cos(beta), 0, (float) Math.sin(beta), 0},
-                {0, 1, 0, 0},
-                {(float) -Math.sin(beta), 0, (float) Math.cos(beta), 0},
-                {0, 0, 0, 1}});
-
-        Matrix4f rotateMatrixZ = new Matrix4f(new float[][]{
-                {(float) Math.cos(gamma), (float) Math.sin(gamma), 0, 0},
-                {(float) -Math.sin(gamma), (float) Math.cos(gamma), 0, 0},
-                {0, 0, 1, 0},
-                {0, 0, 0, 1}});
-
-
-        Matrix4f result = rotateMatrixZ.multiplyMatrix(rotateMatrixY);
-        return result.multiplyMatrix(rotateMatrixX);
+    public static Matrix4f translateRotateScale(Vector3f translate, Vector3f rotate, Vector3f scale) {
+        return translateRotateScale(translate, rotate, scale, new Matrix4f());
     }
 
     public static Matrix4f lookAt(Vector3f eye, Vector3f target) {
@@ -92,15 +70,24 @@ public class GraphicConveyor {
     }
 
     public static Vector3f multiplyMatrix4ByVector3(final Matrix4f matrix, final Vector3f vertex) {
+        return multiplyMatrix4ByVector3(matrix, vertex, new Vector3f());
+    }
+
+    /**
+     * То же, что {@link #multiplyMatrix4ByVector3(Matrix4f, Vector3f)}, но с результатом в dest (может совпадать с vertex).
+     */
+    public static Vector3f multiplyMatrix4ByVector3(final Matrix4f matrix, final Vector3f vertex, final Vector3f dest) {
         final float x = (vertex.x * matrix.get(0, 0)) + (vertex.y * matrix.get(0, 1)) + (vertex.z * matrix.get(0, 2)) + matrix.get(0, 3);
         final float y = (vertex.x * matrix.get(1, 0)) + (vertex.y * matrix.get(1, 1)) + (vertex.z * matrix.get(1, 2)) + matrix.get(1, 3);
         final float z = (vertex.x * matrix.get(2, 0)) + (vertex.y * matrix.get(2, 1)) + (vertex.z * matrix.get(2, 2)) + matrix.get(2, 3);
         final float w = (vertex.x * matrix.get(3, 0)) + (vertex.y * matrix.get(3, 1)) + (vertex.z * matrix.get(3, 2)) + matrix.get(3, 3);
 
         if (Math.abs(w) < 1e-7f) {
-            return new Vector3f(x, y, z);
+            dest.set(x, y, z);
+        } else {
+            dest.set(x / w, y / w, z / w);
         }
-        return new Vector3f(x / w, y / w, z / w);
+        return dest;
     }
 
     public static Vector2f vertexToPoint(final Vector3f vertex, final int width, final int height) {
@@ -0,0 +1,237 @@
+package com.cgvsu.render_engine;
+
+/**
+ * Растеризатор треугольников на рёберных функциях.
+ * <p>
+ * Рёберные функции вычисляются в целых числах с фиксированной точкой и один раз на треугольник,
+ * дальше по строкам и столбцам они только шагают сложением. Глубина и атрибуты (UV, нормали и т.п.)
+ * заданы плоскостями над барицентрическими координатами, поэтому на пиксель нет ни одного выделения памяти.
+ * Экземпляр переиспользуется между треугольниками и не потокобезопасен.
+ */
+public class Rasterizer {
+
+    public static final int MAX_ATTRIBUTES = 16;
+
+    // 8 бит субпиксельной точности, как у большинства аппаратных растеризаторов
+    private static final int SUBPIXEL_BITS = 8;
+    private static final int SUBPIXEL_ONE = 1 << SUBPIXEL_BITS;
+    private static final int SUBPIXEL_HALF = SUBPIXEL_ONE / 2;
+
+    // Дальше этой границы произведения рёберных функций перестают помещаться в long
+    private static final float MAX_COORDINATE = 1 << 21;
+
+    /**
+     * Приёмник фрагментов, прошедших тест глубины.
+     */
+    public interface FragmentSink {
+        void fragment(int x, int y, float z, float[] attributes);
+    }
+
+    // Вершины в фиксированной точке
+    private long x0, y0, x1, y1, x2, y2;
+
+    // Коэффициенты рёберных функций: шаг по x и по y (уже умноженные на размер пикселя)
+    private long stepX0, stepY0, stepX1, stepY1, stepX2, stepY2;
+    // Значения рёберных функций в центре левого верхнего пикселя прямоугольника обхода
+    private long rowE0, rowE1, rowE2;
+    // Смещения правила "верхнего левого ребра"
+    private long bias0, bias1, bias2;
+
+    private float invArea;
+    private float z0, dz1, dz2;
+
+    private int minX, minY, maxX, maxY;
+
+    private int attributeCount;
+    private final float[] attributeBase = new float[MAX_ATTRIBUTES];
+    private final float[] attributeD1 = new float[MAX_ATTRIBUTES];
+    private final float[] attributeD2 = new float[MAX_ATTRIBUTES];
+    private final float[] attributes = new float[MAX_ATTRIBUTES];
+
+    /**
+     * Подготовка треугольника. Прямоугольник отсечения задаётся включительно.
+     *
+     * @return false, если треугольник вырожден или не покрывает ни одного пикселя
+     */
+    public boolean setup(
+            float sx0, float sy0, float sz0,
+            float sx1, float sy1, float sz1,
+            float sx2, float sy2, float sz2,
+            int clipMinX, int clipMinY, int clipMaxX, int clipMaxY) {
+
+        if (!isRepresentable(sx0, sy0) || !isRepresentable(sx1, sy1) || !isRepresentable(sx2, sy2)) {
+            return false;
+        }
+
+        x0 = toFixed(sx0);
+        y0 = toFixed(sy0);
+        x1 = toFixed(sx1);
+        y1 = toFixed(sy1);
+        x2 = toFixed(sx2);
+        y2 = toFixed(sy2);
+
+        long area = edge(x1, y1, x2, y2, x0, y0);
+        if (area == 0) {
+            return false;
+        }
+
+        minX = Math.max(clipMinX, (int) (Math.min(x0, Math.min(x1, x2)) >> SUBPIXEL_BITS));
+        minY = Math.max(clipMinY, (int) (Math.min(y0, Math.min(y1, y2)) >> SUBPIXEL_BITS));
+        maxX = Math.min(clipMaxX, (int) (Math.max(x0, Math.max(x1, x2)) >> SUBPIXEL_BITS));
+        maxY = Math.min(clipMaxY, (int) (Math.max(y0, Math.max(y1, y2)) >> SUBPIXEL_BITS));
+        if (minX > maxX || minY > maxY) {
+            return false;
+        }
+
+        // Приводим обход к одной ориентации, чтобы "внутри" всегда означало E >= 0
+        long sign = area > 0 ? 1 : -1;
+        invArea = 1.0f / (area * sign);
+
+        long px = ((long) minX << SUBPIXEL_BITS) + SUBPIXEL_HALF;
+        long py = ((long) minY << SUBPIXEL_BITS) + SUBPIXEL_HALF;
+
+        long a0 = (y2 - y1) * sign, b0 = -(x2 - x1) * sign;
+        long a1 = (y0 - y2) * sign, b1 = -(x0 - x2) * sign;
+        long a2 = (y1 - y0) * sign, b2 = -(x1 - x0) * sign;
+
+        rowE0 = edge(x1, y1, x2, y2, px, py) * sign;
+        rowE1 = edge(x2, y2, x0, y0, px, py) * sign;
+        rowE2 = edge(x0, y0, x1, y1, px, py) * sign;
+
+        stepX0 = a0 << SUBPIXEL_BITS;
+        stepY0 = b0 << SUBPIXEL_BITS;
+        stepX1 = a1 << SUBPIXEL_BITS;
+        stepY1 = b1 << SUBPIXEL_BITS;
+        stepX2 = a2 << SUBPIXEL_BITS;
+        stepY2 = b2 << SUBPIXEL_BITS;
+
+        bias0 = isTopLeft(a0, b0) ? 0 : -1;
+        bias1 = isTopLeft(a1, b1) ? 0 : -1;
+        bias2 = isTopLeft(a2, b2) ? 0 : -1;
+
+        z0 = sz0;
+        dz1 = sz1 - sz0;
+        dz2 = sz2 - sz0;
+
+        attributeCount = 0;
+        return true;
+    }
+
+    /**
+     * Задаёт значения атрибута в трёх вершинах. Индексы атрибутов должны идти подряд с нуля.
+     */
+    public void setAttribute(int index, float a0, float a1, float a2) {
+        attributeBase[index] = a0;
+        attributeD1[index] = a1 - a0;
+        attributeD2[index] = a2 - a0;
+        if (index >= attributeCount) {
+            attributeCount = index + 1;
+        }
+    }
+
+    /**
+     * Обход треугольника блоками Z-буфера с тестом глубины.
+     * Блоки, закрытые уже нарисованной геометрией или лежащие вне треугольника, пропускаются без попиксельных тестов.
+     */
+    public void rasterize(ZBuffer zBuffer, FragmentSink sink) {
+        // Глубина линейна по треугольнику, так что ближайшая точка - одна из вершин
+        float zMin = Math.min(z0, Math.min(z0 + dz1, z0 + dz2));
+        if (zBuffer.isOccluded(minX, minY, maxX, maxY, zMin)) {
+            return;
+        }
+
+        final int shift = ZBuffer.BLOCK_SHIFT;
+        final int last = ZBuffer.BLOCK_SIZE - 1;
+
+        for (int blockY = minY >> shift; blockY <= maxY >> shift; blockY++) {
+            int blockMinY = Math.max(minY, blockY << shift);
+            int blockMaxY = Math.min(maxY, (blockY << shift) + last);
+
+            for (int blockX = minX >> shift; blockX <= maxX >> shift; blockX++) {
+                if (zMin >= zBuffer.getBlockMaxDepth(blockX, blockY)) {
+                    continue;
+                }
+
+                int blockMinX = Math.max(minX, blockX << shift);
+                int blockMaxX = Math.min(maxX, (blockX << shift) + last);
+
+                long dx = blockMinX - minX;
+                long dy = blockMinY - minY;
+                long e0 = rowE0 + dx * stepX0 + dy * stepY0;
+                long e1 = rowE1 + dx * stepX1 + dy * stepY1;
+                long e2 = rowE2 + dx * stepX2 + dy * stepY2;
+
+                // Блок целиком снаружи хотя бы одного ребра
+                int spanX = blockMaxX - blockMinX;
+                int spanY = blockMaxY - blockMinY;
+                if (edgeMax(e0, stepX0, stepY0, spanX, spanY) + bias0 < 0
+                        || edgeMax(e1, stepX1, stepY1, spanX, spanY) + bias1 < 0
+                        || edgeMax(e2, stepX2, stepY2, spanX, spanY) + bias2 < 0) {
+                    continue;
+                }
+
+                rasterizeBlock(zBuffer, sink, blockMinX, blockMinY, blockMaxX, blockMaxY, e0, e1, e2);
+            }
+        }
+    }
+
+    private void rasterizeBlock(
+            ZBuffer zBuffer, FragmentSink sink,
+            int fromX, int fromY, int toX, int toY,
+            long e0Row, long e1Row, long e2Row) {
+        final int count = attributeCount;
+        final float[] base = attributeBase;
+        final float[] d1 = attributeD1;
+        final float[] d2 = attributeD2;
+        final float[] values = attributes;
+
+        for (int y = fromY; y <= toY; y++) {
+            long e0 = e0Row, e1 = e1Row, e2 = e2Row;
+
+            for (int x = fromX; x <= toX; x++) {
+                // Знаковый бит OR-а отрицателен, если пиксель снаружи хотя бы одного ребра
+                if (((e0 + bias0) | (e1 + bias1) | (e2 + bias2)) >= 0) {
+                    float b1 = e1 * invArea;
+                    float b2 = e2 * invArea;
+                    float z = z0 + b1 * dz1 + b2 * dz2;
+
+                    if (zBuffer.testAndSet(x, y, z)) {
+                        for (int i = 0; i < count; i++) {
+                            values[i] = base[i] + b1 * d1[i] + b2 * d2[i];
+                        }
+                        sink.fragment(x, y, z, values);
+                    }
+                }
+                e0 += stepX0;
+                e1 += stepX1;
+                e2 += stepX2;
+            }
+
+            e0Row += stepY0;
+            e1Row += stepY1;
+            e2Row += stepY2;
+        }
+    }
+
+    // Максимум линейной функции по прямоугольнику достигается в углу
+    private static long edgeMax(long value, long stepX, long stepY, int spanX, int spanY) {
+        return value + Math.max(0, stepX * spanX) + Math.max(0, stepY * spanY);
+    }
+
+    private static boolean isRepresentable(float x, float y) {
+        return Math.abs(x) < MAX_COORDINATE && Math.abs(y) < MAX_COORDINATE;
+    }
+
+    private static long toFixed(float value) {
+        return Math.round(value * SUBPIXEL_ONE);
+    }
+
+    private static long edge(long ax, long ay, long bx, long by, long px, long py) {
+        return (px - ax) * (by - ay) - (py - ay) * (bx - ax);
+    }
+
+    // Ребро верхнее (горизонтальное, внутренность ниже) или левое (внутренность правее)
+    private static boolean isTopLeft(long a, long b) {
+        return a > 0 || (a == 0 && b > 0);
+    }
+}
@@ -1,512 +1,389 @@
 package com.cgvsu.render_engine;
 
-import com.cgvsu.math.vector.*;
 import com.cgvsu.math.matrix.Matrix4f;
 import com.cgvsu.model.Model;
+import com.cgvsu.model.PolygonArray;
+import com.cgvsu.render_engine.shading.ColorShader;
+import com.cgvsu.render_engine.shading.FragmentShader;
+import com.cgvsu.render_engine.shading.LitColorShader;
+import com.cgvsu.render_engine.shading.LitTextureShader;
+import com.cgvsu.render_engine.shading.ShadingContext;
+import com.cgvsu.render_engine.shading.ShadingMode;
+import com.cgvsu.render_engine.shading.SolidColorShader;
+import com.cgvsu.render_engine.shading.TextureShader;
 import com.cgvsu.texture.Texture;
+import com.cgvsu.texture.TextureFilter;
+import com.cgvsu.texture.TextureManager;
 import javafx.scene.canvas.GraphicsContext;
-import javafx.scene.paint.Color;
-import javafx.scene.image.Image;
-import javafx.scene.image.PixelReader;
-import javafx.scene.image.PixelWriter;
-import javafx.scene.image.WritableImage;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
 
 public class RenderEngine {
     private static ZBuffer zBuffer;
-    private static WritableImage writableImage;
-    private static PixelWriter pixelWriter;
-
-    // Настройки освещения (освещение от камеры)
-    private static final float AMBIENT_LIGHT = 0.3f;
-    private static final float DIFFUSE_INTENSITY = 0.7f;
-
-
-    public static void clearBuffers(int width, int height) {
-        if (zBuffer == null || zBuffer.getWidth() != width || zBuffer.getHeight() != height) {
-            zBuffer = new ZBuffer(width, height);
-        }
-        zBuffer.clear();
-        // Если у тебя есть writableImage, его тоже стоит подготовить тут
+    private static FrameBuffer frameBuffer;
+    private static final VertexProcessor vertexProcessor = new VertexProcessor();
+    private static final Matrix4f modelViewProjectionMatrix = new Matrix4f();
+    private static final TriangleSetup triangleSetup = new TriangleSetup();
+    private static final Clipper clipper = new Clipper();
+
+    // Шейдер на каждое сочетание режимов; выбирается один раз на модель
+    private static final EnumMap<ShadingMode, FragmentShader> shaders = new EnumMap<>(ShadingMode.class);
+    private static final ShadingContext shadingContext = new ShadingContext();
+
+    // Отложенное затенение: render только ставит модели в очередь, оба прохода выполняются в present
+    private static boolean deferred;
+    private static final DeferredRenderer deferredRenderer = new DeferredRenderer();
+
+    // Порядок спереди назад: модели сортирует вызывающий через sortFrontToBack, кластеры - сам движок
+    private static final RenderQueue renderQueue = new RenderQueue();
+    private static boolean clusterSorting = true;
+
+    // Многопоточная растеризация по тайлам; при одном потоке рисуем напрямую
+    private static int threadCount = Runtime.getRuntime().availableProcessors();
+    private static TileRenderer tileRenderer;
+
+    // Диагностика: сколько треугольников отброшено отсечением граней за текущий кадр
+    private static int culledTriangleCount;
+
+    // Отрезки сетки текущей модели: x1, y1, x2, y2; рисуются поверх заливки после растеризации
+    private static float[] wireframeLines = new float[4 * 1024];
+    private static int wireframeLineCount;
+
+    private static final int BACKGROUND_COLOR = 0xFF282828; // Темный фон
+    private static final int WIREFRAME_COLOR = 0x80808080; // Полупрозрачный белый (premultiplied)
+    private static final FragmentShader MISSING_TEXTURE_SHADER = new SolidColorShader(0xFFFF00FF);
+    private static final FragmentShader UNREADABLE_TEXTURE_SHADER = new SolidColorShader(0xFFFFFF00);
+
+    static {
+        shaders.put(ShadingMode.COLOR, new ColorShader());
+        shaders.put(ShadingMode.LIT_COLOR, new LitColorShader());
+        shaders.put(ShadingMode.TEXTURE, new TextureShader());
+        shaders.put(ShadingMode.LIT_TEXTURE, new LitTextureShader());
     }
 
+
     public static void prepareBuffer(int width, int height) {
         if (zBuffer == null || zBuffer.getWidth() != width || zBuffer.getHeight() != height) {
             zBuffer = new ZBuffer(width, height);
-            writableImage = new WritableImage(width, height);
-            pixelWriter = writableImage.getPixelWriter();
+            frameBuffer = new FrameBuffer(width, height);
         }
-        zBuffer.clear(); // Очищаем только тут!
-
-        // Очищаем картинку (заливаем фоном)
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                pixelWriter.setColor(x, y, Color.LIGHTGRAY);
-            }
+        if (deferred) {
+            // Буферы не очищаем: если сцена не изменилась, буфер видимости прошлого кадра ещё верен
+            deferredRenderer.begin();
+            return;
         }
-    }
-
-    public static void render(
-            final GraphicsContext graphicsContext,
-            final Camera camera,
-            final Model model,
-            final int width,
-            final int height) {
-
-        if (width <= 0 || height <= 0) return;
-
-        // Подготавливаем модель к отрисовке
-        model.prepareForRendering();
+        zBuffer.clear(); // Очищаем только тут!
 
-        Matrix4f viewMatrix = camera.getViewMatrix();
-        Matrix4f projectionMatrix = camera.getProjectionMatrix();
-        Matrix4f viewProjectionMatrix = projectionMatrix.multiplyMatrix(viewMatrix);
+        // Заливаем фоном
+        frameBuffer.clear(BACKGROUND_COLOR);
 
+        culledTriangleCount = 0;
+    }
 
+    public static int getCulledTriangleCount() {
+        return deferred ? deferredRenderer.getCulledTriangleCount() : culledTriangleCount;
+    }
 
-        // Очистка изображения
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                pixelWriter.setColor(x, y, Color.TRANSPARENT);
-            }
+    /**
+     * Вывод накопленного кадра на холст. Вызывается один раз после отрисовки всех моделей.
+     * В отложенном режиме здесь же выполняются растеризация видимости и затенение.
+     */
+    public static void present(final GraphicsContext graphicsContext) {
+        if (frameBuffer == null) {
+            return;
         }
+        graphicsContext.drawImage(finishFrame().present(), 0, 0);
+    }
 
-        // Очистка холста и фон
-        graphicsContext.clearRect(0, 0, width, height);
-        graphicsContext.setFill(Color.rgb(40, 40, 40)); // Темный фон
-        graphicsContext.fillRect(0, 0, width, height);
-
-        // Отрисовка всех треугольников
-        int trianglesRendered = 0;
-
-        for (var polygon : model.polygons) {
-            ArrayList<Integer> vertexIndices = polygon.getVertexIndices();
-            ArrayList<Integer> textureIndices = polygon.getTextureVertexIndices();
-            ArrayList<Integer> normalIndices = polygon.getNormalIndices();
-
-            if (vertexIndices.size() == 3) {
-                trianglesRendered++;
-
-                // Получаем преобразованные вершины
-                Vector3f v1 = model.getTransformedVertex(vertexIndices.get(0));
-                Vector3f v2 = model.getTransformedVertex(vertexIndices.get(1));
-                Vector3f v3 = model.getTransformedVertex(vertexIndices.get(2));
-
-                // Проекция в пространство камеры
-                Vector3f p1 = Matrix4f.multiplyMatrix4ByVector3(viewProjectionMatrix, v1);
-                Vector3f p2 = Matrix4f.multiplyMatrix4ByVector3(viewProjectionMatrix, v2);
-                Vector3f p3 = Matrix4f.multiplyMatrix4ByVector3(viewProjectionMatrix, v3);
-
-                // Преобразование в экранные координаты
-                Vector2f s1 = GraphicConveyor.vertexToPoint(p1, width, height);
-                Vector2f s2 = GraphicConveyor.vertexToPoint(p2, width, height);
-                Vector2f s3 = GraphicConveyor.vertexToPoint(p3, width, height);
-
-                // Проверка видимости
-                if (!isTriangleVisible(s1, s2, s3, width, height)) {
-                    continue;
-                }
-
-                // Определяем режим отрисовки
-                boolean useTexture = model.isUseTexture() && model.hasTexture();
-                boolean hasValidUVs = !textureIndices.isEmpty() && textureIndices.size() >= 3;
-                boolean useLighting = model.isUseLighting();
-
-                // Получаем нормали для вершин (если есть)
-                Vector3f[] normals = new Vector3f[3];
-                boolean hasNormals = false;
-                if (!normalIndices.isEmpty() && normalIndices.size() >= 3) {
-                    for (int i = 0; i < 3; i++) {
-                        int normalIdx = normalIndices.get(i);
-                        if (normalIdx >= 0 && normalIdx < model.normals.size()) {
-                            normals[i] = model.normals.get(normalIdx);
-                            hasNormals = true;
-                        }
-                    }
-                }
-
-                // Если нормалей нет, вычисляем нормаль треугольника
-                if (!hasNormals) {
-                    Vector3f triangleNormal = calculateTriangleNormal(v1, v2, v3);
-                    normals[0] = triangleNormal;
-                    normals[1] = triangleNormal;
-                    normals[2] = triangleNormal;
-                }
-
-                if (useTexture && hasValidUVs) {
-                    try {
-                        // Получаем UV координаты
-                        Vector2f uv1 = model.textureVertices.get(textureIndices.get(0));
-                        Vector2f uv2 = model.textureVertices.get(textureIndices.get(1));
-                        Vector2f uv3 = model.textureVertices.get(textureIndices.get(2));
-
-                        // Исправляем UV координаты
-                        uv1 = fixUV(uv1);
-                        uv2 = fixUV(uv2);
-                        uv3 = fixUV(uv3);
-
-                        if (useLighting) {
-                            // Текстура + освещение
-                            drawTexturedTriangleWithLighting(
-                                    pixelWriter, zBuffer, camera,
-                                    s1, p1.z, uv1, normals[0],
-                                    s2, p2.z, uv2, normals[1],
-                                    s3, p3.z, uv3, normals[2],
-                                    model.getTexture());
-                        } else {
-                            // Только текстура
-                            drawTexturedTriangle(
-                                    pixelWriter, zBuffer,
-                                    s1, p1.z, uv1,
-                                    s2, p2.z, uv2,
-                                    s3, p3.z, uv3,
-                                    model.getTexture());
-                        }
-                    } catch (Exception e) {
-                        // В случае ошибки рисуем цветом
-                        if (useLighting) {
-                            drawColoredTriangleWithLighting(
-                                    pixelWriter, zBuffer, camera,
-                                    s1, p1.z, normals[0],
-                                    s2, p2.z, normals[1],
-                                    s3, p3.z, normals[2],
-                                    model.getColor());
-                        } else {
-                            drawColoredTriangle(
-                                    pixelWriter, zBuffer,
-                                    s1, p1.z,
-                                    s2, p2.z,
-                                    s3, p3.z,
-                                    model.getColor());
-                        }
-                    }
-                } else {
-                    // Без текстуры
-                    if (useLighting) {
-                        drawColoredTriangleWithLighting(
-                                pixelWriter, zBuffer, camera,
-                                s1, p1.z, normals[0],
-                                s2, p2.z, normals[1],
-                                s3, p3.z, normals[2],
-                                model.getColor());
-                    } else {
-                        drawColoredTriangle(
-                                pixelWriter, zBuffer,
-                                s1, p1.z,
-                                s2, p2.z,
-                                s3, p3.z,
-                                model.getColor());
-                    }
-                }
-
+    /**
+     * Доводит кадр до готового буфера цвета без вывода на экран: в отложенном режиме - оба прохода и каркас.
+     */
+    static FrameBuffer finishFrame() {
+        if (deferred) {
+            deferredRenderer.resolve(zBuffer, frameBuffer, getTileRenderer(), shadingContext, BACKGROUND_COLOR,
+                    clusterSorting ? renderQueue : null);
+            for (int m = 0; m < deferredRenderer.getModelCount(); m++) {
+                Model model = deferredRenderer.getModel(m);
                 if (model.isUseWireframe()) {
-                    drawTriangleWireframe(graphicsContext, s1, s2, s3);
+                    addModelWireframe(model, deferredRenderer.getVertexProcessor(m));
                 }
             }
+            drawWireframe(frameBuffer);
         }
-
-        // Отображение результата
-        graphicsContext.drawImage(writableImage, 0, 0);
+        return frameBuffer;
     }
 
-    private static void drawTexturedTriangle(
-            PixelWriter pixelWriter, ZBuffer zb,
-            Vector2f p1, float z1, Vector2f uv1,
-            Vector2f p2, float z2, Vector2f uv2,
-            Vector2f p3, float z3, Vector2f uv3,
-            Texture texture) {
-
-        if (texture == null || texture.getImage() == null) {
-            drawFilledTriangle(pixelWriter, zb, p1, z1, p2, z2, p3, z3, Color.MAGENTA);
-            return;
+    /**
+     * Отложенное затенение через буфер видимости: каждый пиксель затеняется один раз,
+     * а смена освещения или текстуры без движения камеры не требует повторной растеризации.
+     */
+    public static void setDeferred(boolean enabled) {
+        if (enabled != deferred) {
+            deferred = enabled;
+            deferredRenderer.invalidate();
         }
+    }
 
-        Image image = texture.getImage();
-        PixelReader pixelReader = image.getPixelReader();
-        if (pixelReader == null) {
-            drawFilledTriangle(pixelWriter, zb, p1, z1, p2, z2, p3, z3, Color.YELLOW);
-            return;
-        }
-
-        int texWidth = (int) image.getWidth();
-        int texHeight = (int) image.getHeight();
-
-        // Bounding box
-        int minX = (int) Math.max(0, Math.min(p1.x, Math.min(p2.x, p3.x)));
-        int maxX = (int) Math.min(zb.getWidth() - 1, Math.max(p1.x, Math.max(p2.x, p3.x)));
-        int minY = (int) Math.max(0, Math.min(p1.y, Math.min(p2.y, p3.y)));
-        int maxY = (int) Math.min(zb.getHeight() - 1, Math.max(p1.y, Math.max(p2.y, p3.y)));
-
-        for (int y = minY; y <= maxY; y++) {
-            for (int x = minX; x <= maxX; x++) {
-                Vector3f bary = getBarycentricCoords(x + 0.5f, y + 0.5f, p1, p2, p3);
+    public static boolean isDeferred() {
+        return deferred;
+    }
 
-                if (bary.x >= 0 && bary.y >= 0 && bary.z >= 0) {
-                    float z = bary.x * z1 + bary.y * z2 + bary.z * z3;
+    /**
+     * Модели сцены в порядке спереди назад для текущей камеры. Список переиспользуется между кадрами.
+     */
+    public static List<Model> sortFrontToBack(List<Model> models, Camera camera) {
+        return renderQueue.sortModels(models, camera);
+    }
 
-                    if (zb.testAndSet(x, y, z)) {
-                        // Интерполяция UV координат
-                        float u = bary.x * uv1.x + bary.y * uv2.x + bary.z * uv3.x;
-                        float v = bary.x * uv1.y + bary.y * uv2.y + bary.z * uv3.y;
+    /**
+     * Сортировка кластеров треугольников внутри модели спереди назад.
+     */
+    public static void setClusterSorting(boolean enabled) {
+        clusterSorting = enabled;
+    }
 
-                        // Преобразуем в координаты текстуры
-                        int texX = getTexCoord(u, texWidth);
-                        int texY = getTexCoord(1.0f - v, texHeight); // Инвертируем V
+    public static boolean isClusterSorting() {
+        return clusterSorting;
+    }
 
-                        // Получаем цвет из текстуры
-                        Color texColor = pixelReader.getColor(texX, texY);
-                        pixelWriter.setColor(x, y, texColor);
-                    }
-                }
-            }
+    /**
+     * Число потоков растеризации. 1 - однопоточный режим без разбиения на тайлы.
+     */
+    public static void setThreadCount(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Thread count must be positive: " + count);
         }
+        if (count != threadCount && tileRenderer != null) {
+            tileRenderer.shutdown();
+            tileRenderer = null;
+        }
+        threadCount = count;
     }
 
-    private static void drawTexturedTriangleWithLighting(
-            PixelWriter pixelWriter, ZBuffer zb, Camera camera,
-            Vector2f p1, float z1, Vector2f uv1, Vector3f normal1,
-            Vector2f p2, float z2, Vector2f uv2, Vector3f normal2,
-            Vector2f p3, float z3, Vector2f uv3, Vector3f normal3,
-            Texture texture) {
+    public static int getThreadCount() {
+        return threadCount;
+    }
 
-        if (texture == null || texture.getImage() == null) {
-            drawFilledTriangle(pixelWriter, zb, p1, z1, p2, z2, p3, z3, Color.MAGENTA);
-            return;
+    /**
+     * Замена шейдера для сочетания режимов, например своим вариантом освещения.
+     */
+    public static void setShader(ShadingMode mode, FragmentShader shader) {
+        if (mode == null || shader == null) {
+            throw new IllegalArgumentException("Shading mode and shader must not be null");
         }
+        shaders.put(mode, shader);
+    }
 
-        Image image = texture.getImage();
-        PixelReader pixelReader = image.getPixelReader();
-        if (pixelReader == null) {
-            drawFilledTriangle(pixelWriter, zb, p1, z1, p2, z2, p3, z3, Color.YELLOW);
-            return;
-        }
+    public static FragmentShader getShader(ShadingMode mode) {
+        return shaders.get(mode);
+    }
 
-        int texWidth = (int) image.getWidth();
-        int texHeight = (int) image.getHeight();
-
-        // Bounding box
-        int minX = (int) Math.max(0, Math.min(p1.x, Math.min(p2.x, p3.x)));
-        int maxX = (int) Math.min(zb.getWidth() - 1, Math.max(p1.x, Math.max(p2.x, p3.x)));
-        int minY = (int) Math.max(0, Math.min(p1.y, Math.min(p2.y, p3.y)));
-        int maxY = (int) Math.min(zb.getHeight() - 1, Math.max(p1.y, Math.max(p2.y, p3.y)));
-
-        for (int y = minY; y <= maxY; y++) {
-            for (int x = minX; x <= maxX; x++) {
-                Vector3f bary = getBarycentricCoords(x + 0.5f, y + 0.5f, p1, p2, p3);
-
-                if (bary.x >= 0 && bary.y >= 0 && bary.z >= 0) {
-                    float z = bary.x * z1 + bary.y * z2 + bary.z * z3;
-
-                    if (zb.testAndSet(x, y, z)) {
-                        // Интерполяция UV координат
-                        float u = bary.x * uv1.x + bary.y * uv2.x + bary.z * uv3.x;
-                        float v = bary.x * uv1.y + bary.y * uv2.y + bary.z * uv3.y;
-
-                        // Преобразуем в координаты текстуры
-                        int texX = getTexCoord(u, texWidth);
-                        int texY = getTexCoord(1.0f - v, texHeight); // Инвертируем V
-
-                        // Получаем цвет из текстуры
-                        Color texColor = pixelReader.getColor(texX, texY);
-
-                        // Интерполяция нормали
-                        Vector3f normal = new Vector3f(
-                                bary.x * normal1.x + bary.y * normal2.x + bary.z * normal3.x,
-                                bary.x * normal1.y + bary.y * normal2.y + bary.z * normal3.y,
-                                bary.x * normal1.z + bary.y * normal2.z + bary.z * normal3.z
-                        );
-                        normal = normal.normalize();
-
-                        // Освещение от камеры (направление от поверхности к камере)
-                        Vector3f cameraPos = camera.getPosition();
-                        Vector3f vertexPos = new Vector3f(
-                                bary.x * p1.x + bary.y * p2.x + bary.z * p3.x,
-                                bary.x * p1.y + bary.y * p2.y + bary.z * p3.y,
-                                z
-                        );
-
-                        float intensity = calculateCameraLighting(vertexPos, cameraPos, normal);
-
-                        // Применяем освещение
-                        texColor = Color.color(
-                                Math.min(1, texColor.getRed() * intensity),
-                                Math.min(1, texColor.getGreen() * intensity),
-                                Math.min(1, texColor.getBlue() * intensity)
-                        );
-
-                        pixelWriter.setColor(x, y, texColor);
-                    }
-                }
-            }
+    public static void setTextureFilter(TextureFilter filter) {
+        if (filter == null) {
+            throw new IllegalArgumentException("Texture filter must not be null");
         }
+        shadingContext.setTextureFilter(filter);
     }
 
+    public static TextureFilter getTextureFilter() {
+        return shadingContext.getTextureFilter();
+    }
 
-    private static void drawColoredTriangle(
-            PixelWriter pixelWriter, ZBuffer zb,
-            Vector2f p1, float z1,
-            Vector2f p2, float z2,
-            Vector2f p3, float z3,
-            Vector3f color) {
+    public static void render(
+            final Camera camera,
+            final Model model,
+            final int width,
+            final int height) {
 
-        Color fxColor = Color.color(
-                Math.min(1, Math.max(0, color.x)),
-                Math.min(1, Math.max(0, color.y)),
-                Math.min(1, Math.max(0, color.z))
-        );
+        if (width <= 0 || height <= 0) return;
 
-        drawFilledTriangle(pixelWriter, zb, p1, z1, p2, z2, p3, z3, fxColor);
-    }
+        // Подготавливаем модель к отрисовке
+        model.prepareForRendering();
 
-    private static void drawColoredTriangleWithLighting(
-            PixelWriter pixelWriter, ZBuffer zb, Camera camera,
-            Vector2f p1, float z1, Vector3f normal1,
-            Vector2f p2, float z2, Vector3f normal2,
-            Vector2f p3, float z3, Vector3f normal3,
-            Vector3f baseColor) {
-
-        // Bounding box
-        int minX = (int) Math.max(0, Math.min(p1.x, Math.min(p2.x, p3.x)));
-        int maxX = (int) Math.min(zb.getWidth() - 1, Math.max(p1.x, Math.max(p2.x, p3.x)));
-        int minY = (int) Math.max(0, Math.min(p1.y, Math.min(p2.y, p3.y)));
-        int maxY = (int) Math.min(zb.getHeight() - 1, Math.max(p1.y, Math.max(p2.y, p3.y)));
-
-        for (int y = minY; y <= maxY; y++) {
-            for (int x = minX; x <= maxX; x++) {
-                Vector3f bary = getBarycentricCoords(x + 0.5f, y + 0.5f, p1, p2, p3);
-
-                if (bary.x >= 0 && bary.y >= 0 && bary.z >= 0) {
-                    float z = bary.x * z1 + bary.y * z2 + bary.z * z3;
-
-                    if (zb.testAndSet(x, y, z)) {
-                        // Интерполяция нормали
-                        Vector3f normal = new Vector3f(
-                                bary.x * normal1.x + bary.y * normal2.x + bary.z * normal3.x,
-                                bary.x * normal1.y + bary.y * normal2.y + bary.z * normal3.y,
-                                bary.x * normal1.z + bary.y * normal2.z + bary.z * normal3.z
-                        );
-                        normal = normal.normalize();
-
-                        Vector3f cameraPos = camera.getPosition();
-                        Vector3f vertexPos = new Vector3f(
-                                bary.x * p1.x + bary.y * p2.x + bary.z * p3.x,
-                                bary.x * p1.y + bary.y * p2.y + bary.z * p3.y,
-                                z
-                        );
-
-                        float intensity = calculateCameraLighting(vertexPos, cameraPos, normal);
-
-                        Color color = Color.color(
-                                Math.min(1, Math.max(0, baseColor.x * intensity)),
-                                Math.min(1, Math.max(0, baseColor.y * intensity)),
-                                Math.min(1, Math.max(0, baseColor.z * intensity))
-                        );
-
-                        pixelWriter.setColor(x, y, color);
-                    }
-                }
-            }
+        if (deferred) {
+            deferredRenderer.add(model, camera);
+            return;
         }
-    }
 
-    private static void drawFilledTriangle(
-            PixelWriter pixelWriter, ZBuffer zb,
-            Vector2f p1, float z1,
-            Vector2f p2, float z2,
-            Vector2f p3, float z3,
-            Color color) {
+        // Матрица модели входит в MVP, вершины модели на CPU не пересчитываются
+        Matrix4f.multiply(camera.getProjectionMatrix(), camera.getViewMatrix(), modelViewProjectionMatrix);
+        Matrix4f.multiply(modelViewProjectionMatrix, model.getModelMatrix(), modelViewProjectionMatrix);
 
-        int minX = (int) Math.max(0, Math.min(p1.x, Math.min(p2.x, p3.x)));
-        int maxX = (int) Math.min(zb.getWidth() - 1, Math.max(p1.x, Math.max(p2.x, p3.x)));
-        int minY = (int) Math.max(0, Math.min(p1.y, Math.min(p2.y, p3.y)));
-        int maxY = (int) Math.min(zb.getHeight() - 1, Math.max(p1.y, Math.max(p2.y, p3.y)));
+        // Все вершины модели проецируются один раз за кадр
+        vertexProcessor.process(model.vertices.getData(), model.vertices.size(), modelViewProjectionMatrix, width, height);
 
-        for (int y = minY; y <= maxY; y++) {
-            for (int x = minX; x <= maxX; x++) {
-                Vector3f bary = getBarycentricCoords(x + 0.5f, y + 0.5f, p1, p2, p3);
+        TileRenderer tiles = getTileRenderer();
+        if (tiles != null) {
+            tiles.begin(zBuffer);
+        }
+        triangleSetup.begin(vertexProcessor, zBuffer, tiles);
 
-                if (bary.x >= 0 && bary.y >= 0 && bary.z >= 0) {
-                    float z = bary.x * z1 + bary.y * z2 + bary.z * z3;
+        // Режим отрисовки один на всю модель
+        FragmentShader shader = selectShader(model);
+        shadingContext.set(frameBuffer, camera, model);
+        shader.begin(shadingContext);
 
-                    if (zb.testAndSet(x, y, z)) {
-                        pixelWriter.setColor(x, y, color);
+        // Отрисовка всех треугольников
+        int trianglesRendered = 0;
+        CullMode cullMode = model.getCullMode();
+        boolean useWireframe = model.isUseWireframe();
+
+        // Кластеры треугольников спереди назад, чтобы дальние чаще отбрасывались тестом глубины
+        PolygonArray polygons = model.polygons;
+        int[] vertexIndices = polygons.getVertexIndices();
+        int[] clusterOrder = clusterSorting ? renderQueue.sortClusters(model, camera) : null;
+        int clusterCount = clusterSorting ? clusterOrder.length : 1;
+
+        for (int c = 0; c < clusterCount; c++) {
+            int from = clusterSorting ? clusterOrder[c] * RenderQueue.CLUSTER_SIZE : 0;
+            int to = clusterSorting ? Math.min(polygons.size(), from + RenderQueue.CLUSTER_SIZE) : polygons.size();
+
+            for (int t = from; t < to; t++) {
+                if (polygons.getFaceSize(t) == 3) {
+                    trianglesRendered++;
+
+                    // Индексы вершин в кэше преобразованных вершин
+                    int corner = polygons.getFaceStart(t);
+                    int i1 = vertexIndices[corner];
+                    int i2 = vertexIndices[corner + 1];
+                    int i3 = vertexIndices[corner + 2];
+
+                    // Отсечение граней по направлению обхода
+                    if (vertexProcessor.isCulled(cullMode, i1, i2, i3)) {
+                        culledTriangleCount++;
+                        continue;
                     }
-                }
-            }
-        }
-    }
 
-    private static void drawTriangleWireframe(
-            GraphicsContext gc,
-            Vector2f p1, Vector2f p2, Vector2f p3) {
+                    // Все вершины снаружи одной плоскости пирамиды видимости
+                    if (vertexProcessor.isOutsideFrustum(i1, i2, i3)) {
+                        continue;
+                    }
 
-        gc.setStroke(Color.rgb(255, 255, 255, 0.5)); // Полупрозрачный белый
-        gc.setLineWidth(1.0);
-        gc.strokeLine(p1.x, p1.y, p2.x, p2.y);
-        gc.strokeLine(p2.x, p2.y, p3.x, p3.y);
-        gc.strokeLine(p3.x, p3.y, p1.x, p1.y);
-    }
+                    if (triangleSetup.setup(i1, i2, i3)) {
+                        shader.setupTriangle(shadingContext, t, triangleSetup);
+                        triangleSetup.submit(shader);
+                    }
 
-    private static Vector2f fixUV(Vector2f uv) {
-        float u = uv.x;
-        float v = uv.y;
+                    if (useWireframe) {
+                        addTriangleWireframe(vertexProcessor, i1, i2, i3, width, height);
+                    }
+                }
+            }
+        }
 
-        u = u - (float) Math.floor(u);
-        v = v - (float) Math.floor(v);
+        if (tiles != null) {
+            tiles.end();
+        }
 
-        return new Vector2f(u, v);
+        drawWireframe(frameBuffer);
     }
 
-
-    private static int getTexCoord(float uv, int textureSize) {
-        // Ограничиваем и преобразуем
-        uv = Math.max(0, Math.min(1, uv));
-        int coord = (int) (uv * (textureSize - 1));
-        return Math.max(0, Math.min(textureSize - 1, coord));
+    // null в однопоточном режиме
+    private static TileRenderer getTileRenderer() {
+        if (threadCount == 1) {
+            return null;
+        }
+        if (tileRenderer == null) {
+            tileRenderer = new TileRenderer(threadCount);
+        }
+        return tileRenderer;
     }
 
-    private static float calculateCameraLighting(Vector3f vertexPos, Vector3f cameraPos, Vector3f normal) {
-        Vector3f lightDir = cameraPos.sub(vertexPos).normalize();
-
-        float diffuse = Math.max(0, normal.dot(lightDir)) * DIFFUSE_INTENSITY;
-
-        // Амбиентное освещение
-        return AMBIENT_LIGHT + diffuse;
+    static FragmentShader selectShader(Model model) {
+        boolean useTexture = model.isUseTexture() && model.hasTexture();
+        if (useTexture) {
+            Texture texture = model.getTexture();
+            if (!texture.isValid()) {
+                return MISSING_TEXTURE_SHADER;
+            }
+            if (!texture.isDecoded()) {
+                return UNREADABLE_TEXTURE_SHADER;
+            }
+            // Отрисованная текстура вытесняется из общего кэша последней
+            TextureManager.getShared().markUsed(texture);
+        }
+        return shaders.get(ShadingMode.of(useTexture, model.isUseLighting()));
     }
 
-    private static Vector3f calculateTriangleNormal(Vector3f v1, Vector3f v2, Vector3f v3) {
-        Vector3f edge1 = v2.sub(v1);
-        Vector3f edge2 = v3.sub(v1);
-        Vector3f normal = edge1.cross(edge2);
-
-        float length = normal.length();
-        if (length > Vector3f.EPSILON) {
-            return normal.normalize();
+    private static void addModelWireframe(Model model, VertexProcessor v) {
+        CullMode cullMode = model.getCullMode();
+        PolygonArray polygons = model.polygons;
+        int[] vertexIndices = polygons.getVertexIndices();
+        for (int t = 0; t < polygons.size(); t++) {
+            if (polygons.getFaceSize(t) != 3) {
+                continue;
+            }
+            int corner = polygons.getFaceStart(t);
+            int i1 = vertexIndices[corner];
+            int i2 = vertexIndices[corner + 1];
+            int i3 = vertexIndices[corner + 2];
+            if (!v.isCulled(cullMode, i1, i2, i3) && !v.isOutsideFrustum(i1, i2, i3)) {
+                addTriangleWireframe(v, i1, i2, i3, zBuffer.getWidth(), zBuffer.getHeight());
+            }
         }
-        return new Vector3f(0, 0, 1);
     }
 
-
-    private static boolean isTriangleVisible(Vector2f p1, Vector2f p2, Vector2f p3, int width, int height) {
-        return !(p1.x < 0 && p2.x < 0 && p3.x < 0) &&
-                !(p1.x >= width && p2.x >= width && p3.x >= width) &&
-                !(p1.y < 0 && p2.y < 0 && p3.y < 0) &&
-                !(p1.y >= height && p2.y >= height && p3.y >= height);
+    private static void addTriangleWireframe(VertexProcessor v, int i1, int i2, int i3, int width, int height) {
+        addWireframeLine(v, i1, i2, width, height);
+        addWireframeLine(v, i2, i3, width, height);
+        addWireframeLine(v, i3, i1, width, height);
     }
 
-    private static Vector3f getBarycentricCoords(float x, float y,
-                                                 Vector2f v1, Vector2f v2, Vector2f v3) {
-        float denom = (v2.y - v3.y) * (v1.x - v3.x) + (v3.x - v2.x) * (v1.y - v3.y);
-
-        if (Math.abs(denom) < 1e-7f) {
-            return new Vector3f(-1, -1, -1);
+    // Рёбра, пересекающие ближнюю плоскость, отсекаются в clip space так же, как треугольники
+    private static void addWireframeLine(VertexProcessor v, int a, int b, int width, int height) {
+        int planes = (v.getOutcode(a) | v.getOutcode(b)) & Clipper.CLIP_MASK;
+
+        float x1, y1, x2, y2;
+        if (planes == 0) {
+            x1 = v.getScreenX(a);
+            y1 = v.getScreenY(a);
+            x2 = v.getScreenX(b);
+            y2 = v.getScreenY(b);
+        } else {
+            float[] clip = v.getClip();
+            if (!clipper.clipLine(clip, a, b, planes)) {
+                return;
+            }
+            float halfWidth = width / 2.0F;
+            float halfHeight = height / 2.0F;
+            int ca = a * 4, cb = b * 4;
+
+            float t = clipper.getLineStart();
+            float x = clip[ca] + t * (clip[cb] - clip[ca]);
+            float y = clip[ca + 1] + t * (clip[cb + 1] - clip[ca + 1]);
+            float w = clip[ca + 3] + t * (clip[cb + 3] - clip[ca + 3]);
+            x1 = (x / w) * halfWidth + halfWidth;
+            y1 = -(y / w) * halfHeight + halfHeight;
+
+            t = clipper.getLineEnd();
+            x = clip[ca] + t * (clip[cb] - clip[ca]);
+            y = clip[ca + 1] + t * (clip[cb + 1] - clip[ca + 1]);
+            w = clip[ca + 3] + t * (clip[cb + 3] - clip[ca + 3]);
+            x2 = (x / w) * halfWidth + halfWidth;
+            y2 = -(y / w) * halfHeight + halfHeight;
         }
 
-        float alpha = ((v2.y - v3.y) * (x - v3.x) + (v3.x - v2.x) * (y - v3.y)) / denom;
-        float beta = ((v3.y - v1.y) * (x - v3.x) + (v1.x - v3.x) * (y - v3.y)) / denom;
-        float gamma = 1.0f - alpha - beta;
+        int offset = wireframeLineCount * 4;
+        if (offset + 4 > wireframeLines.length) {
+            wireframeLines = Arrays.copyOf(wireframeLines, wireframeLines.length * 2);
+        }
+        wireframeLines[offset] = x1;
+        wireframeLines[offset + 1] = y1;
+        wireframeLines[offset + 2] = x2;
+        wireframeLines[offset + 3] = y2;
+        wireframeLineCount++;
+    }
 
-        return new Vector3f(alpha, beta, gamma);
+    private static void drawWireframe(FrameBuffer frameBuffer) {
+        for (int i = 0; i < wireframeLineCount; i++) {
+            int offset = i * 4;
+            frameBuffer.drawLine(
+                    wireframeLines[offset], wireframeLines[offset + 1],
+                    wireframeLines[offset + 2], wireframeLines[offset + 3],
+                    WIREFRAME_COLOR);
+        }
+        wireframeLineCount = 0;
     }
-}
\ No newline at end of file
+}
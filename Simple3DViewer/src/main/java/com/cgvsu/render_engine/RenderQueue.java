@@ -0,0 +1,295 @@
+package com.cgvsu.render_engine;
+
+import com.cgvsu.math.matrix.Matrix4f;
+import com.cgvsu.math.vector.Vector3f;
+import com.cgvsu.model.Model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Очередь отрисовки: модели, а внутри моделей группы соседних треугольников (кластеры),
+ * упорядочиваются спереди назад по глубине вдоль взгляда камеры. Ближняя геометрия заполняет Z-буфер первой,
+ * и дальняя отбрасывается иерархическим тестом глубины до затенения.
+ * <p>
+ * Сортировка - только оптимизация, на картинку она не влияет. Поэтому порядок пересчитывается,
+ * лишь когда камера заметно сдвинулась или повернулась, либо изменилась геометрия.
+ */
+public class RenderQueue {
+    // Треугольников в кластере: файлы OBJ обычно перечисляют соседние грани подряд
+    public static final int CLUSTER_SIZE = 256;
+
+    // Порядок переиспользуется, пока камера сдвинулась меньше этой доли расстояния до ближайшего объекта
+    private static final float REUSE_DISTANCE_FRACTION = 0.05f;
+    // ... и повернулась меньше чем на ~2.5 градуса
+    private static final float REUSE_MIN_COS = 0.999f;
+
+    private final IdentityHashMap<Model, ModelEntry> entries = new IdentityHashMap<>();
+
+    private final ArrayList<Model> sorted = new ArrayList<>();
+    private final ArrayList<Model> lastModels = new ArrayList<>();
+    private final CameraState modelSortState = new CameraState();
+    private long[] sortKeys = new long[0];
+
+    /**
+     * Модели в порядке спереди назад. Возвращаемый список переиспользуется между вызовами.
+     */
+    public List<Model> sortModels(List<Model> models, Camera camera) {
+        boolean changed = models.size() != lastModels.size();
+        for (int i = 0; !changed && i < models.size(); i++) {
+            changed = models.get(i) != lastModels.get(i);
+        }
+
+        float nearest = Float.MAX_VALUE;
+        for (Model model : models) {
+            ModelEntry entry = getEntry(model);
+            changed |= model.getGeometryVersion() != entry.sortedVersion;
+            entry.sortedVersion = model.getGeometryVersion();
+            nearest = Math.min(nearest, distance(camera.getPosition(), entry) - entry.radius);
+        }
+
+        if (!changed && modelSortState.isCloseTo(camera, nearest)) {
+            return sorted;
+        }
+        modelSortState.remember(camera);
+
+        if (sortKeys.length < models.size()) {
+            sortKeys = new long[models.size()];
+        }
+        Vector3f forward = forward(camera);
+        Vector3f position = camera.getPosition();
+        for (int i = 0; i < models.size(); i++) {
+            ModelEntry entry = entries.get(models.get(i));
+            // Ближайшая к камере точка ограничивающей сферы
+            float depth = viewDepth(position, forward, entry.centerX, entry.centerY, entry.centerZ) - entry.radius;
+            sortKeys[i] = sortKey(depth, i);
+        }
+        Arrays.sort(sortKeys, 0, models.size());
+
+        sorted.clear();
+        for (int i = 0; i < models.size(); i++) {
+            sorted.add(models.get((int) sortKeys[i]));
+        }
+        lastModels.clear();
+        lastModels.addAll(models);
+
+        // Удалённые из сцены модели больше не держим
+        entries.keySet().retainAll(lastModels);
+        return sorted;
+    }
+
+    /**
+     * Порядок кластеров модели спереди назад. Кластер c - треугольники [c * CLUSTER_SIZE, (c + 1) * CLUSTER_SIZE).
+     */
+    public int[] sortClusters(Model model, Camera camera) {
+        ModelEntry entry = getEntry(model);
+        int clusterCount = entry.clusterCount;
+
+        float nearest = distance(camera.getPosition(), entry) - entry.radius;
+        if (entry.clusterOrderVersion == model.getGeometryVersion() && entry.clusterState.isCloseTo(camera, nearest)) {
+            return entry.clusterOrder;
+        }
+        entry.clusterOrderVersion = model.getGeometryVersion();
+        entry.clusterState.remember(camera);
+
+        if (sortKeys.length < clusterCount) {
+            sortKeys = new long[clusterCount];
+        }
+        Vector3f forward = forward(camera);
+        Vector3f position = camera.getPosition();
+        float[] centers = entry.clusterCenters;
+        // Центры хранятся в координатах модели, на глубину вдоль взгляда их переводит матрица модели
+        Matrix4f m = model.getModelMatrix();
+        float m00 = m.get(0, 0), m01 = m.get(0, 1), m02 = m.get(0, 2), m03 = m.get(0, 3);
+        float m10 = m.get(1, 0), m11 = m.get(1, 1), m12 = m.get(1, 2), m13 = m.get(1, 3);
+        float m20 = m.get(2, 0), m21 = m.get(2, 1), m22 = m.get(2, 2), m23 = m.get(2, 3);
+        for (int c = 0; c < clusterCount; c++) {
+            float x = centers[c * 3], y = centers[c * 3 + 1], z = centers[c * 3 + 2];
+            float depth = viewDepth(position, forward,
+                    m00 * x + m01 * y + m02 * z + m03,
+                    m10 * x + m11 * y + m12 * z + m13,
+                    m20 * x + m21 * y + m22 * z + m23);
+            sortKeys[c] = sortKey(depth, c);
+        }
+        Arrays.sort(sortKeys, 0, clusterCount);
+        for (int c = 0; c < clusterCount; c++) {
+            entry.clusterOrder[c] = (int) sortKeys[c];
+        }
+        return entry.clusterOrder;
+    }
+
+    public int getClusterCount(Model model) {
+        return getEntry(model).clusterCount;
+    }
+
+    private ModelEntry getEntry(Model model) {
+        ModelEntry entry = entries.get(model);
+        if (entry == null) {
+            entry = new ModelEntry();
+            entries.put(model, entry);
+        }
+        if (entry.version != model.getMeshVersion() || !entry.computed) {
+            entry.compute(model);
+        }
+        if (entry.transformVersion != model.getGeometryVersion()) {
+            entry.updateWorldBounds(model.getModelMatrix());
+            entry.transformVersion = model.getGeometryVersion();
+        }
+        return entry;
+    }
+
+    private static Vector3f forward(Camera camera) {
+        Vector3f position = camera.getPosition();
+        Vector3f target = camera.getTarget();
+        float dx = target.x - position.x, dy = target.y - position.y, dz = target.z - position.z;
+        float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (length < Vector3f.EPSILON) {
+            return new Vector3f(0, 0, -1);
+        }
+        return new Vector3f(dx / length, dy / length, dz / length);
+    }
+
+    private static float viewDepth(Vector3f position, Vector3f forward, float x, float y, float z) {
+        return (x - position.x) * forward.x + (y - position.y) * forward.y + (z - position.z) * forward.z;
+    }
+
+    private static float distance(Vector3f position, ModelEntry entry) {
+        float dx = entry.centerX - position.x, dy = entry.centerY - position.y, dz = entry.centerZ - position.z;
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    // Глубина в старших 32 битах (float, переведённый в целое с тем же порядком), индекс - в младших
+    private static long sortKey(float depth, int index) {
+        int bits = Float.floatToIntBits(depth);
+        bits ^= (bits >> 31) & 0x7FFFFFFF;
+        return ((long) bits << 32) | (index & 0xFFFFFFFFL);
+    }
+
+    private static final class CameraState {
+        private boolean valid;
+        private float x, y, z;
+        private float forwardX, forwardY, forwardZ;
+
+        boolean isCloseTo(Camera camera, float nearestDistance) {
+            if (!valid) {
+                return false;
+            }
+            Vector3f position = camera.getPosition();
+            float dx = position.x - x, dy = position.y - y, dz = position.z - z;
+            float threshold = REUSE_DISTANCE_FRACTION * Math.max(0, nearestDistance);
+            if (dx * dx + dy * dy + dz * dz > threshold * threshold) {
+                return false;
+            }
+            Vector3f forward = forward(camera);
+            return forward.x * forwardX + forward.y * forwardY + forward.z * forwardZ >= REUSE_MIN_COS;
+        }
+
+        void remember(Camera camera) {
+            Vector3f position = camera.getPosition();
+            Vector3f forward = forward(camera);
+            x = position.x;
+            y = position.y;
+            z = position.z;
+            forwardX = forward.x;
+            forwardY = forward.y;
+            forwardZ = forward.z;
+            valid = true;
+        }
+    }
+
+    private static final class ModelEntry {
+        boolean computed;
+        int version;
+        int transformVersion = -1;
+        int sortedVersion = -1;
+        // Ограничивающая сфера в координатах модели и в мировых
+        float localX, localY, localZ, localRadius;
+        float centerX, centerY, centerZ, radius;
+
+        int clusterCount;
+        float[] clusterCenters = new float[0];
+        int[] clusterOrder = new int[0];
+        int clusterOrderVersion = -1;
+        final CameraState clusterState = new CameraState();
+
+        void compute(Model model) {
+            float[] positions = model.vertices.getData();
+            int vertexCount = model.vertices.size();
+            float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+            float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+            for (int i = 0; i < vertexCount * 3; i += 3) {
+                minX = Math.min(minX, positions[i]);
+                minY = Math.min(minY, positions[i + 1]);
+                minZ = Math.min(minZ, positions[i + 2]);
+                maxX = Math.max(maxX, positions[i]);
+                maxY = Math.max(maxY, positions[i + 1]);
+                maxZ = Math.max(maxZ, positions[i + 2]);
+            }
+            if (vertexCount == 0) {
+                minX = minY = minZ = maxX = maxY = maxZ = 0;
+            }
+            localX = (minX + maxX) * 0.5f;
+            localY = (minY + maxY) * 0.5f;
+            localZ = (minZ + maxZ) * 0.5f;
+            float ex = maxX - localX, ey = maxY - localY, ez = maxZ - localZ;
+            localRadius = (float) Math.sqrt(ex * ex + ey * ey + ez * ez);
+
+            // Центр кластера - среднее первых вершин его треугольников
+            int triangleCount = model.polygons.size();
+            clusterCount = (triangleCount + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+            if (clusterOrder.length != clusterCount) {
+                clusterCenters = new float[clusterCount * 3];
+                clusterOrder = new int[clusterCount];
+            }
+            for (int c = 0; c < clusterCount; c++) {
+                int from = c * CLUSTER_SIZE;
+                int to = Math.min(triangleCount, from + CLUSTER_SIZE);
+                float sx = 0, sy = 0, sz = 0;
+                int count = 0;
+                for (int t = from; t < to; t++) {
+                    if (model.polygons.getFaceSize(t) == 0) {
+                        continue;
+                    }
+                    int first = model.polygons.getVertexIndex(model.polygons.getFaceStart(t));
+                    if (first < 0 || first >= vertexCount) {
+                        continue;
+                    }
+                    int p = first * 3;
+                    sx += positions[p];
+                    sy += positions[p + 1];
+                    sz += positions[p + 2];
+                    count++;
+                }
+                if (count > 0) {
+                    sx /= count;
+                    sy /= count;
+                    sz /= count;
+                }
+                clusterCenters[c * 3] = sx;
+                clusterCenters[c * 3 + 1] = sy;
+                clusterCenters[c * 3 + 2] = sz;
+                clusterOrder[c] = c;
+            }
+
+            version = model.getMeshVersion();
+            transformVersion = -1;
+            clusterOrderVersion = -1;
+            computed = true;
+        }
+
+        // Центр переводится матрицей модели, радиус растягивается на наибольший масштаб по осям
+        void updateWorldBounds(Matrix4f m) {
+            centerX = m.get(0, 0) * localX + m.get(0, 1) * localY + m.get(0, 2) * localZ + m.get(0, 3);
+            centerY = m.get(1, 0) * localX + m.get(1, 1) * localY + m.get(1, 2) * localZ + m.get(1, 3);
+            centerZ = m.get(2, 0) * localX + m.get(2, 1) * localY + m.get(2, 2) * localZ + m.get(2, 3);
+            float scale = 0;
+            for (int j = 0; j < 3; j++) {
+                float x = m.get(0, j), y = m.get(1, j), z = m.get(2, j);
+                scale = Math.max(scale, x * x + y * y + z * z);
+            }
+            radius = localRadius * (float) Math.sqrt(scale);
+        }
+    }
+}
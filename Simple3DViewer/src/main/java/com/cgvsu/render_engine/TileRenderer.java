@@ -0,0 +1,256 @@
+package com.cgvsu.render_engine;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Многопоточный растеризатор с разбиением экрана на тайлы.
+ * <p>
+ * Треугольники сначала копятся в порядке отправки, затем раскладываются по корзинам тайлов,
+ * и тайлы растеризуются параллельно в {@link ForkJoinPool}. Каждый тайл пишет только в свои пиксели
+ * Z-буфера и буфера цвета, поэтому блокировки не нужны. Внутри тайла треугольники идут в исходном порядке,
+ * а рёберные функции растеризатора точные, так что результат побитно совпадает с однопоточным.
+ */
+public class TileRenderer {
+
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    private final int tileSize;
+    private final int threadCount;
+    private final ForkJoinPool pool;
+    private final ThreadLocal<Rasterizer> rasterizers = ThreadLocal.withInitial(Rasterizer::new);
+
+    // Экранные координаты треугольников: x, y, z для трёх вершин
+    private float[] positions = new float[9 * 1024];
+    // Значения атрибутов: по три на атрибут, подряд для каждого треугольника
+    private float[] attributeValues = new float[3 * 1024];
+    private int[] attributeOffsets = new int[1024];
+    private int[] attributeCounts = new int[1024];
+    private Rasterizer.FragmentSink[] sinks = new Rasterizer.FragmentSink[1024];
+    private int triangleCount;
+    private int attributeValueCount;
+
+    private ZBuffer zBuffer;
+    private int tilesX;
+    private int tilesY;
+    private int[][] bins = new int[0][];
+    private int[] binSizes = new int[0];
+
+    public TileRenderer(int threadCount) {
+        this(threadCount, DEFAULT_TILE_SIZE);
+    }
+
+    public TileRenderer(int threadCount, int tileSize) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threadCount);
+        }
+        // Тайл должен состоять из целых блоков Z-буфера, иначе потоки делили бы блоки
+        if (tileSize < 1 || tileSize % ZBuffer.BLOCK_SIZE != 0) {
+            throw new IllegalArgumentException(
+                    "Tile size must be a positive multiple of " + ZBuffer.BLOCK_SIZE + ": " + tileSize);
+        }
+        this.threadCount = threadCount;
+        this.tileSize = tileSize;
+        this.pool = new ForkJoinPool(threadCount);
+    }
+
+    public void begin(ZBuffer zBuffer) {
+        this.zBuffer = zBuffer;
+        triangleCount = 0;
+        attributeValueCount = 0;
+
+        tilesX = (zBuffer.getWidth() + tileSize - 1) / tileSize;
+        tilesY = (zBuffer.getHeight() + tileSize - 1) / tileSize;
+        int tileCount = tilesX * tilesY;
+        if (bins.length != tileCount) {
+            bins = new int[tileCount][];
+            binSizes = new int[tileCount];
+            for (int i = 0; i < tileCount; i++) {
+                bins[i] = new int[64];
+            }
+        }
+    }
+
+    /**
+     * Добавляет треугольник. Атрибуты и приёмник фрагментов задаются следом
+     * через {@link #setAttribute} и {@link #setSink}.
+     */
+    public void addTriangle(
+            float sx0, float sy0, float sz0,
+            float sx1, float sy1, float sz1,
+            float sx2, float sy2, float sz2) {
+
+        if (triangleCount == sinks.length) {
+            int capacity = sinks.length * 2;
+            positions = Arrays.copyOf(positions, capacity * 9);
+            attributeOffsets = Arrays.copyOf(attributeOffsets, capacity);
+            attributeCounts = Arrays.copyOf(attributeCounts, capacity);
+            sinks = Arrays.copyOf(sinks, capacity);
+        }
+
+        int base = triangleCount * 9;
+        positions[base] = sx0;
+        positions[base + 1] = sy0;
+        positions[base + 2] = sz0;
+        positions[base + 3] = sx1;
+        positions[base + 4] = sy1;
+        positions[base + 5] = sz1;
+        positions[base + 6] = sx2;
+        positions[base + 7] = sy2;
+        positions[base + 8] = sz2;
+
+        attributeOffsets[triangleCount] = attributeValueCount;
+        attributeCounts[triangleCount] = 0;
+        sinks[triangleCount] = null;
+        triangleCount++;
+    }
+
+    /**
+     * Атрибут последнего добавленного треугольника. Индексы должны идти подряд с нуля.
+     */
+    public void setAttribute(int index, float a0, float a1, float a2) {
+        int triangle = triangleCount - 1;
+        int offset = attributeOffsets[triangle] + index * 3;
+        if (offset + 3 > attributeValues.length) {
+            attributeValues = Arrays.copyOf(attributeValues, Math.max(attributeValues.length * 2, offset + 3));
+        }
+        attributeValues[offset] = a0;
+        attributeValues[offset + 1] = a1;
+        attributeValues[offset + 2] = a2;
+
+        if (index >= attributeCounts[triangle]) {
+            attributeCounts[triangle] = index + 1;
+            attributeValueCount = attributeOffsets[triangle] + (index + 1) * 3;
+        }
+    }
+
+    public void setSink(Rasterizer.FragmentSink sink) {
+        sinks[triangleCount - 1] = sink;
+    }
+
+    /**
+     * Раскладывает накопленные треугольники по тайлам и растеризует их. Возвращается после завершения всех тайлов.
+     */
+    public void end() {
+        if (triangleCount == 0) {
+            return;
+        }
+        binTriangles();
+        pool.invoke(new TileTask(0, bins.length));
+        // Не держим ссылки на замыкания кадра
+        Arrays.fill(sinks, 0, triangleCount, null);
+        triangleCount = 0;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private void binTriangles() {
+        Arrays.fill(binSizes, 0);
+
+        int width = zBuffer.getWidth();
+        int height = zBuffer.getHeight();
+
+        for (int t = 0; t < triangleCount; t++) {
+            if (sinks[t] == null) {
+                continue;
+            }
+            int base = t * 9;
+            float minX = Math.min(positions[base], Math.min(positions[base + 3], positions[base + 6]));
+            float maxX = Math.max(positions[base], Math.max(positions[base + 3], positions[base + 6]));
+            float minY = Math.min(positions[base + 1], Math.min(positions[base + 4], positions[base + 7]));
+            float maxY = Math.max(positions[base + 1], Math.max(positions[base + 4], positions[base + 7]));
+
+            // NaN сюда тоже попадает и отбрасывается
+            if (!(maxX >= 0 && maxY >= 0 && minX < width && minY < height)) {
+                continue;
+            }
+
+            int tileMinX = (int) Math.max(0, minX) / tileSize;
+            int tileMinY = (int) Math.max(0, minY) / tileSize;
+            int tileMaxX = (int) Math.min(width - 1, maxX) / tileSize;
+            int tileMaxY = (int) Math.min(height - 1, maxY) / tileSize;
+
+            for (int ty = tileMinY; ty <= tileMaxY; ty++) {
+                for (int tx = tileMinX; tx <= tileMaxX; tx++) {
+                    int tile = ty * tilesX + tx;
+                    int size = binSizes[tile];
+                    if (size == bins[tile].length) {
+                        bins[tile] = Arrays.copyOf(bins[tile], size * 2);
+                    }
+                    bins[tile][size] = t;
+                    binSizes[tile] = size + 1;
+                }
+            }
+        }
+    }
+
+    private void rasterizeTile(int tile) {
+        int size = binSizes[tile];
+        if (size == 0) {
+            return;
+        }
+
+        int tileMinX = (tile % tilesX) * tileSize;
+        int tileMinY = (tile / tilesX) * tileSize;
+        int tileMaxX = Math.min(zBuffer.getWidth(), tileMinX + tileSize) - 1;
+        int tileMaxY = Math.min(zBuffer.getHeight(), tileMinY + tileSize) - 1;
+
+        Rasterizer rasterizer = rasterizers.get();
+        int[] bin = bins[tile];
+
+        for (int i = 0; i < size; i++) {
+            int t = bin[i];
+            int base = t * 9;
+            if (!rasterizer.setup(
+                    positions[base], positions[base + 1], positions[base + 2],
+                    positions[base + 3], positions[base + 4], positions[base + 5],
+                    positions[base + 6], positions[base + 7], positions[base + 8],
+                    tileMinX, tileMinY, tileMaxX, tileMaxY)) {
+                continue;
+            }
+
+            int offset = attributeOffsets[t];
+            for (int a = 0; a < attributeCounts[t]; a++) {
+                int o = offset + a * 3;
+                rasterizer.setAttribute(a, attributeValues[o], attributeValues[o + 1], attributeValues[o + 2]);
+            }
+
+            rasterizer.rasterize(zBuffer, sinks[t]);
+        }
+    }
+
+    private class TileTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        TileTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                rasterizeTile(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new TileTask(from, middle), new TileTask(middle, to));
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.cgvsu.render_engine;
+
+/**
+ * Сборка треугольника перед растеризацией: отсечение в clip space, атрибуты вершин и отправка
+ * в растеризатор (однопоточный режим) или в {@link TileRenderer}.
+ * <p>
+ * Шейдер задаёт атрибуты в трёх исходных вершинах через {@link #setAttribute}; если треугольник был отсечён,
+ * значения для кусков пересчитываются по барицентрическим весам сами. Экземпляр не потокобезопасен.
+ */
+public class TriangleSetup {
+    private final Rasterizer rasterizer = new Rasterizer();
+    private final Clipper clipper = new Clipper();
+
+    private VertexProcessor vertexProcessor;
+    private ZBuffer zBuffer;
+    private TileRenderer tileRenderer;
+
+    private int i1, i2, i3;
+    // 0 - треугольник не отсекался и берётся из кэша вершин, иначе число вершин многоугольника в clipper
+    private int clippedVertexCount;
+    private final float[] attributes = new float[Rasterizer.MAX_ATTRIBUTES * 3];
+    private int attributeCount;
+
+    // Отложенное затенение: линейные функции пикселя, сумма которых нормирует барицентрические координаты
+    private float l0x, l0y, l0c, l1x, l1y, l1c, l2x, l2y, l2c;
+
+    /**
+     * Начало модели. tileRenderer == null - растеризация сразу в текущем потоке.
+     */
+    void begin(VertexProcessor vertexProcessor, ZBuffer zBuffer, TileRenderer tileRenderer) {
+        this.vertexProcessor = vertexProcessor;
+        this.zBuffer = zBuffer;
+        this.tileRenderer = tileRenderer;
+    }
+
+    /**
+     * Начало треугольника. Если он пересекает ближнюю или дальнюю плоскость либо вылезает за guard band,
+     * он отсекается, и дальше вместо него растеризуется веер из кусков.
+     *
+     * @return false, если от треугольника ничего не осталось
+     */
+    boolean setup(int i1, int i2, int i3) {
+        VertexProcessor v = vertexProcessor;
+        this.i1 = i1;
+        this.i2 = i2;
+        this.i3 = i3;
+        attributeCount = 0;
+
+        int planes = (v.getOutcode(i1) | v.getOutcode(i2) | v.getOutcode(i3)) & Clipper.CLIP_MASK;
+        if (planes == 0) {
+            clippedVertexCount = 0;
+            return true;
+        }
+        clippedVertexCount = clipper.clipTriangle(
+                v.getClip(), i1, i2, i3, planes, zBuffer.getWidth(), zBuffer.getHeight());
+        return clippedVertexCount >= 3;
+    }
+
+    /**
+     * Значения атрибута в вершинах треугольника в порядке, переданном в setup. Индексы идут подряд с нуля.
+     */
+    public void setAttribute(int index, float a0, float a1, float a2) {
+        int offset = index * 3;
+        attributes[offset] = a0;
+        attributes[offset + 1] = a1;
+        attributes[offset + 2] = a2;
+        if (index >= attributeCount) {
+            attributeCount = index + 1;
+        }
+    }
+
+    public int getVertexIndex(int corner) {
+        return corner == 0 ? i1 : corner == 1 ? i2 : i3;
+    }
+
+    /**
+     * Площадь исходного треугольника на экране в пикселях. Для отсечённого треугольника
+     * она оценивается по оставшейся части, так как вершины за камерой на экран не проецируются.
+     */
+    public float getScreenArea() {
+        if (clippedVertexCount == 0) {
+            VertexProcessor v = vertexProcessor;
+            float ux = v.getScreenX(i2) - v.getScreenX(i1), uy = v.getScreenY(i2) - v.getScreenY(i1);
+            float vx = v.getScreenX(i3) - v.getScreenX(i1), vy = v.getScreenY(i3) - v.getScreenY(i1);
+            return Math.abs(ux * vy - uy * vx) * 0.5f;
+        }
+        float coverage = clipper.getCoverage();
+        return coverage > 0 ? clipper.getScreenArea() / coverage : 0;
+    }
+
+    public int getAttributeCount() {
+        return attributeCount;
+    }
+
+    /**
+     * Подготовка к восстановлению барицентрических координат по пикселю (отложенное затенение).
+     * Неотсечённый треугольник интерполируется линейно на экране, как в растеризаторе.
+     * У отсечённого вершины за камерой на экран не проецируются, поэтому координаты
+     * восстанавливаются в однородном пространстве по (x, y, w).
+     *
+     * @return false, если треугольник вырожден
+     */
+    boolean prepareReconstruction() {
+        VertexProcessor v = vertexProcessor;
+        if (clippedVertexCount == 0) {
+            float x0 = v.getScreenX(i1), y0 = v.getScreenY(i1);
+            float x1 = v.getScreenX(i2), y1 = v.getScreenY(i2);
+            float x2 = v.getScreenX(i3), y2 = v.getScreenY(i3);
+            float area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+            if (area == 0) {
+                return false;
+            }
+            float inverse = 1.0f / area;
+            l1x = (y2 - y0) * inverse;
+            l1y = -(x2 - x0) * inverse;
+            l1c = -x0 * l1x - y0 * l1y;
+            l2x = -(y1 - y0) * inverse;
+            l2y = (x1 - x0) * inverse;
+            l2c = -x0 * l2x - y0 * l2y;
+            l0x = -l1x - l2x;
+            l0y = -l1y - l2y;
+            l0c = 1 - l1c - l2c;
+            return true;
+        }
+
+        // Строки обратной матрицы к столбцам (x, y, w) вершин - векторные произведения двух других вершин
+        float[] clip = v.getClip();
+        int a = i1 * 4, b = i2 * 4, c = i3 * 4;
+        float x0 = clip[a], y0 = clip[a + 1], w0 = clip[a + 3];
+        float x1 = clip[b], y1 = clip[b + 1], w1 = clip[b + 3];
+        float x2 = clip[c], y2 = clip[c + 1], w2 = clip[c + 3];
+
+        float halfWidth = zBuffer.getWidth() / 2.0F;
+        float halfHeight = zBuffer.getHeight() / 2.0F;
+
+        // lambda = cx * ndcX + cy * ndcY + cw, где ndcX = px / hw - 1, ndcY = 1 - py / hh
+        float cx = y1 * w2 - w1 * y2, cy = w1 * x2 - x1 * w2, cw = x1 * y2 - y1 * x2;
+        l0x = cx / halfWidth;
+        l0y = -cy / halfHeight;
+        l0c = cw - cx + cy;
+        cx = y2 * w0 - w2 * y0;
+        cy = w2 * x0 - x2 * w0;
+        cw = x2 * y0 - y2 * x0;
+        l1x = cx / halfWidth;
+        l1y = -cy / halfHeight;
+        l1c = cw - cx + cy;
+        cx = y0 * w1 - w0 * y1;
+        cy = w0 * x1 - x0 * w1;
+        cw = x0 * y1 - y0 * x1;
+        l2x = cx / halfWidth;
+        l2y = -cy / halfHeight;
+        l2c = cw - cx + cy;
+        return true;
+    }
+
+    /**
+     * Значения атрибутов в центре пикселя после {@link #prepareReconstruction()}.
+     */
+    void interpolateAt(int x, int y, float[] out) {
+        float px = x + 0.5f;
+        float py = y + 0.5f;
+        float lambda0 = l0x * px + l0y * py + l0c;
+        float lambda1 = l1x * px + l1y * py + l1c;
+        float lambda2 = l2x * px + l2y * py + l2c;
+        float inverse = 1.0f / (lambda0 + lambda1 + lambda2);
+        float b1 = lambda1 * inverse;
+        float b2 = lambda2 * inverse;
+
+        for (int i = 0; i < attributeCount; i++) {
+            int offset = i * 3;
+            float a0 = attributes[offset];
+            out[i] = a0 + b1 * (attributes[offset + 1] - a0) + b2 * (attributes[offset + 2] - a0);
+        }
+    }
+
+    // В однопоточном режиме треугольник сразу уходит в растеризатор, иначе копится в тайлах до конца модели
+    void submit(Rasterizer.FragmentSink sink) {
+        if (clippedVertexCount == 0) {
+            VertexProcessor v = vertexProcessor;
+            if (!addTriangle(
+                    v.getScreenX(i1), v.getScreenY(i1), v.getScreenZ(i1),
+                    v.getScreenX(i2), v.getScreenY(i2), v.getScreenZ(i2),
+                    v.getScreenX(i3), v.getScreenY(i3), v.getScreenZ(i3))) {
+                return;
+            }
+            for (int i = 0; i < attributeCount; i++) {
+                int offset = i * 3;
+                addAttribute(i, attributes[offset], attributes[offset + 1], attributes[offset + 2]);
+            }
+            emit(sink);
+            return;
+        }
+
+        // Отсечённый многоугольник выпуклый, режем его веером от первой вершины
+        Clipper p = clipper;
+        for (int k = 1; k + 1 < clippedVertexCount; k++) {
+            if (!addTriangle(
+                    p.getScreenX(0), p.getScreenY(0), p.getScreenZ(0),
+                    p.getScreenX(k), p.getScreenY(k), p.getScreenZ(k),
+                    p.getScreenX(k + 1), p.getScreenY(k + 1), p.getScreenZ(k + 1))) {
+                continue;
+            }
+            for (int i = 0; i < attributeCount; i++) {
+                int offset = i * 3;
+                float a0 = attributes[offset];
+                float a1 = attributes[offset + 1];
+                float a2 = attributes[offset + 2];
+                addAttribute(i,
+                        p.interpolate(0, a0, a1, a2),
+                        p.interpolate(k, a0, a1, a2),
+                        p.interpolate(k + 1, a0, a1, a2));
+            }
+            emit(sink);
+        }
+    }
+
+    private boolean addTriangle(
+            float sx0, float sy0, float sz0,
+            float sx1, float sy1, float sz1,
+            float sx2, float sy2, float sz2) {
+        if (tileRenderer != null) {
+            tileRenderer.addTriangle(sx0, sy0, sz0, sx1, sy1, sz1, sx2, sy2, sz2);
+            return true;
+        }
+        return rasterizer.setup(
+                sx0, sy0, sz0, sx1, sy1, sz1, sx2, sy2, sz2,
+                0, 0, zBuffer.getWidth() - 1, zBuffer.getHeight() - 1);
+    }
+
+    private void addAttribute(int index, float a0, float a1, float a2) {
+        if (tileRenderer != null) {
+            tileRenderer.setAttribute(index, a0, a1, a2);
+        } else {
+            rasterizer.setAttribute(index, a0, a1, a2);
+        }
+    }
+
+    private void emit(Rasterizer.FragmentSink sink) {
+        if (tileRenderer != null) {
+            tileRenderer.setSink(sink);
+        } else {
+            rasterizer.rasterize(zBuffer, sink);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.cgvsu.render_engine;
+
+import com.cgvsu.math.matrix.Matrix4f;
+import com.cgvsu.math.vector.Vector3f;
+import com.cgvsu.model.Vector3fArray;
+
+import java.util.List;
+
+/**
+ * Стадия обработки вершин: каждая вершина модели переводится в clip space и на экран ровно один раз за кадр.
+ * Результат лежит в примитивных массивах, и цикл по треугольникам только индексирует их.
+ * Экранные координаты имеют смысл только для вершин, которым не нужно отсечение (см. {@link #getOutcode}).
+ */
+public class VertexProcessor {
+    // x, y, z, w в clip space
+    private float[] clip = new float[0];
+    // x, y в пикселях и z в NDC
+    private float[] screen = new float[0];
+    // Биты Clipper.OUTSIDE_* для каждой вершины
+    private int[] outcodes = new int[0];
+    private int vertexCount;
+
+    public void process(List<Vector3f> vertices, Matrix4f matrix, int width, int height) {
+        if (vertices instanceof Vector3fArray) {
+            process(((Vector3fArray) vertices).getData(), vertices.size(), matrix, width, height);
+            return;
+        }
+        float[] positions = new float[vertices.size() * 3];
+        for (int i = 0; i < vertices.size(); i++) {
+            Vector3f v = vertices.get(i);
+            positions[i * 3] = v.x;
+            positions[i * 3 + 1] = v.y;
+            positions[i * 3 + 2] = v.z;
+        }
+        process(positions, vertices.size(), matrix, width, height);
+    }
+
+    /**
+     * @param positions координаты вершин подряд по три числа, как в {@link Vector3fArray#getData()}
+     */
+    public void process(float[] positions, int count, Matrix4f matrix, int width, int height) {
+        vertexCount = count;
+        if (clip.length < vertexCount * 4) {
+            clip = new float[vertexCount * 4];
+            screen = new float[vertexCount * 3];
+            outcodes = new int[vertexCount];
+        }
+
+        final float m00 = matrix.get(0, 0), m01 = matrix.get(0, 1), m02 = matrix.get(0, 2), m03 = matrix.get(0, 3);
+        final float m10 = matrix.get(1, 0), m11 = matrix.get(1, 1), m12 = matrix.get(1, 2), m13 = matrix.get(1, 3);
+        final float m20 = matrix.get(2, 0), m21 = matrix.get(2, 1), m22 = matrix.get(2, 2), m23 = matrix.get(2, 3);
+        final float m30 = matrix.get(3, 0), m31 = matrix.get(3, 1), m32 = matrix.get(3, 2), m33 = matrix.get(3, 3);
+
+        final float halfWidth = width / 2.0F;
+        final float halfHeight = height / 2.0F;
+
+        for (int i = 0; i < vertexCount; i++) {
+            int p = i * 3;
+            float vx = positions[p], vy = positions[p + 1], vz = positions[p + 2];
+
+            float x = m00 * vx + m01 * vy + m02 * vz + m03;
+            float y = m10 * vx + m11 * vy + m12 * vz + m13;
+            float z = m20 * vx + m21 * vy + m22 * vz + m23;
+            float w = m30 * vx + m31 * vy + m32 * vz + m33;
+
+            int c = i * 4;
+            clip[c] = x;
+            clip[c + 1] = y;
+            clip[c + 2] = z;
+            clip[c + 3] = w;
+            outcodes[i] = Clipper.outcode(x, y, z, w);
+
+            // Перспективное деление и перевод в пиксели, как в GraphicConveyor.vertexToPoint
+            int s = i * 3;
+            screen[s] = (x / w) * halfWidth + halfWidth;
+            screen[s + 1] = -(y / w) * halfHeight + halfHeight;
+            screen[s + 2] = z / w;
+        }
+    }
+
+    /**
+     * Направление обхода берётся из определителя однородных координат (x, y, w) в clip space.
+     * Его знак совпадает со знаком площади на экране, но не требует деления на w
+     * и остаётся верным для вершин за камерой.
+     */
+    public boolean isCulled(CullMode cullMode, int i1, int i2, int i3) {
+        if (cullMode == CullMode.NONE) {
+            return false;
+        }
+
+        int a = i1 * 4, b = i2 * 4, c = i3 * 4;
+        float x1 = clip[a], y1 = clip[a + 1], w1 = clip[a + 3];
+        float x2 = clip[b], y2 = clip[b + 1], w2 = clip[b + 3];
+        float x3 = clip[c], y3 = clip[c + 1], w3 = clip[c + 3];
+
+        float determinant = x1 * (y2 * w3 - w2 * y3)
+                - y1 * (x2 * w3 - w2 * x3)
+                + w1 * (x2 * y3 - y2 * x3);
+
+        // В NDC ось y смотрит вверх, поэтому лицевая грань даёт положительный определитель
+        boolean frontFacing = determinant > 0;
+        return cullMode == CullMode.BACK ? !frontFacing : frontFacing;
+    }
+
+    /**
+     * Все вершины снаружи одной плоскости пирамиды видимости.
+     */
+    public boolean isOutsideFrustum(int i1, int i2, int i3) {
+        return (outcodes[i1] & outcodes[i2] & outcodes[i3] & Clipper.FRUSTUM_MASK) != 0;
+    }
+
+    public float getScreenX(int index) {
+        return screen[index * 3];
+    }
+
+    public float getScreenY(int index) {
+        return screen[index * 3 + 1];
+    }
+
+    public float getScreenZ(int index) {
+        return screen[index * 3 + 2];
+    }
+
+    public float getClipW(int index) {
+        return clip[index * 4 + 3];
+    }
+
+    public int getOutcode(int index) {
+        return outcodes[index];
+    }
+
+    public float[] getClip() {
+        return clip;
+    }
+
+    public float[] getScreen() {
+        return screen;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+}
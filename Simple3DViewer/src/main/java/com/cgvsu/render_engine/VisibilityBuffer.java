@@ -0,0 +1,48 @@
+package com.cgvsu.render_engine;
+
+import java.util.Arrays;
+
+/**
+ * Буфер видимости для отложенного затенения: для каждого пикселя - какая модель и какой её треугольник
+ * оказались ближайшими. Хранится по строкам, как {@link ZBuffer}.
+ */
+public class VisibilityBuffer {
+    public static final int EMPTY = -1;
+
+    private final int[] models;
+    private final int[] triangles;
+    private final int width;
+    private final int height;
+
+    public VisibilityBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.models = new int[width * height];
+        this.triangles = new int[width * height];
+        clear();
+    }
+
+    public void clear() {
+        Arrays.fill(models, EMPTY);
+    }
+
+    public void set(int x, int y, int model, int triangle) {
+        int index = y * width + x;
+        models[index] = model;
+        triangles[index] = triangle;
+    }
+
+    /**
+     * Номер модели в пикселе с индексом y * width + x, либо {@link #EMPTY}.
+     */
+    public int getModel(int index) {
+        return models[index];
+    }
+
+    public int getTriangle(int index) {
+        return triangles[index];
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+}
@@ -1,29 +1,56 @@
 package com.cgvsu.render_engine;
 
+import java.util.Arrays;
+
+/**
+ * Буфер глубины по строкам с грубым иерархическим уровнем.
+ * <p>
+ * Для каждого блока {@value #BLOCK_SIZE}x{@value #BLOCK_SIZE} хранится максимальная глубина.
+ * Если ближайшая точка треугольника не ближе этого максимума, ни один пиксель блока тест не пройдёт,
+ * и блок можно пропустить целиком. Запись пикселя только уменьшает глубину, поэтому устаревший максимум остаётся
+ * верной оценкой сверху. Пересчёт (чтение всех пикселей блока) делается при запросе, только когда в блок
+ * записано не меньше пикселей, чем в нём есть, - так на запись приходится не больше одного чтения,
+ * сколько бы мелких треугольников ни проверяли блок.
+ * Блоки не пересекают тайлы {@link TileRenderer}, поэтому разные потоки работают с разными блоками.
+ */
 public class ZBuffer {
-    private final float[][] buffer;
+    public static final int BLOCK_SHIFT = 3;
+    public static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    private final float[] buffer;
     private final int width;
     private final int height;
 
+    private final float[] blockMaxDepth;
+    // Записи в блок с последнего пересчёта максимума
+    private final int[] blockWrites;
+    private final int blocksX;
+    private final int blocksY;
+
     public ZBuffer(int width, int height) {
         this.width = width;
         this.height = height;
-        this.buffer = new float[width][height];
+        this.buffer = new float[width * height];
+
+        this.blocksX = (width + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+        this.blocksY = (height + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+        this.blockMaxDepth = new float[blocksX * blocksY];
+        this.blockWrites = new int[blocksX * blocksY];
         clear();
     }
 
     public void clear() {
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                buffer[x][y] = Float.MAX_VALUE;
-            }
-        }
+        Arrays.fill(buffer, Float.MAX_VALUE);
+        Arrays.fill(blockMaxDepth, Float.MAX_VALUE);
+        Arrays.fill(blockWrites, 0);
     }
 
     public boolean testAndSet(int x, int y, float depth) {
         if (x >= 0 && x < width && y >= 0 && y < height) {
-            if (depth < buffer[x][y]) {
-                buffer[x][y] = depth;
+            int index = y * width + x;
+            if (depth < buffer[index]) {
+                buffer[index] = depth;
+                blockWrites[(y >> BLOCK_SHIFT) * blocksX + (x >> BLOCK_SHIFT)]++;
                 return true;
             }
         }
@@ -31,9 +58,64 @@ public class ZBuffer {
     }
 
     public float get(int x, int y) {
-        return buffer[x][y];
+        return buffer[y * width + x];
+    }
+
+    /**
+     * Оценка сверху максимальной глубины в блоке. Координаты - в блоках, а не в пикселях.
+     */
+    public float getBlockMaxDepth(int blockX, int blockY) {
+        int block = blockY * blocksX + blockX;
+        if (blockWrites[block] >= getBlockPixelCount(blockX, blockY)) {
+            blockMaxDepth[block] = computeBlockMax(blockX, blockY);
+            blockWrites[block] = 0;
+        }
+        return blockMaxDepth[block];
+    }
+
+    // Блоки у правого и нижнего краёв могут быть неполными
+    private int getBlockPixelCount(int blockX, int blockY) {
+        int x0 = blockX << BLOCK_SHIFT;
+        int y0 = blockY << BLOCK_SHIFT;
+        return (Math.min(width, x0 + BLOCK_SIZE) - x0) * (Math.min(height, y0 + BLOCK_SIZE) - y0);
+    }
+
+    /**
+     * Проверка, что прямоугольник (в пикселях, включительно) целиком закрыт уже нарисованной геометрией
+     * для всех глубин не ближе minDepth.
+     */
+    public boolean isOccluded(int minX, int minY, int maxX, int maxY, float minDepth) {
+        for (int by = minY >> BLOCK_SHIFT; by <= maxY >> BLOCK_SHIFT; by++) {
+            for (int bx = minX >> BLOCK_SHIFT; bx <= maxX >> BLOCK_SHIFT; bx++) {
+                if (minDepth < getBlockMaxDepth(bx, by)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private float computeBlockMax(int blockX, int blockY) {
+        int x0 = blockX << BLOCK_SHIFT;
+        int y0 = blockY << BLOCK_SHIFT;
+        int x1 = Math.min(width, x0 + BLOCK_SIZE);
+        int y1 = Math.min(height, y0 + BLOCK_SIZE);
+
+        float max = 0;
+        boolean first = true;
+        for (int y = y0; y < y1; y++) {
+            int row = y * width;
+            for (int x = x0; x < x1; x++) {
+                float depth = buffer[row + x];
+                if (first || depth > max) {
+                    max = depth;
+                    first = false;
+                }
+            }
+        }
+        return max;
     }
 
     public int getWidth() { return width; }
     public int getHeight() { return height; }
-}
\ No newline at end of file
+}
@@ -0,0 +1,29 @@
+package com.cgvsu.render_engine.shading;
+
+import com.cgvsu.math.vector.Vector3f;
+import com.cgvsu.render_engine.FrameBuffer;
+import com.cgvsu.render_engine.TriangleSetup;
+
+/**
+ * Заливка цветом модели без освещения.
+ */
+public final class ColorShader implements FragmentShader {
+    private FrameBuffer frameBuffer;
+    private int argb;
+
+    @Override
+    public void begin(ShadingContext context) {
+        frameBuffer = context.getFrameBuffer();
+        Vector3f color = context.getModel().getColor();
+        argb = FrameBuffer.packRgb(color.x, color.y, color.z);
+    }
+
+    @Override
+    public void setupTriangle(ShadingContext context, int face, TriangleSetup triangle) {
+    }
+
+    @Override
+    public void fragment(int x, int y, float z, float[] attributes) {
+        frameBuffer.setArgb(x, y, argb);
+    }
+}
@@ -0,0 +1,25 @@
+package com.cgvsu.render_engine.shading;
+
+import com.cgvsu.render_engine.Rasterizer;
+import com.cgvsu.render_engine.TriangleSetup;
+
+/**
+ * Шейдер модели. Выбирается один раз на модель за кадр, поэтому внутренний цикл растеризатора
+ * всегда вызывает одну и ту же реализацию.
+ * <p>
+ * {@link #fragment}, а в отложенном режиме и {@link #setupTriangle}, вызываются из нескольких потоков сразу,
+ * поэтому между {@link #begin} и концом модели шейдер может только читать свои поля.
+ */
+public interface FragmentShader extends Rasterizer.FragmentSink {
+
+    /**
+     * Подготовка к отрисовке модели: здесь читаются цвет, текстура, позиция камеры и т.п.
+     */
+    void begin(ShadingContext context);
+
+    /**
+     * Атрибуты вершин треугольника face из {@link com.cgvsu.model.Model#polygons}.
+     * Индексы вершин - {@link TriangleSetup#getVertexIndex}.
+     */
+    void setupTriangle(ShadingContext context, int face, TriangleSetup triangle);
+}
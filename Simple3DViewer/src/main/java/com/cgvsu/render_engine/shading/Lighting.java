@@ -0,0 +1,117 @@
+package com.cgvsu.render_engine.shading;
+
+import com.cgvsu.math.matrix.Matrix4f;
+import com.cgvsu.model.Model;
+import com.cgvsu.render_engine.TriangleSetup;
+
+/**
+ * Освещение точечным источником в позиции камеры.
+ * <p>
+ * Атрибуты 0-2 - нормаль, 3-5 - вектор от поверхности к камере. Вектор к свету линеен по треугольнику,
+ * поэтому интерполируется точно, и на пиксель остаются одно скалярное произведение и один корень.
+ */
+public final class Lighting {
+    public static final int ATTRIBUTE_COUNT = 6;
+
+    public static final float AMBIENT_LIGHT = 0.3f;
+    public static final float DIFFUSE_INTENSITY = 0.7f;
+
+    private Lighting() {
+    }
+
+    public static void setupAttributes(
+            ShadingContext context, int face, TriangleSetup triangle,
+            float cameraX, float cameraY, float cameraZ) {
+        Model model = context.getModel();
+        float[] positions = context.getVertices().getData();
+        int i1 = triangle.getVertexIndex(0) * 3;
+        int i2 = triangle.getVertexIndex(1) * 3;
+        int i3 = triangle.getVertexIndex(2) * 3;
+        float px1 = positions[i1], py1 = positions[i1 + 1], pz1 = positions[i1 + 2];
+        float px2 = positions[i2], py2 = positions[i2 + 1], pz2 = positions[i2 + 2];
+        float px3 = positions[i3], py3 = positions[i3 + 1], pz3 = positions[i3 + 2];
+
+        // Освещение считается в мировых координатах: вершины переводятся матрицей модели, нормали - матрицей нормалей
+        Matrix4f m = context.getModelMatrix();
+        float m00 = m.get(0, 0), m01 = m.get(0, 1), m02 = m.get(0, 2), m03 = m.get(0, 3);
+        float m10 = m.get(1, 0), m11 = m.get(1, 1), m12 = m.get(1, 2), m13 = m.get(1, 3);
+        float m20 = m.get(2, 0), m21 = m.get(2, 1), m22 = m.get(2, 2), m23 = m.get(2, 3);
+        float x1 = m00 * px1 + m01 * py1 + m02 * pz1 + m03;
+        float y1 = m10 * px1 + m11 * py1 + m12 * pz1 + m13;
+        float z1 = m20 * px1 + m21 * py1 + m22 * pz1 + m23;
+        float x2 = m00 * px2 + m01 * py2 + m02 * pz2 + m03;
+        float y2 = m10 * px2 + m11 * py2 + m12 * pz2 + m13;
+        float z2 = m20 * px2 + m21 * py2 + m22 * pz2 + m23;
+        float x3 = m00 * px3 + m01 * py3 + m02 * pz3 + m03;
+        float y3 = m10 * px3 + m11 * py3 + m12 * pz3 + m13;
+        float z3 = m20 * px3 + m21 * py3 + m22 * pz3 + m23;
+
+        int corner = model.polygons.getFaceStart(face);
+        int normalCount = model.normals.size();
+        int n1 = model.polygons.getNormalIndex(corner);
+        int n2 = model.polygons.getNormalIndex(corner + 1);
+        int n3 = model.polygons.getNormalIndex(corner + 2);
+
+        if (isValid(n1, normalCount) && isValid(n2, normalCount) && isValid(n3, normalCount)) {
+            float[] normals = model.normals.getData();
+            n1 *= 3;
+            n2 *= 3;
+            n3 *= 3;
+            float nx1 = normals[n1], ny1 = normals[n1 + 1], nz1 = normals[n1 + 2];
+            float nx2 = normals[n2], ny2 = normals[n2 + 1], nz2 = normals[n2 + 2];
+            float nx3 = normals[n3], ny3 = normals[n3 + 1], nz3 = normals[n3 + 2];
+            Matrix4f n = context.getNormalMatrix();
+            float n00 = n.get(0, 0), n01 = n.get(0, 1), n02 = n.get(0, 2);
+            float n10 = n.get(1, 0), n11 = n.get(1, 1), n12 = n.get(1, 2);
+            float n20 = n.get(2, 0), n21 = n.get(2, 1), n22 = n.get(2, 2);
+            triangle.setAttribute(0,
+                    n00 * nx1 + n01 * ny1 + n02 * nz1,
+                    n00 * nx2 + n01 * ny2 + n02 * nz2,
+                    n00 * nx3 + n01 * ny3 + n02 * nz3);
+            triangle.setAttribute(1,
+                    n10 * nx1 + n11 * ny1 + n12 * nz1,
+                    n10 * nx2 + n11 * ny2 + n12 * nz2,
+                    n10 * nx3 + n11 * ny3 + n12 * nz3);
+            triangle.setAttribute(2,
+                    n20 * nx1 + n21 * ny1 + n22 * nz1,
+                    n20 * nx2 + n21 * ny2 + n22 * nz2,
+                    n20 * nx3 + n21 * ny3 + n22 * nz3);
+        } else {
+            // Нормалей нет - берём нормаль грани, длина не важна: в пикселе всё равно нормируем
+            float ux = x2 - x1, uy = y2 - y1, uz = z2 - z1;
+            float vx = x3 - x1, vy = y3 - y1, vz = z3 - z1;
+            float nx = uy * vz - uz * vy;
+            float ny = uz * vx - ux * vz;
+            float nz = ux * vy - uy * vx;
+            triangle.setAttribute(0, nx, nx, nx);
+            triangle.setAttribute(1, ny, ny, ny);
+            triangle.setAttribute(2, nz, nz, nz);
+        }
+
+        triangle.setAttribute(3, cameraX - x1, cameraX - x2, cameraX - x3);
+        triangle.setAttribute(4, cameraY - y1, cameraY - y2, cameraY - y3);
+        triangle.setAttribute(5, cameraZ - z1, cameraZ - z2, cameraZ - z3);
+    }
+
+    /**
+     * Интенсивность освещения по интерполированным атрибутам 0-5.
+     */
+    public static float intensity(float[] attributes) {
+        float nx = attributes[0], ny = attributes[1], nz = attributes[2];
+        float lx = attributes[3], ly = attributes[4], lz = attributes[5];
+
+        float dot = nx * lx + ny * ly + nz * lz;
+        if (dot <= 0) {
+            return AMBIENT_LIGHT;
+        }
+        float lengths = (nx * nx + ny * ny + nz * nz) * (lx * lx + ly * ly + lz * lz);
+        if (lengths <= 0) {
+            return AMBIENT_LIGHT;
+        }
+        return AMBIENT_LIGHT + DIFFUSE_INTENSITY * (float) (dot / Math.sqrt(lengths));
+    }
+
+    private static boolean isValid(int index, int size) {
+        return index >= 0 && index < size;
+    }
+}
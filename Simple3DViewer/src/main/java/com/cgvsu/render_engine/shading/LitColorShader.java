@@ -0,0 +1,38 @@
+package com.cgvsu.render_engine.shading;
+
+import com.cgvsu.math.vector.Vector3f;
+import com.cgvsu.render_engine.FrameBuffer;
+import com.cgvsu.render_engine.TriangleSetup;
+
+/**
+ * Цвет модели с освещением от камеры.
+ */
+public final class LitColorShader implements FragmentShader {
+    private FrameBuffer frameBuffer;
+    private float red, green, blue;
+    private float cameraX, cameraY, cameraZ;
+
+    @Override
+    public void begin(ShadingContext context) {
+        frameBuffer = context.getFrameBuffer();
+        Vector3f color = context.getModel().getColor();
+        red = color.x;
+        green = color.y;
+        blue = color.z;
+        Vector3f camera = context.getCamera().getPosition();
+        cameraX = camera.x;
+        cameraY = camera.y;
+        cameraZ = camera.z;
+    }
+
+    @Override
+    public void setupTriangle(ShadingContext context, int face, TriangleSetup triangle) {
+        Lighting.setupAttributes(context, face, triangle, cameraX, cameraY, cameraZ);
+    }
+
+    @Override
+    public void fragment(int x, int y, float z, float[] attributes) {
+        float intensity = Lighting.intensity(attributes);
+        frameBuffer.setArgb(x, y, FrameBuffer.packRgb(red * intensity, green * intensity, blue * intensity));
+    }
+}
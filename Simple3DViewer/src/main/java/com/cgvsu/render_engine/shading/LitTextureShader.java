@@ -0,0 +1,55 @@
+package com.cgvsu.render_engine.shading;
+
+import com.cgvsu.math.vector.Vector3f;
+import com.cgvsu.render_engine.FrameBuffer;
+import com.cgvsu.render_engine.TriangleSetup;
+import com.cgvsu.texture.Texture;
+import com.cgvsu.texture.TextureFilter;
+
+/**
+ * Текстура с освещением от камеры. Атрибуты 0-5 - {@link Lighting}, 6-7 - UV, 8 - уровень детализации.
+ * Грани без UV рисуются освещённым цветом модели.
+ */
+public final class LitTextureShader implements FragmentShader {
+    private static final int UV_ATTRIBUTE = Lighting.ATTRIBUTE_COUNT;
+
+    private FrameBuffer frameBuffer;
+    private Texture texture;
+    private TextureFilter filter;
+    private float red, green, blue;
+    private float cameraX, cameraY, cameraZ;
+
+    @Override
+    public void begin(ShadingContext context) {
+        frameBuffer = context.getFrameBuffer();
+        texture = context.getModel().getTexture();
+        filter = context.getTextureFilter();
+        Vector3f color = context.getModel().getColor();
+        red = color.x;
+        green = color.y;
+        blue = color.z;
+        Vector3f camera = context.getCamera().getPosition();
+        cameraX = camera.x;
+        cameraY = camera.y;
+        cameraZ = camera.z;
+    }
+
+    @Override
+    public void setupTriangle(ShadingContext context, int face, TriangleSetup triangle) {
+        Lighting.setupAttributes(context, face, triangle, cameraX, cameraY, cameraZ);
+        TextureCoordinates.setupAttributes(context.getModel(), face, triangle, UV_ATTRIBUTE);
+    }
+
+    @Override
+    public void fragment(int x, int y, float z, float[] attributes) {
+        if (!TextureCoordinates.hasUv(attributes, UV_ATTRIBUTE)) {
+            float intensity = Lighting.intensity(attributes);
+            frameBuffer.setArgb(x, y, FrameBuffer.packRgb(red * intensity, green * intensity, blue * intensity));
+            return;
+        }
+        float u = attributes[UV_ATTRIBUTE];
+        float v = attributes[UV_ATTRIBUTE + 1];
+        int texColor = TextureCoordinates.sample(texture, filter, u, v, attributes[UV_ATTRIBUTE + 2]);
+        frameBuffer.setArgb(x, y, FrameBuffer.modulate(texColor, Lighting.intensity(attributes)));
+    }
+}
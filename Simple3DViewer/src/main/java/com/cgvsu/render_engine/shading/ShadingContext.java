@@ -0,0 +1,59 @@
+package com.cgvsu.render_engine.shading;
+
+import com.cgvsu.math.matrix.Matrix4f;
+import com.cgvsu.model.Model;
+import com.cgvsu.model.Vector3fArray;
+import com.cgvsu.render_engine.Camera;
+import com.cgvsu.render_engine.FrameBuffer;
+import com.cgvsu.texture.TextureFilter;
+
+/**
+ * Всё, что шейдеру нужно знать о текущей модели и кадре.
+ */
+public class ShadingContext {
+    private FrameBuffer frameBuffer;
+    private Camera camera;
+    private Model model;
+    private TextureFilter textureFilter = TextureFilter.BILINEAR;
+
+    public void set(FrameBuffer frameBuffer, Camera camera, Model model) {
+        this.frameBuffer = frameBuffer;
+        this.camera = camera;
+        this.model = model;
+    }
+
+    public TextureFilter getTextureFilter() {
+        return textureFilter;
+    }
+
+    public void setTextureFilter(TextureFilter textureFilter) {
+        this.textureFilter = textureFilter;
+    }
+
+    public FrameBuffer getFrameBuffer() {
+        return frameBuffer;
+    }
+
+    public Camera getCamera() {
+        return camera;
+    }
+
+    public Model getModel() {
+        return model;
+    }
+
+    /**
+     * Вершины модели в её собственных координатах; в мировые их переводит {@link #getModelMatrix()}.
+     */
+    public Vector3fArray getVertices() {
+        return model.vertices;
+    }
+
+    public Matrix4f getModelMatrix() {
+        return model.getModelMatrix();
+    }
+
+    public Matrix4f getNormalMatrix() {
+        return model.transform.getNormalMatrix();
+    }
+}
@@ -0,0 +1,18 @@
+package com.cgvsu.render_engine.shading;
+
+/**
+ * Сочетание режимов отрисовки модели. Каждому соответствует свой шейдер.
+ */
+public enum ShadingMode {
+    COLOR,
+    LIT_COLOR,
+    TEXTURE,
+    LIT_TEXTURE;
+
+    public static ShadingMode of(boolean useTexture, boolean useLighting) {
+        if (useTexture) {
+            return useLighting ? LIT_TEXTURE : TEXTURE;
+        }
+        return useLighting ? LIT_COLOR : COLOR;
+    }
+}
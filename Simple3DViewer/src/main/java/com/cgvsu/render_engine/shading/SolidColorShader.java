@@ -0,0 +1,30 @@
+package com.cgvsu.render_engine.shading;
+
+import com.cgvsu.render_engine.FrameBuffer;
+import com.cgvsu.render_engine.TriangleSetup;
+
+/**
+ * Заливка одним заданным цветом, без атрибутов. Используется как заглушка, например для отсутствующей текстуры.
+ */
+public final class SolidColorShader implements FragmentShader {
+    private final int argb;
+    private FrameBuffer frameBuffer;
+
+    public SolidColorShader(int argb) {
+        this.argb = argb;
+    }
+
+    @Override
+    public void begin(ShadingContext context) {
+        frameBuffer = context.getFrameBuffer();
+    }
+
+    @Override
+    public void setupTriangle(ShadingContext context, int face, TriangleSetup triangle) {
+    }
+
+    @Override
+    public void fragment(int x, int y, float z, float[] attributes) {
+        frameBuffer.setArgb(x, y, argb);
+    }
+}
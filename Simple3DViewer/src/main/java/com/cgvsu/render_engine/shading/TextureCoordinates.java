@@ -0,0 +1,71 @@
+package com.cgvsu.render_engine.shading;
+
+import com.cgvsu.model.Model;
+import com.cgvsu.model.PolygonArray;
+import com.cgvsu.model.Vector2fArray;
+import com.cgvsu.render_engine.TriangleSetup;
+import com.cgvsu.texture.Texture;
+import com.cgvsu.texture.TextureFilter;
+
+/**
+ * Общая часть текстурных шейдеров: UV вершин, уровень mip-цепочки и выборка.
+ */
+final class TextureCoordinates {
+    // UV и уровень детализации
+    static final int ATTRIBUTE_COUNT = 3;
+    // Уровень детализации треугольника без UV; настоящий уровень не бывает отрицательным
+    private static final float NO_UV = -1;
+
+    private TextureCoordinates() {
+    }
+
+    /**
+     * UV вершин в атрибуты index и index + 1, уровень детализации треугольника - в index + 2.
+     * Если у полигона нет корректных UV, треугольник помечается, и шейдер рисует его цветом модели, см. {@link #hasUv}.
+     */
+    static void setupAttributes(Model model, int face, TriangleSetup triangle, int index) {
+        PolygonArray polygons = model.polygons;
+        int corner = polygons.getFaceStart(face);
+        int t1 = polygons.getTextureIndex(corner);
+        int t2 = polygons.getTextureIndex(corner + 1);
+        int t3 = polygons.getTextureIndex(corner + 2);
+        Vector2fArray uvs = model.textureVertices;
+        if (!isValid(t1, uvs.size()) || !isValid(t2, uvs.size()) || !isValid(t3, uvs.size())) {
+            triangle.setAttribute(index, 0, 0, 0);
+            triangle.setAttribute(index + 1, 0, 0, 0);
+            triangle.setAttribute(index + 2, NO_UV, NO_UV, NO_UV);
+            return;
+        }
+
+        float[] data = uvs.getData();
+        float u1 = data[t1 * 2], v1 = data[t1 * 2 + 1];
+        float u2 = data[t2 * 2], v2 = data[t2 * 2 + 1];
+        float u3 = data[t3 * 2], v3 = data[t3 * 2 + 1];
+        // Повтор делает сама текстура, поэтому UV интерполируются как есть и шов не ломается
+        triangle.setAttribute(index, u1, u2, u3);
+        triangle.setAttribute(index + 1, v1, v2, v3);
+
+        float uvArea = Math.abs((u2 - u1) * (v3 - v1) - (v2 - v1) * (u3 - u1)) * 0.5f;
+        float lod = model.getTexture().computeLod(uvArea, triangle.getScreenArea());
+        triangle.setAttribute(index + 2, lod, lod, lod);
+    }
+
+    /**
+     * Есть ли у треугольника UV: иначе он рисуется цветом модели, как и модель без текстуры.
+     */
+    static boolean hasUv(float[] attributes, int index) {
+        return attributes[index + 2] >= 0;
+    }
+
+    static int sample(Texture texture, TextureFilter filter, float u, float v, float lod) {
+        switch (filter) {
+            case NEAREST: return texture.sampleNearest(u, v, (int) (lod + 0.5f));
+            case TRILINEAR: return texture.sampleTrilinear(u, v, lod);
+            default: return texture.sampleMipmapped(u, v, lod);
+        }
+    }
+
+    private static boolean isValid(int index, int size) {
+        return index >= 0 && index < size;
+    }
+}
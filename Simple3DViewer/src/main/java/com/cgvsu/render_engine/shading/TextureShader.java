@@ -0,0 +1,43 @@
+package com.cgvsu.render_engine.shading;
+
+import com.cgvsu.math.vector.Vector3f;
+import com.cgvsu.render_engine.FrameBuffer;
+import com.cgvsu.render_engine.TriangleSetup;
+import com.cgvsu.texture.Texture;
+import com.cgvsu.texture.TextureFilter;
+
+/**
+ * Текстура без освещения. Атрибуты 0-1 - UV, 2 - уровень детализации.
+ * Грани без UV рисуются цветом модели.
+ */
+public final class TextureShader implements FragmentShader {
+    private FrameBuffer frameBuffer;
+    private Texture texture;
+    private TextureFilter filter;
+    private int color;
+
+    @Override
+    public void begin(ShadingContext context) {
+        frameBuffer = context.getFrameBuffer();
+        texture = context.getModel().getTexture();
+        filter = context.getTextureFilter();
+        Vector3f modelColor = context.getModel().getColor();
+        color = FrameBuffer.packRgb(modelColor.x, modelColor.y, modelColor.z);
+    }
+
+    @Override
+    public void setupTriangle(ShadingContext context, int face, TriangleSetup triangle) {
+        TextureCoordinates.setupAttributes(context.getModel(), face, triangle, 0);
+    }
+
+    @Override
+    public void fragment(int x, int y, float z, float[] attributes) {
+        if (!TextureCoordinates.hasUv(attributes, 0)) {
+            frameBuffer.setArgb(x, y, color);
+            return;
+        }
+        float u = attributes[0];
+        float v = attributes[1];
+        frameBuffer.setArgb(x, y, TextureCoordinates.sample(texture, filter, u, v, attributes[2]));
+    }
+}
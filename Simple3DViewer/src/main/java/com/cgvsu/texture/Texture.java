@@ -1,53 +1,291 @@
 package com.cgvsu.texture;
 
 import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
 import java.io.File;
 
+/**
+ * Текстура модели. Изображение один раз раскладывается в массив int ARGB (premultiplied, по строкам сверху вниз),
+ * и шейдеры читают тексели прямо из него, без {@link PixelReader}. Сам {@link Image} после этого не хранится,
+ * чтобы пиксели не лежали в памяти дважды.
+ * <p>
+ * Там же строится цепочка mip-уровней: каждый следующий вдвое меньше (с округлением вверх) и получен
+ * усреднением блоков 2x2.
+ * UV за пределами [0, 1) повторяются. Для размеров-степеней двойки повтор делается маской.
+ */
 public class Texture {
-    private Image image;
     private String filePath;
+    // Изображение загрузилось; разложить его при этом могло не получиться, см. isDecoded()
+    private boolean valid;
+    private int width;
+    private int height;
+
+    // Уровень 0 - исходное изображение
+    private int[][] levels;
+    private int[] widths;
+    private int[] heights;
+    // Маски повтора; -1, если размер не степень двойки и нужен остаток от деления
+    private int[] widthMasks;
+    private int[] heightMasks;
 
     public Texture(String filePath) {
         this.filePath = filePath;
+        Image image = null;
         try {
             File file = new File(filePath);
             if (file.exists()) {
-                this.image = new Image(file.toURI().toString());
+                image = new Image(file.toURI().toString());
             } else {
                 System.err.println("Texture file not found: " + filePath);
-                this.image = null;
             }
         } catch (Exception e) {
             System.err.println("Error loading texture: " + e.getMessage());
-            this.image = null;
         }
+        setImage(image);
     }
 
     public Texture(Image image) {
-        this.image = image;
-    }
-
-    public Image getImage() {
-        return image;
+        setImage(image);
     }
 
+    /**
+     * Заменяет содержимое текстуры. Изображение раскладывается сразу и дальше не хранится.
+     */
     public void setImage(Image image) {
-        this.image = image;
+        valid = image != null;
+        width = image != null ? (int) image.getWidth() : 0;
+        height = image != null ? (int) image.getHeight() : 0;
+        decode(image);
     }
 
     public String getFilePath() {
         return filePath;
     }
 
+    /**
+     * Изображение загружено. false, если файла нет или его не удалось открыть.
+     */
     public boolean isValid() {
-        return image != null;
+        return valid;
+    }
+
+    /**
+     * Есть ли разложенные тексели. false, если изображение не загрузилось или не читается.
+     */
+    public boolean isDecoded() {
+        return levels != null;
+    }
+
+    /**
+     * Объём памяти текстуры: все mip-уровни.
+     */
+    public long getByteSize() {
+        long bytes = 0;
+        if (levels != null) {
+            for (int[] level : levels) {
+                bytes += 4L * level.length;
+            }
+        }
+        return bytes;
     }
 
     public int getWidth() {
-        return image != null ? (int)image.getWidth() : 0;
+        return width;
     }
 
     public int getHeight() {
-        return image != null ? (int)image.getHeight() : 0;
+        return height;
+    }
+
+    /**
+     * Тексели уровня 0 в формате int ARGB (premultiplied), строка за строкой. null, если текстура не разложена.
+     */
+    public int[] getPixels() {
+        return levels != null ? levels[0] : null;
+    }
+
+    public int getLevelCount() {
+        return levels != null ? levels.length : 0;
+    }
+
+    /**
+     * Уровень детализации для треугольника: log2 отношения площади в текселях к площади на экране, пополам.
+     *
+     * @param uvArea     площадь треугольника в UV
+     * @param screenArea площадь треугольника на экране в пикселях
+     * @return дробный уровень в пределах [0, getLevelCount() - 1]
+     */
+    public float computeLod(float uvArea, float screenArea) {
+        if (!(screenArea > 0) || !(uvArea > 0)) {
+            return 0;
+        }
+        float texelsPerPixel = uvArea * widths[0] * heights[0] / screenArea;
+        if (texelsPerPixel <= 1) {
+            return 0;
+        }
+        float lod = 0.5f * (float) (Math.log(texelsPerPixel) / Math.log(2));
+        return Math.min(lod, levels.length - 1);
+    }
+
+    /**
+     * Ближайший тексель уровня 0. V направлена вверх, как в OBJ.
+     */
+    public int sampleNearest(float u, float v) {
+        return sampleNearest(u, v, 0);
+    }
+
+    public int sampleNearest(float u, float v, int level) {
+        int width = widths[level];
+        int height = heights[level];
+        int x = wrap((int) Math.floor(u * width), width, widthMasks[level]);
+        int y = wrap((int) Math.floor((1.0f - v) * height), height, heightMasks[level]);
+        return levels[level][y * width + x];
+    }
+
+    /**
+     * Билинейная фильтрация уровня 0 по четырём соседним текселям. V направлена вверх, как в OBJ.
+     */
+    public int sampleBilinear(float u, float v) {
+        return sampleBilinear(u, v, 0);
+    }
+
+    public int sampleBilinear(float u, float v, int level) {
+        int width = widths[level];
+        int height = heights[level];
+        int widthMask = widthMasks[level];
+        int heightMask = heightMasks[level];
+        int[] pixels = levels[level];
+
+        float fx = u * width - 0.5f;
+        float fy = (1.0f - v) * height - 0.5f;
+        float floorX = (float) Math.floor(fx);
+        float floorY = (float) Math.floor(fy);
+
+        // Веса в 8-битной фиксированной точке
+        int weightX = (int) ((fx - floorX) * 256);
+        int weightY = (int) ((fy - floorY) * 256);
+
+        int x0 = wrap((int) floorX, width, widthMask);
+        int y0 = wrap((int) floorY, height, heightMask);
+        int x1 = wrap((int) floorX + 1, width, widthMask);
+        int y1 = wrap((int) floorY + 1, height, heightMask);
+
+        int row0 = y0 * width;
+        int row1 = y1 * width;
+        int top = lerp(pixels[row0 + x0], pixels[row0 + x1], weightX);
+        int bottom = lerp(pixels[row1 + x0], pixels[row1 + x1], weightX);
+        return lerp(top, bottom, weightY);
+    }
+
+    /**
+     * Билинейная выборка на ближайшем к lod уровне.
+     */
+    public int sampleMipmapped(float u, float v, float lod) {
+        return sampleBilinear(u, v, Math.min(levels.length - 1, (int) (lod + 0.5f)));
+    }
+
+    /**
+     * Трилинейная фильтрация: смесь билинейных выборок двух соседних уровней.
+     */
+    public int sampleTrilinear(float u, float v, float lod) {
+        int level = (int) lod;
+        int weight = (int) ((lod - level) * 256);
+        int near = sampleBilinear(u, v, level);
+        if (weight == 0 || level + 1 >= levels.length) {
+            return near;
+        }
+        return lerp(near, sampleBilinear(u, v, level + 1), weight);
+    }
+
+    private static int wrap(int coordinate, int size, int mask) {
+        return mask >= 0 ? coordinate & mask : Math.floorMod(coordinate, size);
+    }
+
+    // Интерполяция двух ARGB по всем каналам сразу: каналы через один умещаются в 16-битные поля
+    private static int lerp(int a, int b, int weight) {
+        int inverse = 256 - weight;
+        int redBlue = (((a & 0x00FF00FF) * inverse + (b & 0x00FF00FF) * weight) >>> 8) & 0x00FF00FF;
+        int alphaGreen = (((a >>> 8) & 0x00FF00FF) * inverse + ((b >>> 8) & 0x00FF00FF) * weight) & 0xFF00FF00;
+        return alphaGreen | redBlue;
+    }
+
+    private void decode(Image image) {
+        levels = null;
+        widths = null;
+        heights = null;
+        widthMasks = null;
+        heightMasks = null;
+
+        if (image == null || image.isError()) {
+            return;
+        }
+        PixelReader reader = image.getPixelReader();
+        int w = (int) image.getWidth();
+        int h = (int) image.getHeight();
+        if (reader == null || w <= 0 || h <= 0) {
+            return;
+        }
+
+        int[] base = new int[w * h];
+        reader.getPixels(0, 0, w, h, PixelFormat.getIntArgbPreInstance(), base, 0, w);
+
+        int count = 1;
+        for (int size = Math.max(w, h); size > 1; size = halve(size)) {
+            count++;
+        }
+        int[][] chain = new int[count][];
+        int[] chainWidths = new int[count];
+        int[] chainHeights = new int[count];
+        int[] chainWidthMasks = new int[count];
+        int[] chainHeightMasks = new int[count];
+
+        chain[0] = base;
+        chainWidths[0] = w;
+        chainHeights[0] = h;
+        for (int level = 1; level < count; level++) {
+            chainWidths[level] = halve(chainWidths[level - 1]);
+            chainHeights[level] = halve(chainHeights[level - 1]);
+            chain[level] = downsample(chain[level - 1], chainWidths[level - 1], chainHeights[level - 1],
+                    chainWidths[level], chainHeights[level]);
+        }
+        for (int level = 0; level < count; level++) {
+            chainWidthMasks[level] = isPowerOfTwo(chainWidths[level]) ? chainWidths[level] - 1 : -1;
+            chainHeightMasks[level] = isPowerOfTwo(chainHeights[level]) ? chainHeights[level] - 1 : -1;
+        }
+
+        levels = chain;
+        widths = chainWidths;
+        heights = chainHeights;
+        widthMasks = chainWidthMasks;
+        heightMasks = chainHeightMasks;
+    }
+
+    // Размер следующего уровня. С округлением вверх последний столбец или строка нечётного уровня
+    // попадают в отдельный тексель, а не отбрасываются
+    private static int halve(int size) {
+        return (size + 1) >> 1;
+    }
+
+    // Среднее блока 2x2. У нечётных размеров последнему текселю уровня не хватает пары,
+    // и последний столбец или строка берутся дважды
+    private static int[] downsample(int[] source, int sourceWidth, int sourceHeight, int width, int height) {
+        int[] result = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            int row0 = 2 * y * sourceWidth;
+            int row1 = Math.min(2 * y + 1, sourceHeight - 1) * sourceWidth;
+            for (int x = 0; x < width; x++) {
+                int x0 = 2 * x;
+                int x1 = Math.min(2 * x + 1, sourceWidth - 1);
+                int top = lerp(source[row0 + x0], source[row0 + x1], 128);
+                int bottom = lerp(source[row1 + x0], source[row1 + x1], 128);
+                result[y * width + x] = lerp(top, bottom, 128);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isPowerOfTwo(int value) {
+        return (value & (value - 1)) == 0;
     }
-}
\ No newline at end of file
+}
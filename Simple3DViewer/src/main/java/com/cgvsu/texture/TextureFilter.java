@@ -0,0 +1,13 @@
+package com.cgvsu.texture;
+
+/**
+ * Способ выборки текселей. Уровень mip-цепочки во всех режимах выбирается по треугольнику.
+ */
+public enum TextureFilter {
+    // Ближайший тексель ближайшего уровня
+    NEAREST,
+    // Билинейная выборка на ближайшем уровне
+    BILINEAR,
+    // Смесь билинейных выборок двух соседних уровней
+    TRILINEAR
+}
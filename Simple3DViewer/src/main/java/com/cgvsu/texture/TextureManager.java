@@ -0,0 +1,332 @@
+package com.cgvsu.texture;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Общий кэш текстур. Один и тот же файл декодируется один раз, сколько бы моделей его ни использовало.
+ * <p>
+ * Ключ - канонический путь к файлу и время его изменения: изменённый файл декодируется заново.
+ * Декодирование идёт в фоновых потоках; одновременные запросы одного файла ждут одно и то же декодирование.
+ * Когда суммарный размер текстур превышает бюджет, вытесняются давно не использованные (порядок обновляют
+ * и загрузка, и отрисовка через {@link #markUsed}). Вытесненная текстура, которую ещё держит модель, остаётся
+ * доступной по слабой ссылке: повторная загрузка вернёт тот же объект вместо второй копии, а её размер
+ * учитывается в занятой памяти, пока сборщик мусора её не освободит.
+ * Неудачи тоже запоминаются: битый файл не декодируется повторно, а поиск текстуры рядом с моделью
+ * читает каталог один раз, пока тот не изменится, вместо проверки каждого возможного имени.
+ */
+public class TextureManager {
+    public static final long DEFAULT_BUDGET_BYTES = 512L * 1024 * 1024;
+
+    private static final TextureManager SHARED = new TextureManager(DEFAULT_BUDGET_BYTES);
+
+    private final ExecutorService executor;
+    private long budgetBytes;
+    private long usedBytes = 0;
+    // Вытесненные, но ещё не собранные текстуры
+    private long evictedBytes = 0;
+
+    // Порядок доступа: первым идёт давно не использованный
+    private final LinkedHashMap<Path, Entry> textures = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Path, EvictedEntry> evicted = new HashMap<>();
+    private final ReferenceQueue<Texture> collected = new ReferenceQueue<>();
+    // Путь каждой выданной текстуры, чтобы markUsed находил запись без разбора пути
+    private final Map<Texture, Path> paths = new WeakHashMap<>();
+    private final Map<Path, CompletableFuture<Texture>> decoding = new HashMap<>();
+    // Файлы, которые не удалось декодировать, со временем изменения на тот момент
+    private final Map<Path, Long> failed = new HashMap<>();
+    // Содержимое каталогов для поиска текстур, со временем изменения каталога
+    private final Map<Path, DirectoryListing> listings = new HashMap<>();
+
+    public TextureManager(long budgetBytes) {
+        setBudget(budgetBytes);
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "texture-decoder-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static TextureManager getShared() {
+        return SHARED;
+    }
+
+    public synchronized void setBudget(long budgetBytes) {
+        if (budgetBytes <= 0) {
+            throw new IllegalArgumentException("Бюджет должен быть положительным: " + budgetBytes);
+        }
+        this.budgetBytes = budgetBytes;
+        evict();
+    }
+
+    public synchronized long getBudget() {
+        return budgetBytes;
+    }
+
+    /**
+     * Память текстур из кэша вместе с вытесненными, которые ещё используются моделями.
+     */
+    public synchronized long getUsedBytes() {
+        expungeCollected();
+        return usedBytes + evictedBytes;
+    }
+
+    /**
+     * Текстура из файла. Future завершается в фоновом потоке; результат null, если файла нет или он не декодируется.
+     */
+    public CompletableFuture<Texture> load(Path path) {
+        Path realPath;
+        long modified;
+        try {
+            realPath = path.toRealPath();
+            modified = Files.getLastModifiedTime(realPath).toMillis();
+        } catch (IOException e) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        synchronized (this) {
+            Entry entry = textures.get(realPath);
+            if (entry != null) {
+                if (entry.modified == modified) {
+                    return CompletableFuture.completedFuture(entry.texture);
+                }
+                // Файл изменился - старая версия больше не нужна
+                textures.remove(realPath);
+                usedBytes -= entry.bytes;
+            }
+
+            Texture stillUsed = restoreEvicted(realPath, modified);
+            if (stillUsed != null) {
+                return CompletableFuture.completedFuture(stillUsed);
+            }
+
+            Long failedModified = failed.get(realPath);
+            if (failedModified != null && failedModified == modified) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            CompletableFuture<Texture> pending = decoding.get(realPath);
+            if (pending != null) {
+                return pending;
+            }
+            // decode() запишет результат, только когда этот блок отпустит монитор, так что put успеет раньше remove
+            CompletableFuture<Texture> future = CompletableFuture.supplyAsync(
+                    () -> decode(realPath, modified), executor);
+            decoding.put(realPath, future);
+            return future;
+        }
+    }
+
+    /**
+     * То же, что {@link #load(Path)}, но с ожиданием результата. Не вызывать из потока JavaFX.
+     */
+    public Texture loadNow(Path path) {
+        return load(path).join();
+    }
+
+    /**
+     * Отмечает текстуру как используемую, чтобы она вытеснялась последней. Вызывается при отрисовке;
+     * текстуры, загруженные не через этот кэш, пропускаются.
+     */
+    public synchronized void markUsed(Texture texture) {
+        Path path = paths.get(texture);
+        if (path == null) {
+            return;
+        }
+        // get в LinkedHashMap с порядком доступа переносит запись в конец
+        Entry entry = textures.get(path);
+        if (entry == null || entry.texture != texture) {
+            restoreEvicted(path, texture);
+        }
+    }
+
+    /**
+     * Первый из файлов с именами names, существующий в каталоге directory, или null.
+     * Каталог читается один раз и перечитывается, только когда меняется время его изменения.
+     */
+    public Path findFirst(Path directory, List<String> names) {
+        long modified;
+        try {
+            modified = Files.getLastModifiedTime(directory).toMillis();
+        } catch (IOException e) {
+            return null;
+        }
+
+        Set<String> files;
+        synchronized (this) {
+            DirectoryListing listing = listings.get(directory);
+            files = listing != null && listing.modified == modified ? listing.files : null;
+        }
+        if (files == null) {
+            files = new HashSet<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path file : stream) {
+                    files.add(file.getFileName().toString());
+                }
+            } catch (IOException e) {
+                return null;
+            }
+            synchronized (this) {
+                listings.put(directory, new DirectoryListing(modified, files));
+            }
+        }
+
+        for (String name : names) {
+            if (files.contains(name)) {
+                return directory.resolve(name);
+            }
+        }
+        return null;
+    }
+
+    public synchronized void clear() {
+        textures.clear();
+        evicted.clear();
+        paths.clear();
+        failed.clear();
+        listings.clear();
+        usedBytes = 0;
+        evictedBytes = 0;
+    }
+
+    private Texture decode(Path realPath, long modified) {
+        Texture texture;
+        try {
+            texture = new Texture(realPath.toString());
+        } catch (RuntimeException | Error e) {
+            // Если декодирование упало (например, не хватило памяти на большой атлас), следующий load
+            // должен начать его заново, а не получить тот же неудачный future
+            synchronized (this) {
+                decoding.remove(realPath);
+            }
+            throw e;
+        }
+        synchronized (this) {
+            decoding.remove(realPath);
+            if (!texture.isDecoded()) {
+                failed.put(realPath, modified);
+                return null;
+            }
+            failed.remove(realPath);
+            dropEvicted(realPath);
+            paths.put(texture, realPath);
+            long bytes = texture.getByteSize();
+            textures.put(realPath, new Entry(texture, modified, bytes));
+            usedBytes += bytes;
+            evict();
+        }
+        return texture;
+    }
+
+    // Вытесняет давно не использованные текстуры; последняя добавленная остаётся, даже если она одна больше бюджета.
+    // Живые вытесненные тоже занимают память, поэтому они входят в сравнение с бюджетом
+    private void evict() {
+        expungeCollected();
+        Iterator<Map.Entry<Path, Entry>> iterator = textures.entrySet().iterator();
+        while (usedBytes + evictedBytes > budgetBytes && textures.size() > 1 && iterator.hasNext()) {
+            Map.Entry<Path, Entry> eldest = iterator.next();
+            iterator.remove();
+            Entry entry = eldest.getValue();
+            usedBytes -= entry.bytes;
+            dropEvicted(eldest.getKey());
+            evicted.put(eldest.getKey(), new EvictedEntry(eldest.getKey(), entry, collected));
+            evictedBytes += entry.bytes;
+        }
+    }
+
+    // Возвращает вытесненную текстуру в кэш, если её ещё не собрали и файл не менялся
+    private Texture restoreEvicted(Path path, long modified) {
+        expungeCollected();
+        EvictedEntry weak = evicted.get(path);
+        Texture texture = weak != null && weak.modified == modified ? weak.get() : null;
+        return texture != null ? restore(path, weak, texture) : null;
+    }
+
+    private void restoreEvicted(Path path, Texture texture) {
+        EvictedEntry weak = evicted.get(path);
+        if (weak != null && weak.get() == texture) {
+            restore(path, weak, texture);
+        }
+    }
+
+    private Texture restore(Path path, EvictedEntry weak, Texture texture) {
+        dropEvicted(path);
+        textures.put(path, new Entry(texture, weak.modified, weak.bytes));
+        usedBytes += weak.bytes;
+        evict();
+        return texture;
+    }
+
+    private void dropEvicted(Path path) {
+        EvictedEntry weak = evicted.remove(path);
+        if (weak != null) {
+            evictedBytes -= weak.bytes;
+        }
+    }
+
+    // Текстуры, собранные сборщиком мусора, больше не занимают память
+    private void expungeCollected() {
+        Reference<? extends Texture> reference;
+        while ((reference = collected.poll()) != null) {
+            EvictedEntry weak = (EvictedEntry) reference;
+            // Запись по этому пути могла уже смениться более новой
+            if (evicted.get(weak.path) == weak) {
+                evicted.remove(weak.path);
+                evictedBytes -= weak.bytes;
+            }
+        }
+    }
+
+    private static final class Entry {
+        final Texture texture;
+        final long modified;
+        final long bytes;
+
+        Entry(Texture texture, long modified, long bytes) {
+            this.texture = texture;
+            this.modified = modified;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class EvictedEntry extends WeakReference<Texture> {
+        final Path path;
+        final long modified;
+        final long bytes;
+
+        EvictedEntry(Path path, Entry entry, ReferenceQueue<Texture> queue) {
+            super(entry.texture, queue);
+            this.path = path;
+            this.modified = entry.modified;
+            this.bytes = entry.bytes;
+        }
+    }
+
+    private static final class DirectoryListing {
+        final long modified;
+        final Set<String> files;
+
+        DirectoryListing(long modified, Set<String> files) {
+            this.modified = modified;
+            this.files = files;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.cgvsu.utils;
+
+import com.cgvsu.model.PolygonArray;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Нормали вершин по граням, без промежуточных объектов: всё считается в плоских float[].
+ * <p>
+ * Нормаль грани берётся ненормированной (по формуле Ньюэлла её длина равна удвоенной площади),
+ * поэтому большие грани влияют на нормаль вершины сильнее мелких. Грани делятся на диапазоны,
+ * каждый диапазон копит суммы в своём буфере, затем буферы складываются по диапазонам вершин -
+ * потоки никогда не пишут в одну ячейку, и атомарные операции не нужны. Каждый буфер размером со все вершины,
+ * поэтому число диапазонов ограничено не только числом ядер, но и бюджетом памяти на буферы.
+ */
+public class NormalCalculator {
+
+    // Меньше граней на поток - накладные расходы на буферы больше выигрыша
+    private static final int MIN_FACES_PER_PART = 1 << 16;
+    private static final int VERTICES_PER_REDUCE_TASK = 1 << 15;
+    // Суммарный размер частичных буферов; на больших сетках лучше меньше потоков, чем гигабайты памяти
+    private static final long PARTIAL_BUFFERS_BUDGET_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * Считает нормали вершин и пишет их в normals начиная с элемента outStart (в векторах).
+     * Вершина, не вошедшая ни в одну невырожденную грань, получает нормаль (0, 1, 0).
+     *
+     * @param positions   координаты вершин, по три float на вершину
+     * @param normals     массив результата, в нём должно быть место под (outStart + vertexCount) векторов
+     */
+    public static void computeVertexNormals(float[] positions, int vertexCount, PolygonArray polygons,
+                                            float[] normals, int outStart) {
+        int faceCount = polygons.size();
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        long partialBytes = Math.max(1, vertexCount * 12L);
+        int partCount = (int) Math.max(1, Math.min(Math.min(parallelism, faceCount / MIN_FACES_PER_PART),
+                1 + PARTIAL_BUFFERS_BUDGET_BYTES / partialBytes));
+
+        int outOffset = outStart * 3;
+        Arrays.fill(normals, outOffset, outOffset + vertexCount * 3, 0);
+
+        if (partCount == 1) {
+            accumulate(positions, polygons, 0, faceCount, normals, outOffset);
+            normalize(normals, outOffset, null, 0, vertexCount);
+            return;
+        }
+
+        // Первая часть копит прямо в результат, остальным нужны свои буферы
+        float[][] partials = new float[partCount - 1][];
+        ForkJoinPool.commonPool().invoke(new AccumulateTask(positions, vertexCount, polygons, normals, outOffset,
+                partials, 0, partCount));
+        ForkJoinPool.commonPool().invoke(new ReduceTask(normals, outOffset, partials, 0, vertexCount));
+    }
+
+    private static void accumulate(float[] positions, PolygonArray polygons, int fromFace, int toFace,
+                                   float[] sums, int outOffset) {
+        int[] vertexIndices = polygons.getVertexIndices();
+        for (int face = fromFace; face < toFace; face++) {
+            int start = polygons.getFaceStart(face);
+            int size = polygons.getFaceSize(face);
+            if (size < 3) {
+                continue;
+            }
+
+            float nx, ny, nz;
+            if (size == 3) {
+                int a = vertexIndices[start] * 3;
+                int b = vertexIndices[start + 1] * 3;
+                int c = vertexIndices[start + 2] * 3;
+                float e1x = positions[b] - positions[a];
+                float e1y = positions[b + 1] - positions[a + 1];
+                float e1z = positions[b + 2] - positions[a + 2];
+                float e2x = positions[c] - positions[a];
+                float e2y = positions[c + 1] - positions[a + 1];
+                float e2z = positions[c + 2] - positions[a + 2];
+                nx = e1y * e2z - e1z * e2y;
+                ny = e1z * e2x - e1x * e2z;
+                nz = e1x * e2y - e1y * e2x;
+            } else {
+                // Формула Ньюэлла: устойчива для неплоских и невыпуклых многоугольников
+                nx = ny = nz = 0;
+                int previous = vertexIndices[start + size - 1] * 3;
+                for (int corner = start; corner < start + size; corner++) {
+                    int current = vertexIndices[corner] * 3;
+                    float px = positions[previous], py = positions[previous + 1], pz = positions[previous + 2];
+                    float cx = positions[current], cy = positions[current + 1], cz = positions[current + 2];
+                    nx += (py - cy) * (pz + cz);
+                    ny += (pz - cz) * (px + cx);
+                    nz += (px - cx) * (py + cy);
+                    previous = current;
+                }
+            }
+
+            for (int corner = start; corner < start + size; corner++) {
+                int v = outOffset + vertexIndices[corner] * 3;
+                sums[v] += nx;
+                sums[v + 1] += ny;
+                sums[v + 2] += nz;
+            }
+        }
+    }
+
+    // Складывает частичные суммы в normals и нормирует вершины [from, to)
+    private static void normalize(float[] normals, int outOffset, float[][] partials, int from, int to) {
+        for (int vertex = from; vertex < to; vertex++) {
+            int i = outOffset + vertex * 3;
+            float x = normals[i], y = normals[i + 1], z = normals[i + 2];
+            if (partials != null) {
+                int p = vertex * 3;
+                for (float[] partial : partials) {
+                    x += partial[p];
+                    y += partial[p + 1];
+                    z += partial[p + 2];
+                }
+            }
+
+            float lengthSquared = x * x + y * y + z * z;
+            if (lengthSquared > 0 && Float.isFinite(lengthSquared)) {
+                float inverseLength = (float) (1.0 / Math.sqrt(lengthSquared));
+                normals[i] = x * inverseLength;
+                normals[i + 1] = y * inverseLength;
+                normals[i + 2] = z * inverseLength;
+            } else {
+                normals[i] = 0;
+                normals[i + 1] = 1;
+                normals[i + 2] = 0;
+            }
+        }
+    }
+
+    private static class AccumulateTask extends RecursiveAction {
+        private final float[] positions;
+        private final int vertexCount;
+        private final PolygonArray polygons;
+        private final float[] normals;
+        private final int outOffset;
+        private final float[][] partials;
+        private final int fromPart;
+        private final int toPart;
+
+        AccumulateTask(float[] positions, int vertexCount, PolygonArray polygons, float[] normals, int outOffset,
+                       float[][] partials, int fromPart, int toPart) {
+            this.positions = positions;
+            this.vertexCount = vertexCount;
+            this.polygons = polygons;
+            this.normals = normals;
+            this.outOffset = outOffset;
+            this.partials = partials;
+            this.fromPart = fromPart;
+            this.toPart = toPart;
+        }
+
+        @Override
+        protected void compute() {
+            if (toPart - fromPart == 1) {
+                int partCount = partials.length + 1;
+                long faceCount = polygons.size();
+                int fromFace = (int) (faceCount * fromPart / partCount);
+                int toFace = (int) (faceCount * toPart / partCount);
+                if (fromPart == 0) {
+                    accumulate(positions, polygons, fromFace, toFace, normals, outOffset);
+                } else {
+                    float[] partial = new float[vertexCount * 3];
+                    accumulate(positions, polygons, fromFace, toFace, partial, 0);
+                    partials[fromPart - 1] = partial;
+                }
+                return;
+            }
+            int middle = (fromPart + toPart) >>> 1;
+            invokeAll(
+                    new AccumulateTask(positions, vertexCount, polygons, normals, outOffset, partials, fromPart, middle),
+                    new AccumulateTask(positions, vertexCount, polygons, normals, outOffset, partials, middle, toPart));
+        }
+    }
+
+    private static class ReduceTask extends RecursiveAction {
+        private final float[] normals;
+        private final int outOffset;
+        private final float[][] partials;
+        private final int from;
+        private final int to;
+
+        ReduceTask(float[] normals, int outOffset, float[][] partials, int from, int to) {
+            this.normals = normals;
+            this.outOffset = outOffset;
+            this.partials = partials;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= VERTICES_PER_REDUCE_TASK) {
+                normalize(normals, outOffset, partials, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(
+                    new ReduceTask(normals, outOffset, partials, from, middle),
+                    new ReduceTask(normals, outOffset, partials, middle, to));
+        }
+    }
+}
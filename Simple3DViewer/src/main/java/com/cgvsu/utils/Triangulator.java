@@ -1,47 +1,70 @@
 package com.cgvsu.utils;
 
 import com.cgvsu.model.Model;
-import com.cgvsu.model.Polygon;
-import java.util.ArrayList;
-import java.util.List;
-
+import com.cgvsu.model.PolygonArray;
+import com.cgvsu.model.Vector3fArray;
+
+/**
+ * Триангуляция граней прямо в индексный буфер {@link PolygonArray}, без промежуточных объектов.
+ * <p>
+ * Выпуклая грань режется веером из первой вершины. Для невыпуклой веер даёт треугольники за пределами грани,
+ * поэтому она режется отсечением ушей в плоскости, перпендикулярной нормали грани.
+ * Экземпляр хранит рабочие массивы и переиспользует их между гранями, поэтому он не потокобезопасен.
+ */
 public class Triangulator {
 
-    public static List<Polygon> triangulatePolygon(Polygon polygon) {
-        List<Polygon> triangles = new ArrayList<>();
-
-        List<Integer> vertexIndices = polygon.getVertexIndices();
-        List<Integer> textureIndices = polygon.getTextureVertexIndices();
-        List<Integer> normalIndices = polygon.getNormalIndices();
-
-        for (int i = 1; i < vertexIndices.size() - 1; i++) {
-            Polygon triangle = new Polygon();
-
-            ArrayList<Integer> triVertices = new ArrayList<>();
-            triVertices.add(vertexIndices.get(0));
-            triVertices.add(vertexIndices.get(i));
-            triVertices.add(vertexIndices.get(i + 1));
-            triangle.setVertexIndices(triVertices);
+    // Проекция вершин грани на плоскость и кольцо ещё не отрезанных вершин
+    private float[] projected = new float[2 * 16];
+    private int[] next = new int[16];
+    private int[] previous = new int[16];
+
+    /**
+     * Добавляет в out треугольники грани из углов [start, start + size) массивов индексов.
+     * Грани меньше трёх вершин отбрасываются. Индексы UV и нормалей переносятся, только если они есть у всех углов.
+     *
+     * @param positions   координаты вершин, по три float на вершину
+     * @param vertexCount число вершин; грань со ссылкой за его пределы режется веером без проверки формы
+     */
+    public void addFace(float[] positions, int vertexCount,
+                        int[] vertexIndices, int[] textureIndices, int[] normalIndices,
+                        int start, int size, PolygonArray out) {
+        if (size < 3) {
+            return;
+        }
+        boolean hasTextures = hasAll(textureIndices, start, size);
+        boolean hasNormals = hasAll(normalIndices, start, size);
 
-            if (!textureIndices.isEmpty() && textureIndices.size() == vertexIndices.size()) {
-                ArrayList<Integer> triTextures = new ArrayList<>();
-                triTextures.add(textureIndices.get(0));
-                triTextures.add(textureIndices.get(i));
-                triTextures.add(textureIndices.get(i + 1));
-                triangle.setTextureVertexIndices(triTextures);
+        if (size == 3 || !project(positions, vertexCount, vertexIndices, start, size) || isConvex(size)) {
+            for (int i = 1; i < size - 1; i++) {
+                emit(vertexIndices, textureIndices, normalIndices, hasTextures, hasNormals,
+                        start, start + i, start + i + 1, out);
             }
+            return;
+        }
+        clipEars(vertexIndices, textureIndices, normalIndices, hasTextures, hasNormals, start, size, out);
+    }
 
-            if (!normalIndices.isEmpty() && normalIndices.size() == vertexIndices.size()) {
-                ArrayList<Integer> triNormals = new ArrayList<>();
-                triNormals.add(normalIndices.get(0));
-                triNormals.add(normalIndices.get(i));
-                triNormals.add(normalIndices.get(i + 1));
-                triangle.setNormalIndices(triNormals);
-            }
+    /**
+     * Триангуляция всех граней. Если грани уже треугольные, возвращается тот же массив.
+     */
+    public static PolygonArray triangulate(PolygonArray polygons, Vector3fArray vertices) {
+        if (polygons.isTriangles()) {
+            return polygons;
+        }
 
-            triangles.add(triangle);
+        int triangleCount = 0;
+        for (int face = 0; face < polygons.size(); face++) {
+            triangleCount += Math.max(0, polygons.getFaceSize(face) - 2);
         }
 
+        PolygonArray triangles = new PolygonArray(triangleCount, triangleCount * 3);
+        Triangulator triangulator = new Triangulator();
+        float[] positions = vertices.getData();
+        for (int face = 0; face < polygons.size(); face++) {
+            triangulator.addFace(positions, vertices.size(),
+                    polygons.getVertexIndices(), polygons.getTextureIndices(), polygons.getNormalIndices(),
+                    polygons.getFaceStart(face), polygons.getFaceSize(face), triangles);
+        }
         return triangles;
     }
 
@@ -51,20 +74,154 @@ public class Triangulator {
         triangulatedModel.vertices.addAll(model.vertices);
         triangulatedModel.textureVertices.addAll(model.textureVertices);
         triangulatedModel.normals.addAll(model.normals);
-
-        for (Polygon polygon : model.polygons) {
-            triangulatedModel.polygons.addAll(triangulatePolygon(polygon));
-        }
+        triangulatedModel.polygons = triangulate(model.polygons, model.vertices);
 
         return triangulatedModel;
     }
 
     public static void triangulateModelInPlace(Model model) {
-        List<Polygon> originalPolygons = new ArrayList<>(model.polygons);
-        model.polygons.clear();
+        model.polygons = triangulate(model.polygons, model.vertices);
+    }
 
-        for (Polygon polygon : originalPolygons) {
-            model.polygons.addAll(triangulatePolygon(polygon));
+    // Проекция на плоскость без оси, по которой нормаль грани (формула Ньюэлла) наибольшая,
+    // с таким порядком осей, чтобы обход грани в проекции шёл против часовой стрелки.
+    // false - грань вырождена или ссылается на несуществующие вершины, тогда форму не проверяем
+    private boolean project(float[] positions, int vertexCount, int[] vertexIndices, int start, int size) {
+        float nx = 0, ny = 0, nz = 0;
+        int previousVertex = vertexIndices[start + size - 1];
+        if (previousVertex < 0 || previousVertex >= vertexCount) {
+            return false;
+        }
+        for (int corner = start; corner < start + size; corner++) {
+            int vertex = vertexIndices[corner];
+            if (vertex < 0 || vertex >= vertexCount) {
+                return false;
+            }
+            int p = previousVertex * 3, c = vertex * 3;
+            nx += (positions[p + 1] - positions[c + 1]) * (positions[p + 2] + positions[c + 2]);
+            ny += (positions[p + 2] - positions[c + 2]) * (positions[p] + positions[c]);
+            nz += (positions[p] - positions[c]) * (positions[p + 1] + positions[c + 1]);
+            previousVertex = vertex;
+        }
+
+        float ax = Math.abs(nx), ay = Math.abs(ny), az = Math.abs(nz);
+        int u, v;
+        if (az >= ax && az >= ay) {
+            u = nz > 0 ? 0 : 1;
+            v = nz > 0 ? 1 : 0;
+        } else if (ax >= ay) {
+            u = nx > 0 ? 1 : 2;
+            v = nx > 0 ? 2 : 1;
+        } else {
+            u = ny > 0 ? 2 : 0;
+            v = ny > 0 ? 0 : 2;
+        }
+        if (Math.max(az, Math.max(ax, ay)) == 0) {
+            return false;
+        }
+
+        if (next.length < size) {
+            projected = new float[2 * size];
+            next = new int[size];
+            previous = new int[size];
+        }
+        for (int i = 0; i < size; i++) {
+            int p = vertexIndices[start + i] * 3;
+            projected[2 * i] = positions[p + u];
+            projected[2 * i + 1] = positions[p + v];
+        }
+        return true;
+    }
+
+    private boolean isConvex(int size) {
+        for (int i = 0; i < size; i++) {
+            if (turn((i + size - 1) % size, i, (i + 1) % size) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void clipEars(int[] vertexIndices, int[] textureIndices, int[] normalIndices,
+                          boolean hasTextures, boolean hasNormals, int start, int size, PolygonArray out) {
+        for (int i = 0; i < size; i++) {
+            previous[i] = (i + size - 1) % size;
+            next[i] = (i + 1) % size;
+        }
+
+        int remaining = size;
+        int current = 0;
+        // Сколько вершин подряд проверено без найденного уха
+        int checked = 0;
+        while (remaining > 3 && checked < remaining) {
+            int a = previous[current], b = current, c = next[current];
+            if (isEar(a, b, c)) {
+                emit(vertexIndices, textureIndices, normalIndices, hasTextures, hasNormals,
+                        start + a, start + b, start + c, out);
+                next[a] = c;
+                previous[c] = a;
+                remaining--;
+                current = c;
+                checked = 0;
+            } else {
+                current = c;
+                checked++;
+            }
+        }
+
+        // Остался треугольник или ушей нет (самопересечение, вырожденные вершины) - остаток веером
+        int first = current;
+        for (int b = next[first]; next[b] != first; b = next[b]) {
+            emit(vertexIndices, textureIndices, normalIndices, hasTextures, hasNormals,
+                    start + first, start + b, start + next[b], out);
+        }
+    }
+
+    // Ухо: выпуклая вершина b, в треугольнике abc нет других оставшихся вершин
+    private boolean isEar(int a, int b, int c) {
+        if (turn(a, b, c) <= 0) {
+            return false;
+        }
+        for (int p = next[c]; p != a; p = next[p]) {
+            if (samePoint(p, a) || samePoint(p, b) || samePoint(p, c)) {
+                continue;
+            }
+            if (turn(a, b, p) >= 0 && turn(b, c, p) >= 0 && turn(c, a, p) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Положительно, если a -> b -> c поворачивает против часовой стрелки
+    private float turn(int a, int b, int c) {
+        float ax = projected[2 * a], ay = projected[2 * a + 1];
+        return (projected[2 * b] - ax) * (projected[2 * c + 1] - ay)
+                - (projected[2 * b + 1] - ay) * (projected[2 * c] - ax);
+    }
+
+    private boolean samePoint(int a, int b) {
+        return projected[2 * a] == projected[2 * b] && projected[2 * a + 1] == projected[2 * b + 1];
+    }
+
+    private static void emit(int[] vertexIndices, int[] textureIndices, int[] normalIndices,
+                             boolean hasTextures, boolean hasNormals, int c0, int c1, int c2, PolygonArray out) {
+        out.addTriangle(
+                vertexIndices[c0], vertexIndices[c1], vertexIndices[c2],
+                hasTextures ? textureIndices[c0] : PolygonArray.NO_INDEX,
+                hasTextures ? textureIndices[c1] : PolygonArray.NO_INDEX,
+                hasTextures ? textureIndices[c2] : PolygonArray.NO_INDEX,
+                hasNormals ? normalIndices[c0] : PolygonArray.NO_INDEX,
+                hasNormals ? normalIndices[c1] : PolygonArray.NO_INDEX,
+                hasNormals ? normalIndices[c2] : PolygonArray.NO_INDEX);
+    }
+
+    private static boolean hasAll(int[] indices, int start, int size) {
+        for (int corner = start; corner < start + size; corner++) {
+            if (indices[corner] == PolygonArray.NO_INDEX) {
+                return false;
+            }
         }
+        return true;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,240 @@
+package com.cgvsu.math.matrix;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+class Matrix4fTest {
+
+    private static final float EPSILON = 1e-4f;
+
+    // Случайная матрица с преобладающей диагональю: всегда обратима и хорошо обусловлена
+    private static Matrix4f randomMatrix(Random random) {
+        Matrix4f result = new Matrix4f();
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                result.set(i, j, random.nextFloat() * 2 - 1 + (i == j ? 4 : 0));
+            }
+        }
+        return result;
+    }
+
+    // Поворот, неравномерный масштаб и перенос
+    private static Matrix4f randomAffine(Random random) {
+        Matrix4f result = randomMatrix(random);
+        return result.set(3, 0, 0).set(3, 1, 0).set(3, 2, 0).set(3, 3, 1);
+    }
+
+    // Произведение по определению, в double
+    private static double[][] referenceProduct(Matrix4f a, Matrix4f b) {
+        double[][] result = new double[4][4];
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                for (int k = 0; k < 4; k++) {
+                    result[i][j] += (double) a.get(i, k) * b.get(k, j);
+                }
+            }
+        }
+        return result;
+    }
+
+    // Определитель разложением по первой строке, в double
+    private static double referenceDeterminant(double[][] m) {
+        int n = m.length;
+        if (n == 1) {
+            return m[0][0];
+        }
+        double result = 0;
+        for (int column = 0; column < n; column++) {
+            double[][] minor = new double[n - 1][n - 1];
+            for (int i = 1; i < n; i++) {
+                for (int j = 0, k = 0; j < n; j++) {
+                    if (j != column) {
+                        minor[i - 1][k++] = m[i][j];
+                    }
+                }
+            }
+            result += (column % 2 == 0 ? 1 : -1) * m[0][column] * referenceDeterminant(minor);
+        }
+        return result;
+    }
+
+    private static void assertMatrixEquals(double[][] expected, Matrix4f actual) {
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                Assertions.assertEquals(expected[i][j], actual.get(i, j), EPSILON * Math.max(1, Math.abs(expected[i][j])),
+                        "Элемент (" + i + ", " + j + ")");
+            }
+        }
+    }
+
+    private static void assertMatrixEquals(Matrix4f expected, Matrix4f actual) {
+        double[][] values = new double[4][4];
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                values[i][j] = expected.get(i, j);
+            }
+        }
+        assertMatrixEquals(values, actual);
+    }
+
+    private static void assertIdentity(Matrix4f actual) {
+        assertMatrixEquals(new Matrix4f(), actual);
+    }
+
+    @Test
+    public void testInvertGivesIdentity() {
+        Random random = new Random(1);
+        for (int n = 0; n < 100; n++) {
+            Matrix4f a = randomMatrix(random);
+            Assertions.assertFalse(a.isAffine());
+            Matrix4f inverse = Matrix4f.invert(a, new Matrix4f());
+
+            assertIdentity(Matrix4f.multiply(a, inverse, new Matrix4f()));
+            assertIdentity(Matrix4f.multiply(inverse, a, new Matrix4f()));
+        }
+    }
+
+    @Test
+    public void testInvertAffineGivesIdentity() {
+        Random random = new Random(2);
+        for (int n = 0; n < 100; n++) {
+            Matrix4f a = randomAffine(random);
+            Assertions.assertTrue(a.isAffine());
+            Matrix4f inverse = Matrix4f.invertAffine(a, new Matrix4f());
+
+            Assertions.assertTrue(inverse.isAffine());
+            assertIdentity(Matrix4f.multiply(a, inverse, new Matrix4f()));
+            assertIdentity(Matrix4f.multiply(inverse, a, new Matrix4f()));
+        }
+    }
+
+    @Test
+    public void testInvertAffineMatchesGeneralInverse() {
+        // Аффинную матрицу чуть портим в нижней строке, чтобы invert пошёл общим путём, и сравниваем с ним
+        Random random = new Random(3);
+        for (int n = 0; n < 100; n++) {
+            Matrix4f a = randomAffine(random);
+            Matrix4f affineInverse = Matrix4f.invertAffine(a, new Matrix4f());
+
+            Matrix4f general = new Matrix4f(a).set(3, 3, Math.nextUp(1.0f));
+            Assertions.assertFalse(general.isAffine());
+            Matrix4f generalInverse = Matrix4f.invert(general, new Matrix4f());
+
+            assertMatrixEquals(generalInverse, affineInverse);
+        }
+    }
+
+    @Test
+    public void testMultiplyMatchesDefinition() {
+        Random random = new Random(4);
+        for (int n = 0; n < 100; n++) {
+            // Общий путь, аффинный путь и смешанные пары
+            Matrix4f a = n % 2 == 0 ? randomMatrix(random) : randomAffine(random);
+            Matrix4f b = n % 4 < 2 ? randomAffine(random) : randomMatrix(random);
+
+            assertMatrixEquals(referenceProduct(a, b), Matrix4f.multiply(a, b, new Matrix4f()));
+        }
+    }
+
+    @Test
+    public void testAffineFastPathMatchesGeneralMultiply() {
+        Random random = new Random(5);
+        for (int n = 0; n < 100; n++) {
+            Matrix4f a = randomAffine(random);
+            Matrix4f b = randomAffine(random);
+
+            Matrix4f fast = Matrix4f.multiply(a, b, new Matrix4f());
+            Matrix4f affine = Matrix4f.multiplyAffine(a, b, new Matrix4f());
+
+            Assertions.assertTrue(fast.isAffine());
+            assertMatrixEquals(referenceProduct(a, b), fast);
+            assertMatrixEquals(affine, fast);
+        }
+    }
+
+    @Test
+    public void testMultiplyIntoArgument() {
+        Random random = new Random(6);
+        for (int n = 0; n < 50; n++) {
+            for (boolean affine : new boolean[]{false, true}) {
+                Matrix4f a = affine ? randomAffine(random) : randomMatrix(random);
+                Matrix4f b = affine ? randomAffine(random) : randomMatrix(random);
+                double[][] expected = referenceProduct(a, b);
+
+                Matrix4f intoA = new Matrix4f(a);
+                Assertions.assertSame(intoA, Matrix4f.multiply(intoA, b, intoA));
+                assertMatrixEquals(expected, intoA);
+
+                Matrix4f intoB = new Matrix4f(b);
+                Assertions.assertSame(intoB, Matrix4f.multiply(a, intoB, intoB));
+                assertMatrixEquals(expected, intoB);
+
+                Matrix4f square = new Matrix4f(a);
+                double[][] expectedSquare = referenceProduct(a, a);
+                Matrix4f.multiply(square, square, square);
+                assertMatrixEquals(expectedSquare, square);
+            }
+        }
+    }
+
+    @Test
+    public void testInvertIntoArgument() {
+        Random random = new Random(7);
+        for (int n = 0; n < 50; n++) {
+            Matrix4f general = randomMatrix(random);
+            Matrix4f generalInPlace = new Matrix4f(general);
+            Matrix4f.invert(generalInPlace, generalInPlace);
+            assertMatrixEquals(Matrix4f.invert(general, new Matrix4f()), generalInPlace);
+
+            Matrix4f affine = randomAffine(random);
+            Matrix4f affineInPlace = new Matrix4f(affine);
+            Matrix4f.invertAffine(affineInPlace, affineInPlace);
+            assertMatrixEquals(Matrix4f.invertAffine(affine, new Matrix4f()), affineInPlace);
+        }
+    }
+
+    @Test
+    public void testDeterminant() {
+        Random random = new Random(8);
+        for (int n = 0; n < 100; n++) {
+            Matrix4f a = n % 2 == 0 ? randomMatrix(random) : randomAffine(random);
+            double[][] values = new double[4][4];
+            for (int i = 0; i < 4; i++) {
+                for (int j = 0; j < 4; j++) {
+                    values[i][j] = a.get(i, j);
+                }
+            }
+            double expected = referenceDeterminant(values);
+
+            Assertions.assertEquals(expected, Matrix4f.determinant(a), EPSILON * Math.abs(expected));
+        }
+
+        Matrix4f diagonal = new Matrix4f().set(0, 0, 2).set(1, 1, -3).set(2, 2, 0.5f).set(3, 3, 4);
+        Assertions.assertEquals(-12, Matrix4f.determinant(diagonal));
+    }
+
+    @Test
+    public void testSingularMatrixThrows() {
+        // Третья строка - сумма первых двух
+        Matrix4f general = new Matrix4f().set(
+                1, 2, 3, 4,
+                0, 1, 5, 2,
+                1, 3, 8, 6,
+                2, 0, 1, 7);
+        Assertions.assertEquals(0, Matrix4f.determinant(general));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Matrix4f.invert(general, new Matrix4f()));
+
+        // Аффинная матрица с вырожденным блоком 3x3: масштаб 0 по оси Z
+        Matrix4f affine = new Matrix4f().set(
+                1, 0, 0, 5,
+                0, 2, 0, 6,
+                0, 0, 0, 7,
+                0, 0, 0, 1);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Matrix4f.invert(affine, new Matrix4f()));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Matrix4f.invertAffine(affine, new Matrix4f()));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Matrix4f.inverse(Matrix4f.zero()));
+    }
+}
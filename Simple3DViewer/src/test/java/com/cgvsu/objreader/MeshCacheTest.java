@@ -0,0 +1,190 @@
+package com.cgvsu.objreader;
+
+import com.cgvsu.model.Model;
+import com.cgvsu.model.PolygonArray;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+class MeshCacheTest {
+
+	// Четырёхугольник с UV и пирамида без нормалей: часть нормалей посчитана по вершинам
+	private static final String OBJ = """
+			v 0 0 0
+			v 1 0 0
+			v 1 1 0
+			v 0 1 0
+			v 0.5 0.5 1
+			vt 0 0
+			vt 1 0
+			vt 1 1
+			vt 0 1
+			vn 0 0 -1
+			f 1/1/1 4/4/1 3/3/1 2/2/1
+			f 1 2 5
+			f 2 3 5
+			f 3 4 5
+			f 4 1 5
+			""";
+
+	@TempDir
+	Path directory;
+
+	private Path previousCacheDirectory;
+
+	@BeforeEach
+	void useTempCacheDirectory() {
+		previousCacheDirectory = MeshCache.getCacheDirectory();
+		MeshCache.setCacheDirectory(directory.resolve("cache"));
+	}
+
+	@AfterEach
+	void restoreCacheDirectory() {
+		MeshCache.setCacheDirectory(previousCacheDirectory);
+	}
+
+	private Path writeSource(String content) throws IOException {
+		Path file = directory.resolve("model.obj");
+		Files.writeString(file, content);
+		return file;
+	}
+
+	// Готовит сетку так же, как ModelLoader, и записывает кэш
+	private static Model readAndStore(Path source, boolean triangulate) throws IOException {
+		long size = Files.size(source);
+		long modified = Files.getLastModifiedTime(source).toMillis();
+		Model model = ObjReader.read(source, triangulate);
+		model.ensureNormalsExist();
+		MeshCache.store(source, model, size, modified);
+		Assertions.assertTrue(Files.isRegularFile(MeshCache.getCacheFile(source)));
+		return model;
+	}
+
+	private static void assertSameModel(Model expected, Model actual) {
+		Assertions.assertNotNull(actual);
+		Assertions.assertArrayEquals(
+				Arrays.copyOf(expected.vertices.getData(), expected.vertices.size() * 3),
+				Arrays.copyOf(actual.vertices.getData(), actual.vertices.size() * 3));
+		Assertions.assertArrayEquals(
+				Arrays.copyOf(expected.textureVertices.getData(), expected.textureVertices.size() * 2),
+				Arrays.copyOf(actual.textureVertices.getData(), actual.textureVertices.size() * 2));
+		Assertions.assertArrayEquals(
+				Arrays.copyOf(expected.normals.getData(), expected.normals.size() * 3),
+				Arrays.copyOf(actual.normals.getData(), actual.normals.size() * 3));
+		Assertions.assertEquals(expected.getComputedNormalsStart(), actual.getComputedNormalsStart());
+
+		PolygonArray expectedPolygons = expected.polygons;
+		PolygonArray actualPolygons = actual.polygons;
+		int cornerCount = expectedPolygons.getCornerCount();
+		Assertions.assertEquals(expectedPolygons.size(), actualPolygons.size());
+		Assertions.assertEquals(cornerCount, actualPolygons.getCornerCount());
+		Assertions.assertEquals(expectedPolygons.isTriangles(), actualPolygons.isTriangles());
+		for (int face = 0; face < expectedPolygons.size(); face++) {
+			Assertions.assertEquals(expectedPolygons.getFaceStart(face), actualPolygons.getFaceStart(face));
+			Assertions.assertEquals(expectedPolygons.getFaceSize(face), actualPolygons.getFaceSize(face));
+		}
+		Assertions.assertArrayEquals(
+				Arrays.copyOf(expectedPolygons.getVertexIndices(), cornerCount),
+				Arrays.copyOf(actualPolygons.getVertexIndices(), cornerCount));
+		Assertions.assertArrayEquals(
+				Arrays.copyOf(expectedPolygons.getTextureIndices(), cornerCount),
+				Arrays.copyOf(actualPolygons.getTextureIndices(), cornerCount));
+		Assertions.assertArrayEquals(
+				Arrays.copyOf(expectedPolygons.getNormalIndices(), cornerCount),
+				Arrays.copyOf(actualPolygons.getNormalIndices(), cornerCount));
+	}
+
+	// Перезаписывает кусок кэша в обход формата
+	private static void patch(Path cacheFile, long position, ByteBuffer bytes) throws IOException {
+		try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.WRITE)) {
+			channel.write(bytes, position);
+		}
+	}
+
+	@Test
+	public void testTriangulatedRoundTrip() throws IOException {
+		Path source = writeSource(OBJ);
+		Model expected = readAndStore(source, true);
+
+		Assertions.assertTrue(expected.polygons.isTriangles());
+		Assertions.assertTrue(expected.getComputedNormalsStart() > 0);
+		assertSameModel(expected, MeshCache.readCached(source));
+	}
+
+	@Test
+	public void testPolygonRoundTrip() throws IOException {
+		// Не треугольные грани: в кэш пишутся и смещения граней
+		Path source = writeSource(OBJ);
+		Model expected = readAndStore(source, false);
+
+		Assertions.assertFalse(expected.polygons.isTriangles());
+		assertSameModel(expected, MeshCache.readCached(source));
+	}
+
+	@Test
+	public void testMissingCacheIsNull() throws IOException {
+		Assertions.assertNull(MeshCache.readCached(writeSource(OBJ)));
+	}
+
+	@Test
+	public void testStaleAfterSourceModified() throws IOException {
+		Path source = writeSource(OBJ);
+		readAndStore(source, true);
+		FileTime modified = Files.getLastModifiedTime(source);
+
+		Files.setLastModifiedTime(source, FileTime.fromMillis(modified.toMillis() + 10_000));
+
+		Assertions.assertNull(MeshCache.readCached(source));
+	}
+
+	@Test
+	public void testStaleAfterSourceResized() throws IOException {
+		Path source = writeSource(OBJ);
+		readAndStore(source, true);
+		FileTime modified = Files.getLastModifiedTime(source);
+
+		// Время изменения возвращается прежним, чтобы кэш выдал только размер
+		Files.writeString(source, OBJ + "v 2 2 2\n");
+		Files.setLastModifiedTime(source, modified);
+
+		Assertions.assertNull(MeshCache.readCached(source));
+	}
+
+	@Test
+	public void testCorruptedDataIsNull() throws IOException {
+		Path source = writeSource(OBJ);
+		readAndStore(source, true);
+		Path cacheFile = MeshCache.getCacheFile(source);
+		long lastByte = Files.size(cacheFile) - 1;
+		byte original = Files.readAllBytes(cacheFile)[(int) lastByte];
+
+		patch(cacheFile, lastByte, ByteBuffer.wrap(new byte[]{(byte) ~original}));
+
+		Assertions.assertNull(MeshCache.readCached(source));
+	}
+
+	@Test
+	public void testOtherVersionIsNull() throws IOException {
+		Path source = writeSource(OBJ);
+		readAndStore(source, true);
+		Path cacheFile = MeshCache.getCacheFile(source);
+		// Версия формата - int по смещению 4 сразу после сигнатуры
+		int version = ByteBuffer.wrap(Files.readAllBytes(cacheFile)).order(ByteOrder.LITTLE_ENDIAN).getInt(4);
+
+		patch(cacheFile, 4, ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, version + 1));
+
+		Assertions.assertNull(MeshCache.readCached(source));
+	}
+}
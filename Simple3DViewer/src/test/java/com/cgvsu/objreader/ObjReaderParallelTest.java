@@ -0,0 +1,224 @@
+package com.cgvsu.objreader;
+
+import com.cgvsu.model.Model;
+import com.cgvsu.model.PolygonArray;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Параллельное чтение должно давать ровно то же, что и последовательное.
+ * Свой пул и маленькие части - чтобы файл резался на много частей при любом числе ядер.
+ */
+class ObjReaderParallelTest {
+
+	private static final int PARALLELISM = 4;
+	private static final long MIN_CHUNK_SIZE = 4096;
+
+	private static ForkJoinPool pool;
+
+	@TempDir
+	Path directory;
+
+	@BeforeAll
+	static void createPool() {
+		pool = new ForkJoinPool(PARALLELISM);
+	}
+
+	@AfterAll
+	static void shutdownPool() {
+		pool.shutdown();
+	}
+
+	// Сетка с UV и нормалями: треугольники, четырёхугольники и невыпуклые пятиугольники,
+	// индексы вперемешку абсолютные и относительные
+	private static String generateObj(int rows, int columns, Random random) {
+		StringBuilder obj = new StringBuilder("# parallel reader test\n");
+		int vertexCount = 0;
+		for (int row = 0; row < rows; row++) {
+			obj.append("g row").append(row).append('\n');
+			for (int column = 0; column < columns; column++) {
+				// Нечётные столбцы сдвинуты вниз, так что пятиугольник ниже получает вдавленную вершину
+				float y = column % 2 == 0 ? row : row - 0.3f;
+				obj.append("v ").append(column).append(' ').append(y).append(' ').append(random.nextFloat() * 0.1f).append('\n');
+				obj.append("vt ").append(column / (float) columns).append(' ').append(row / (float) rows).append('\n');
+				obj.append("vn 0 0 1\n");
+				vertexCount++;
+			}
+			if (row == 0) {
+				continue;
+			}
+			for (int column = 0; column + 2 < columns; column += 2) {
+				// Углы по номерам от 1: верхний ряд - только что добавленные вершины
+				int a = vertexCount - columns + column + 1;
+				int b = a + 1;
+				int c = a + 2;
+				int d = a - columns;
+				int e = d + 1;
+				int f = d + 2;
+				int[] pentagon = {d, f, c, b, a};
+				int shift = random.nextInt(pentagon.length);
+				switch (random.nextInt(3)) {
+					case 0 -> obj.append("f ").append(corner(d, vertexCount, random)).append(' ')
+							.append(corner(e, vertexCount, random)).append(' ')
+							.append(corner(a, vertexCount, random)).append('\n');
+					case 1 -> obj.append("f ").append(corner(d, vertexCount, random)).append(' ')
+							.append(corner(e, vertexCount, random)).append(' ')
+							.append(corner(b, vertexCount, random)).append(' ')
+							.append(corner(a, vertexCount, random)).append('\n');
+					// Вершина b ниже линии a-c, начало обхода выбирается случайно, в том числе с b
+					default -> {
+						obj.append('f');
+						for (int i = 0; i < pentagon.length; i++) {
+							obj.append(' ').append(corner(pentagon[(i + shift) % pentagon.length], vertexCount, random));
+						}
+						obj.append('\n');
+					}
+				}
+			}
+		}
+		return obj.toString();
+	}
+
+	private static String corner(int index, int count, Random random) {
+		String v = random.nextBoolean() ? String.valueOf(index) : String.valueOf(index - count - 1);
+		String vt = random.nextBoolean() ? String.valueOf(index) : String.valueOf(index - count - 1);
+		String vn = random.nextBoolean() ? String.valueOf(index) : String.valueOf(index - count - 1);
+		return v + "/" + vt + "/" + vn;
+	}
+
+	private Path write(String name, String content) throws IOException {
+		Path file = directory.resolve(name);
+		Files.writeString(file, content);
+		return file;
+	}
+
+	private static Model readParallel(Path file, boolean triangulate) throws IOException {
+		return ObjReader.readParallel(file, triangulate, () -> false, pool, MIN_CHUNK_SIZE);
+	}
+
+	private static void assertSameModel(Model expected, Model actual) {
+		Assertions.assertEquals(expected.vertices.size(), actual.vertices.size());
+		Assertions.assertEquals(expected.textureVertices.size(), actual.textureVertices.size());
+		Assertions.assertEquals(expected.normals.size(), actual.normals.size());
+		Assertions.assertArrayEquals(
+				Arrays.copyOf(expected.vertices.getData(), expected.vertices.size() * 3),
+				Arrays.copyOf(actual.vertices.getData(), actual.vertices.size() * 3));
+		Assertions.assertArrayEquals(
+				Arrays.copyOf(expected.textureVertices.getData(), expected.textureVertices.size() * 2),
+				Arrays.copyOf(actual.textureVertices.getData(), actual.textureVertices.size() * 2));
+		Assertions.assertArrayEquals(
+				Arrays.copyOf(expected.normals.getData(), expected.normals.size() * 3),
+				Arrays.copyOf(actual.normals.getData(), actual.normals.size() * 3));
+
+		PolygonArray expectedPolygons = expected.polygons;
+		PolygonArray actualPolygons = actual.polygons;
+		int cornerCount = expectedPolygons.getCornerCount();
+		Assertions.assertEquals(expectedPolygons.size(), actualPolygons.size());
+		Assertions.assertEquals(cornerCount, actualPolygons.getCornerCount());
+		Assertions.assertEquals(expectedPolygons.isTriangles(), actualPolygons.isTriangles());
+		for (int face = 0; face < expectedPolygons.size(); face++) {
+			Assertions.assertEquals(expectedPolygons.getFaceStart(face), actualPolygons.getFaceStart(face));
+			Assertions.assertEquals(expectedPolygons.getFaceSize(face), actualPolygons.getFaceSize(face));
+		}
+		Assertions.assertArrayEquals(
+				Arrays.copyOf(expectedPolygons.getVertexIndices(), cornerCount),
+				Arrays.copyOf(actualPolygons.getVertexIndices(), cornerCount));
+		Assertions.assertArrayEquals(
+				Arrays.copyOf(expectedPolygons.getTextureIndices(), cornerCount),
+				Arrays.copyOf(actualPolygons.getTextureIndices(), cornerCount));
+		Assertions.assertArrayEquals(
+				Arrays.copyOf(expectedPolygons.getNormalIndices(), cornerCount),
+				Arrays.copyOf(actualPolygons.getNormalIndices(), cornerCount));
+	}
+
+	@Test
+	public void testParallelMatchesSequential() throws IOException {
+		Path file = write("grid.obj", generateObj(120, 60, new Random(1)));
+		Assertions.assertTrue(Files.size(file) > 8 * MIN_CHUNK_SIZE * PARALLELISM);
+
+		Model expected = ObjReader.read(file, false);
+		Model actual = readParallel(file, false);
+
+		Assertions.assertFalse(expected.polygons.isTriangles());
+		assertSameModel(expected, actual);
+	}
+
+	@Test
+	public void testParallelTriangulatedMatchesSequential() throws IOException {
+		Path file = write("grid.obj", generateObj(120, 60, new Random(2)));
+
+		Model expected = ObjReader.read(file, true);
+		Model actual = readParallel(file, true);
+
+		Assertions.assertTrue(expected.polygons.isTriangles());
+		assertSameModel(expected, actual);
+	}
+
+	@Test
+	public void testErrorInLateChunkReportsFileLine() throws IOException {
+		String[] lines = generateObj(120, 60, new Random(3)).split("\n", -1);
+		int errorLine = lines.length * 9 / 10;
+		lines[errorLine - 1] = "v 1.0 not-a-number 2.0";
+		Path file = write("broken.obj", String.join("\n", lines));
+
+		ObjReaderException sequential = Assertions.assertThrows(ObjReaderException.class,
+				() -> ObjReader.read(file, true));
+		ObjReaderException parallel = Assertions.assertThrows(ObjReaderException.class,
+				() -> readParallel(file, true));
+
+		Assertions.assertEquals(errorLine, sequential.getLineInd());
+		Assertions.assertEquals(sequential.getLineInd(), parallel.getLineInd());
+		Assertions.assertEquals(sequential.getMessage(), parallel.getMessage());
+	}
+
+	// Строка с неверным индексом в поздней части: по числу элементов части ошибку не увидеть,
+	// только с учётом предыдущих частей
+	private void assertOutOfRangeInLateChunk(String face, String message) throws IOException {
+		String[] lines = generateObj(120, 60, new Random(4)).split("\n", -1);
+		int errorLine = lines.length * 9 / 10;
+		lines[errorLine - 1] = face;
+		Path file = write("out-of-range.obj", String.join("\n", lines));
+
+		ObjReaderException sequential = Assertions.assertThrows(ObjReaderException.class,
+				() -> ObjReader.read(file, false));
+		ObjReaderException parallel = Assertions.assertThrows(ObjReaderException.class,
+				() -> readParallel(file, false));
+
+		Assertions.assertEquals(message, sequential.getErrorMessage());
+		Assertions.assertEquals(errorLine, sequential.getLineInd());
+		Assertions.assertEquals(sequential.getMessage(), parallel.getMessage());
+	}
+
+	@Test
+	public void testPositiveIndexOutOfRangeInLateChunk() throws IOException {
+		assertOutOfRangeInLateChunk("f 1/1/1 2/1/1 999999/1/1", "Vertex index out of range.");
+		assertOutOfRangeInLateChunk("f 1/1/1 2/999999/1 3/1/1", "Texture vertex index out of range.");
+	}
+
+	@Test
+	public void testNegativeIndexOutOfRangeInLateChunk() throws IOException {
+		assertOutOfRangeInLateChunk("f -999999/1/1 2/1/1 3/1/1", "Vertex index out of range.");
+		assertOutOfRangeInLateChunk("f 1/1/1 2/1/-999999 3/1/1", "Normal index out of range.");
+	}
+
+	@Test
+	public void testIndicesIntoEarlierChunksAreInRange() throws IOException {
+		// Первая вершина файла и вершина из предыдущей части - по абсолютному и относительному индексу
+		String[] lines = generateObj(120, 60, new Random(5)).split("\n", -1);
+		int line = lines.length * 9 / 10;
+		lines[line - 1] = "f 1/1/1 -3000/-3000/-3000 -1/-1/-1";
+		Path file = write("far-references.obj", String.join("\n", lines));
+
+		assertSameModel(ObjReader.read(file, false), readParallel(file, false));
+	}
+}
@@ -0,0 +1,66 @@
+package com.cgvsu.objreader;
+
+import com.cgvsu.model.Model;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+class ObjReaderTest {
+
+	private static final String TRIANGLE = """
+			v 0 0 0
+			v 1 0 0
+			v 0 1 0
+			vt 0 0
+			vn 0 0 1
+			""";
+
+	private static Model read(String obj) throws IOException {
+		return ObjReader.read(new ByteArrayInputStream(obj.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static void assertReadFails(String obj, String message, int lineInd) {
+		ObjReaderException exception = Assertions.assertThrows(ObjReaderException.class, () -> read(obj));
+		Assertions.assertEquals(message, exception.getErrorMessage());
+		Assertions.assertEquals(lineInd, exception.getLineInd());
+	}
+
+	@Test
+	public void testFaceIndicesInRange() throws IOException {
+		Model model = read(TRIANGLE + "f 1/1/1 2/1/1 3/1/1\nf -3//-1 -2//1 -1//1\n");
+
+		Assertions.assertEquals(2, model.polygons.size());
+		Assertions.assertEquals(0, model.polygons.getVertexIndex(3));
+		Assertions.assertEquals(2, model.polygons.getVertexIndex(5));
+		Assertions.assertEquals(0, model.polygons.getNormalIndex(3));
+	}
+
+	@Test
+	public void testPositiveVertexIndexOutOfRange() {
+		assertReadFails(TRIANGLE + "f 1//1 2//1 99//1\n", "Vertex index out of range.", 6);
+	}
+
+	@Test
+	public void testNegativeVertexIndexOutOfRange() {
+		assertReadFails(TRIANGLE + "f -5//1 2//1 3//1\n", "Vertex index out of range.", 6);
+	}
+
+	@Test
+	public void testTextureAndNormalIndicesOutOfRange() {
+		assertReadFails(TRIANGLE + "f 1/2 2/1 3/1\n", "Texture vertex index out of range.", 6);
+		assertReadFails(TRIANGLE + "f 1//1 2//-2 3//1\n", "Normal index out of range.", 6);
+	}
+
+	@Test
+	public void testIndexOfElementDefinedLaterIsOutOfRange() {
+		assertReadFails("v 0 0 0\nv 1 0 0\nf 1 2 3\nv 0 1 0\n", "Vertex index out of range.", 3);
+	}
+
+	@Test
+	public void testZeroIndex() {
+		assertReadFails(TRIANGLE + "f 0 1 2\n", "Invalid index 0.", 6);
+	}
+}
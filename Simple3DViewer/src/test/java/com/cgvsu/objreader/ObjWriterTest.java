@@ -0,0 +1,163 @@
+package com.cgvsu.objreader;
+
+import com.cgvsu.model.Model;
+import com.cgvsu.model.PolygonArray;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+class ObjWriterTest {
+
+	// Записывает модель и читает её обратно
+	private static Model roundTrip(Model model) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ObjWriter.write(model, Channels.newChannel(out), false, true, true);
+		return ObjReader.read(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	private static void assertBitsEqual(float[] expected, float[] actual, int count) {
+		for (int i = 0; i < count; i++) {
+			Assertions.assertEquals(Float.floatToRawIntBits(expected[i]), Float.floatToRawIntBits(actual[i]),
+					"Элемент " + i + ": записано " + expected[i] + ", прочитано " + actual[i]);
+		}
+	}
+
+	private static float randomFiniteFloat(Random random) {
+		while (true) {
+			float value = Float.intBitsToFloat(random.nextInt());
+			if (Float.isFinite(value)) {
+				return value;
+			}
+		}
+	}
+
+	@Test
+	public void testRandomBitPatternsRoundTrip() throws IOException {
+		Random random = new Random(42);
+		Model model = new Model();
+		for (int i = 0; i < 20000; i++) {
+			model.vertices.add(randomFiniteFloat(random), randomFiniteFloat(random), randomFiniteFloat(random));
+		}
+
+		Model result = roundTrip(model);
+
+		Assertions.assertEquals(model.vertices.size(), result.vertices.size());
+		assertBitsEqual(model.vertices.getData(), result.vertices.getData(), model.vertices.size() * 3);
+	}
+
+	@Test
+	public void testEdgeValuesRoundTrip() throws IOException {
+		float[] values = {
+				0.0f, -0.0f,
+				Float.MIN_VALUE, -Float.MIN_VALUE,
+				Float.MIN_NORMAL, Math.nextDown(Float.MIN_NORMAL), -Math.nextDown(Float.MIN_NORMAL),
+				Float.intBitsToFloat(0x00012345), Float.intBitsToFloat(0x80400001),
+				Float.MAX_VALUE, -Float.MAX_VALUE, Math.nextDown(Float.MAX_VALUE),
+				1e38f, 3.0e37f, -1.2345678e30f, 1e-38f, 1e-45f,
+				1.0f, -1.0f, 0.1f, 1.0f / 3, 16777216.0f, 16777217.0f, 123456789.0f, 1e10f,
+		};
+		Model model = new Model();
+		for (float value : values) {
+			model.vertices.add(value, -value, value * 0.5f);
+		}
+
+		Model result = roundTrip(model);
+
+		Assertions.assertEquals(model.vertices.size(), result.vertices.size());
+		assertBitsEqual(model.vertices.getData(), result.vertices.getData(), model.vertices.size() * 3);
+	}
+
+	@Test
+	public void testTextureVerticesAndNormalsRoundTrip() throws IOException {
+		Random random = new Random(7);
+		Model model = new Model();
+		model.vertices.add(0, 0, 0);
+		for (int i = 0; i < 1000; i++) {
+			model.textureVertices.add(randomFiniteFloat(random), random.nextFloat());
+			model.normals.add(random.nextFloat() * 2 - 1, -0.0f, randomFiniteFloat(random));
+		}
+
+		Model result = roundTrip(model);
+
+		Assertions.assertEquals(model.textureVertices.size(), result.textureVertices.size());
+		Assertions.assertEquals(model.normals.size(), result.normals.size());
+		assertBitsEqual(model.textureVertices.getData(), result.textureVertices.getData(), model.textureVertices.size() * 2);
+		assertBitsEqual(model.normals.getData(), result.normals.getData(), model.normals.size() * 3);
+	}
+
+	@Test
+	public void testFaceFormatsRoundTrip() throws IOException {
+		Model model = new Model();
+		for (int i = 0; i < 6; i++) {
+			model.vertices.add(i, i * i, -i);
+			model.textureVertices.add(i * 0.1f, 1 - i * 0.1f);
+			model.normals.add(0, 0, i + 1);
+		}
+		PolygonArray polygons = new PolygonArray();
+		// f v
+		polygons.addTriangle(0, 1, 2,
+				PolygonArray.NO_INDEX, PolygonArray.NO_INDEX, PolygonArray.NO_INDEX,
+				PolygonArray.NO_INDEX, PolygonArray.NO_INDEX, PolygonArray.NO_INDEX);
+		// f v/vt
+		polygons.addTriangle(3, 4, 5, 5, 4, 3,
+				PolygonArray.NO_INDEX, PolygonArray.NO_INDEX, PolygonArray.NO_INDEX);
+		// f v//vn
+		polygons.addTriangle(1, 3, 5,
+				PolygonArray.NO_INDEX, PolygonArray.NO_INDEX, PolygonArray.NO_INDEX,
+				2, 1, 0);
+		// f v/vt/vn, четырёхугольник
+		polygons.beginFace();
+		polygons.addCorner(0, 1, 2);
+		polygons.addCorner(2, 3, 4);
+		polygons.addCorner(4, 5, 0);
+		polygons.addCorner(5, 0, 1);
+		polygons.endFace();
+		model.polygons = polygons;
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ObjWriter.write(model, Channels.newChannel(out), false, true, true);
+		String text = out.toString();
+		Assertions.assertTrue(text.contains("f 1 2 3\n"), text);
+		Assertions.assertTrue(text.contains("f 4/6 5/5 6/4\n"), text);
+		Assertions.assertTrue(text.contains("f 2//3 4//2 6//1\n"), text);
+		Assertions.assertTrue(text.contains("f 1/2/3 3/4/5 5/6/1 6/1/2\n"), text);
+
+		PolygonArray result = ObjReader.read(new ByteArrayInputStream(out.toByteArray())).polygons;
+
+		Assertions.assertEquals(polygons.size(), result.size());
+		for (int face = 0; face < polygons.size(); face++) {
+			Assertions.assertEquals(polygons.getFaceSize(face), result.getFaceSize(face));
+			int expectedStart = polygons.getFaceStart(face);
+			int actualStart = result.getFaceStart(face);
+			for (int i = 0; i < polygons.getFaceSize(face); i++) {
+				Assertions.assertEquals(polygons.getVertexIndex(expectedStart + i), result.getVertexIndex(actualStart + i));
+				Assertions.assertEquals(polygons.getTextureIndex(expectedStart + i), result.getTextureIndex(actualStart + i));
+				Assertions.assertEquals(polygons.getNormalIndex(expectedStart + i), result.getNormalIndex(actualStart + i));
+			}
+		}
+	}
+
+	@Test
+	public void testFaceIndicesDroppedWhenNotWritten() throws IOException {
+		Model model = new Model();
+		model.vertices.add(0, 0, 0);
+		model.vertices.add(1, 0, 0);
+		model.vertices.add(0, 1, 0);
+		model.textureVertices.add(0, 0);
+		model.normals.add(0, 0, 1);
+		model.polygons.addTriangle(0, 1, 2, 0, 0, 0, 0, 0, 0);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ObjWriter.write(model, Channels.newChannel(out), false, false, false);
+		String text = out.toString();
+
+		Assertions.assertFalse(text.contains("vt"), text);
+		Assertions.assertFalse(text.contains("vn"), text);
+		Assertions.assertTrue(text.contains("f 1 2 3\n"), text);
+	}
+}
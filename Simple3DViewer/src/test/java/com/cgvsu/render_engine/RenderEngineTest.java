@@ -0,0 +1,153 @@
+package com.cgvsu.render_engine;
+
+import com.cgvsu.math.vector.Vector3f;
+import com.cgvsu.model.Model;
+import com.cgvsu.model.PolygonArray;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Многопоточная отрисовка тайлами должна давать ровно тот же кадр, что и однопоточная.
+ */
+class RenderEngineTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    private final int defaultThreadCount = RenderEngine.getThreadCount();
+
+    @AfterEach
+    void restoreSettings() {
+        RenderEngine.setThreadCount(defaultThreadCount);
+        RenderEngine.setDeferred(false);
+        RenderEngine.setClusterSorting(true);
+    }
+
+    private static Camera createCamera() {
+        return new Camera(new Vector3f(0, 1.5f, 6), new Vector3f(0, 0, 0), 45.0f, WIDTH / (float) HEIGHT, 0.1f, 100.0f);
+    }
+
+    // Пол из сетки квадратов, уходящий за камеру и за края экрана: треугольники у камеры режутся ближней плоскостью
+    private static Model createFloor() {
+        Model model = new Model();
+        int size = 24;
+        for (int z = 0; z <= size; z++) {
+            for (int x = 0; x <= size; x++) {
+                model.vertices.add(x - size / 2.0f, -1, 10 - z * 1.5f);
+            }
+        }
+        for (int z = 0; z < size; z++) {
+            for (int x = 0; x < size; x++) {
+                int a = z * (size + 1) + x;
+                int b = a + 1;
+                int c = a + size + 1;
+                int d = c + 1;
+                addTriangle(model.polygons, a, b, d);
+                addTriangle(model.polygons, a, d, c);
+            }
+        }
+        model.setUseLighting(true);
+        model.setColor(new Vector3f(0.3f, 0.6f, 0.9f));
+        return model;
+    }
+
+    // Перекрывающиеся треугольники на разной глубине, часть выходит за экран
+    private static Model createTriangleSoup(long seed, boolean wireframe) {
+        Random random = new Random(seed);
+        Model model = new Model();
+        for (int i = 0; i < 300; i++) {
+            float cx = random.nextFloat() * 8 - 4;
+            float cy = random.nextFloat() * 5 - 2;
+            float cz = random.nextFloat() * 6 - 3;
+            for (int corner = 0; corner < 3; corner++) {
+                model.vertices.add(cx + random.nextFloat() * 2 - 1, cy + random.nextFloat() * 2 - 1,
+                        cz + random.nextFloat() * 2 - 1);
+            }
+            addTriangle(model.polygons, 3 * i, 3 * i + 1, 3 * i + 2);
+        }
+        model.setUseLighting(seed % 2 == 0);
+        model.setUseWireframe(wireframe);
+        model.setColor(new Vector3f(0.9f, 0.4f, 0.2f));
+        return model;
+    }
+
+    // Куб с поворотом и переносом через матрицу модели, задние грани отсекаются
+    private static Model createCube() {
+        Model model = new Model();
+        for (int i = 0; i < 8; i++) {
+            model.vertices.add((i & 1) == 0 ? -1 : 1, (i & 2) == 0 ? -1 : 1, (i & 4) == 0 ? -1 : 1);
+        }
+        int[][] faces = {{0, 2, 3, 1}, {4, 5, 7, 6}, {0, 1, 5, 4}, {2, 6, 7, 3}, {0, 4, 6, 2}, {1, 3, 7, 5}};
+        for (int[] face : faces) {
+            addTriangle(model.polygons, face[0], face[1], face[2]);
+            addTriangle(model.polygons, face[0], face[2], face[3]);
+        }
+        model.transform.setPosition(new Vector3f(1.5f, 0.5f, 1));
+        model.transform.setRotation(new Vector3f(30, 45, 10));
+        model.setCullMode(CullMode.BACK);
+        model.setUseLighting(true);
+        model.setUseWireframe(true);
+        return model;
+    }
+
+    private static void addTriangle(PolygonArray polygons, int a, int b, int c) {
+        polygons.addTriangle(a, b, c,
+                PolygonArray.NO_INDEX, PolygonArray.NO_INDEX, PolygonArray.NO_INDEX,
+                PolygonArray.NO_INDEX, PolygonArray.NO_INDEX, PolygonArray.NO_INDEX);
+    }
+
+    // Кадр новой сцены с заданными настройками. Модели и камера каждый раз новые,
+    // так что отложенный режим не переиспользует буфер видимости прошлого кадра
+    private static int[] renderFrame(int threadCount, boolean deferred, boolean clusterSorting) {
+        RenderEngine.setThreadCount(threadCount);
+        RenderEngine.setDeferred(deferred);
+        RenderEngine.setClusterSorting(clusterSorting);
+
+        Camera camera = createCamera();
+        List<Model> models = List.of(createFloor(), createTriangleSoup(1, false), createTriangleSoup(2, true), createCube());
+        RenderEngine.prepareBuffer(WIDTH, HEIGHT);
+        for (Model model : RenderEngine.sortFrontToBack(models, camera)) {
+            RenderEngine.render(camera, model, WIDTH, HEIGHT);
+        }
+        return RenderEngine.finishFrame().getPixels().clone();
+    }
+
+    private static void assertSameFrame(boolean deferred, boolean clusterSorting) {
+        int[] expected = renderFrame(1, deferred, clusterSorting);
+        int background = expected[0];
+        int covered = 0;
+        for (int pixel : expected) {
+            if (pixel != background) {
+                covered++;
+            }
+        }
+        // Кадр не пустой и не залит целиком: сравнение что-то проверяет
+        Assertions.assertTrue(covered > expected.length / 4 && covered < expected.length, "Закрыто пикселей: " + covered);
+
+        for (int threadCount : new int[]{2, 4, 7}) {
+            int[] actual = renderFrame(threadCount, deferred, clusterSorting);
+            for (int i = 0; i < expected.length; i++) {
+                if (expected[i] != actual[i]) {
+                    Assertions.fail("Потоков " + threadCount + ": пиксель (" + i % WIDTH + ", " + i / WIDTH + ") "
+                            + Integer.toHexString(actual[i]) + " вместо " + Integer.toHexString(expected[i]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testForwardThreadedMatchesSingleThreaded() {
+        assertSameFrame(false, true);
+        assertSameFrame(false, false);
+    }
+
+    @Test
+    public void testDeferredThreadedMatchesSingleThreaded() {
+        assertSameFrame(true, true);
+        assertSameFrame(true, false);
+    }
+}
@@ -0,0 +1,180 @@
+package com.cgvsu.utils;
+
+import com.cgvsu.model.PolygonArray;
+import com.cgvsu.model.Vector3fArray;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class TriangulatorTest {
+
+    // Гребёнка с тремя зубцами против часовой стрелки: вершины дна зубцов (4, 1), (3, 1), (2, 1), (1, 1) - вдавленные
+    private static final float[][] COMB = {
+            {0, 0}, {5, 0}, {5, 3}, {4, 3}, {4, 1}, {3, 1}, {3, 3}, {2, 3}, {2, 1}, {1, 1}, {1, 3}, {0, 3}
+    };
+
+    // Буква L против часовой стрелки, вдавленная вершина (1, 1)
+    private static final float[][] L_SHAPE = {
+            {0, 0}, {3, 0}, {3, 1}, {1, 1}, {1, 3}, {0, 3}
+    };
+
+    // Пятиконечная звезда по часовой стрелке: внутренние вершины вдавленные
+    private static final float[][] CLOCKWISE_STAR = star(5, 1.0f, 0.4f, true);
+
+    private static float[][] star(int points, float outer, float inner, boolean clockwise) {
+        float[][] result = new float[points * 2][];
+        for (int i = 0; i < points * 2; i++) {
+            double angle = Math.PI * i / points * (clockwise ? -1 : 1);
+            float radius = i % 2 == 0 ? outer : inner;
+            result[i] = new float[]{(float) (radius * Math.cos(angle)), (float) (radius * Math.sin(angle))};
+        }
+        return result;
+    }
+
+    private static float[][] rotate(float[][] polygon, int shift) {
+        float[][] result = new float[polygon.length][];
+        for (int i = 0; i < polygon.length; i++) {
+            result[i] = polygon[(i + shift) % polygon.length];
+        }
+        return result;
+    }
+
+    private static float[][] reverse(float[][] polygon) {
+        float[][] result = new float[polygon.length][];
+        for (int i = 0; i < polygon.length; i++) {
+            result[i] = polygon[polygon.length - 1 - i];
+        }
+        return result;
+    }
+
+    // Ориентированная площадь, положительная при обходе против часовой стрелки
+    private static double signedArea(float[][] polygon) {
+        double area = 0;
+        for (int i = 0; i < polygon.length; i++) {
+            float[] a = polygon[i];
+            float[] b = polygon[(i + 1) % polygon.length];
+            area += (double) a[0] * b[1] - (double) b[0] * a[1];
+        }
+        return area / 2;
+    }
+
+    private static boolean contains(float[][] polygon, double x, double y) {
+        boolean inside = false;
+        for (int i = 0, j = polygon.length - 1; i < polygon.length; j = i++) {
+            float[] a = polygon[i];
+            float[] b = polygon[j];
+            if ((a[1] > y) != (b[1] > y) && x < (b[0] - a[0]) * (y - a[1]) / (b[1] - a[1]) + a[0]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Триангулирует грань, лежащую в плоскости, заданной осями axisU и axisV, и проверяет, что треугольники
+     * покрывают её ровно: их ровно n - 2, обход у всех тот же, что у грани, площади в сумме дают площадь грани,
+     * и каждый треугольник лежит внутри грани. Индексы UV и нормалей должны переноситься вместе с вершинами.
+     */
+    private static void assertTriangulatedExactly(float[][] polygon, int axisU, int axisV) {
+        Vector3fArray vertices = new Vector3fArray();
+        PolygonArray polygons = new PolygonArray();
+        polygons.beginFace();
+        for (int i = 0; i < polygon.length; i++) {
+            float[] position = new float[3];
+            position[axisU] = polygon[i][0];
+            position[axisV] = polygon[i][1];
+            position[3 - axisU - axisV] = 7;
+            vertices.add(position[0], position[1], position[2]);
+            polygons.addCorner(i, i + 100, i + 200);
+        }
+        polygons.endFace();
+
+        PolygonArray triangles = Triangulator.triangulate(polygons, vertices);
+
+        Assertions.assertEquals(polygon.length - 2, triangles.size());
+        double polygonArea = signedArea(polygon);
+        double absoluteSum = 0;
+        for (int face = 0; face < triangles.size(); face++) {
+            int start = triangles.getFaceStart(face);
+            Assertions.assertEquals(3, triangles.getFaceSize(face));
+            float[][] triangle = new float[3][];
+            for (int i = 0; i < 3; i++) {
+                int vertex = triangles.getVertexIndex(start + i);
+                Assertions.assertEquals(vertex + 100, triangles.getTextureIndex(start + i));
+                Assertions.assertEquals(vertex + 200, triangles.getNormalIndex(start + i));
+                triangle[i] = polygon[vertex];
+            }
+
+            double area = signedArea(triangle);
+            Assertions.assertTrue(area * polygonArea > 0, "Треугольник " + face + " обходится не так, как грань");
+            absoluteSum += Math.abs(area);
+
+            double centerX = (triangle[0][0] + triangle[1][0] + triangle[2][0]) / 3.0;
+            double centerY = (triangle[0][1] + triangle[1][1] + triangle[2][1]) / 3.0;
+            Assertions.assertTrue(contains(polygon, centerX, centerY), "Треугольник " + face + " вне грани");
+        }
+        Assertions.assertEquals(Math.abs(polygonArea), absoluteSum, 1e-4 * Math.abs(polygonArea));
+    }
+
+    private static void assertAllStartsAndWindings(float[][] polygon) {
+        for (int shift = 0; shift < polygon.length; shift++) {
+            float[][] rotated = rotate(polygon, shift);
+            assertTriangulatedExactly(rotated, 0, 1);
+            assertTriangulatedExactly(reverse(rotated), 0, 1);
+        }
+    }
+
+    @Test
+    public void testConvexFaceIsFan() {
+        float[][] hexagon = star(3, 1.0f, 1.0f, false);
+        assertTriangulatedExactly(hexagon, 0, 1);
+    }
+
+    @Test
+    public void testConcaveQuadStartingAtReflexVertex() {
+        // Наконечник стрелы: вершина (2, 1) вдавленная
+        float[][] arrow = {{2, 1}, {4, 0}, {2, 3}, {0, 0}};
+        assertAllStartsAndWindings(arrow);
+    }
+
+    @Test
+    public void testCombStartingAtReflexVertex() {
+        // Веер из дна зубца пересекает соседние зубцы
+        float[][] comb = rotate(COMB, 4);
+        assertTriangulatedExactly(comb, 0, 1);
+        assertAllStartsAndWindings(COMB);
+    }
+
+    @Test
+    public void testLShapeStartingAtConvexVertex() {
+        // Веер из (3, 1) проходит через вырез буквы
+        assertTriangulatedExactly(rotate(L_SHAPE, 2), 0, 1);
+        assertAllStartsAndWindings(L_SHAPE);
+    }
+
+    @Test
+    public void testClockwiseStar() {
+        Assertions.assertTrue(signedArea(CLOCKWISE_STAR) < 0);
+        assertAllStartsAndWindings(CLOCKWISE_STAR);
+    }
+
+    @Test
+    public void testConcaveFaceInOtherPlanes() {
+        // Грань в плоскостях YZ и XZ, в том числе с осями в обратном порядке
+        assertTriangulatedExactly(COMB, 1, 2);
+        assertTriangulatedExactly(COMB, 2, 1);
+        assertTriangulatedExactly(CLOCKWISE_STAR, 0, 2);
+        assertTriangulatedExactly(L_SHAPE, 2, 0);
+    }
+
+    @Test
+    public void testTriangleFacesAreReturnedAsIs() {
+        Vector3fArray vertices = new Vector3fArray();
+        vertices.add(0, 0, 0);
+        vertices.add(1, 0, 0);
+        vertices.add(0, 1, 0);
+        PolygonArray polygons = new PolygonArray();
+        polygons.addTriangle(0, 1, 2, 0, 1, 2, 0, 1, 2);
+
+        Assertions.assertSame(polygons, Triangulator.triangulate(polygons, vertices));
+    }
+}